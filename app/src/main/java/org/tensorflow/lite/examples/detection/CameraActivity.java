@@ -53,10 +53,10 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.FrameRing;
 import org.tensorflow.lite.examples.detection.env.Logger;
-
-import java.nio.ByteBuffer;
+import org.tensorflow.lite.examples.detection.env.YuvConverter;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
 
 public abstract class CameraActivity extends AppCompatActivity
     implements OnImageAvailableListener,
@@ -68,18 +68,30 @@ public abstract class CameraActivity extends AppCompatActivity
   private static final int PERMISSIONS_REQUEST = 1;
 
   private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
+  // Threads converting each preview frame from YUV to ARGB.
+  private static final int YUV_CONVERTER_THREADS =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+  // Per-pixel YUV to ARGB conversion; every kernel gives the same output.
+  private static final YuvConverter.Kernel YUV_KERNEL = YuvConverter.Kernel.LOOKUP_TABLE;
   protected int previewWidth = 0;
   protected int previewHeight = 0;
   private boolean debug = false;
   private Handler handler;
   private HandlerThread handlerThread;
   private boolean useCamera2API;
-  private boolean isProcessingFrame = false;
-  private byte[][] yuvBytes = new byte[3][];
-  private int[] rgbBytes = null;
-  private int yRowStride;
-  private Runnable postInferenceCallback;
-  private Runnable imageConverter;
+  private YuvConverter yuvConverter;
+  // Camera frames are copied into the ring and processed on the inference thread, newest first.
+  private FrameRing frameRing;
+  // Frame handed to processImage(), and whether the subclass keeps it after readyForNextImage().
+  private FrameRing.Frame currentFrame;
+  private boolean frameRetained;
+  private final Runnable frameDrainer =
+      new Runnable() {
+        @Override
+        public void run() {
+          processLatestFrame();
+        }
+      };
 
   private LinearLayout bottomSheetLayout;
   private LinearLayout gestureLayout;
@@ -95,6 +107,10 @@ public abstract class CameraActivity extends AppCompatActivity
   protected void onCreate(final Bundle savedInstanceState) {
     LOGGER.d("onCreate " + this);
     super.onCreate(null);
+    yuvConverter = new YuvConverter(YUV_CONVERTER_THREADS);
+    yuvConverter.setKernel(YUV_KERNEL);
+    // Frames held by the subclass, plus one being copied and one waiting.
+    frameRing = new FrameRing(getMaxRetainedFrames() + 2);
     getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
     setContentView(R.layout.activity_camera);
@@ -177,39 +193,58 @@ public abstract class CameraActivity extends AppCompatActivity
 
     plusImageView.setOnClickListener(this);
     minusImageView.setOnClickListener(this);
+    threadsTextView.setOnLongClickListener(
+        new View.OnLongClickListener() {
+          @Override
+          public boolean onLongClick(View v) {
+            Toast.makeText(CameraActivity.this, "Tuning inference...", Toast.LENGTH_SHORT).show();
+            tuneInference();
+            return true;
+          }
+        });
   }
 
+  /**
+   * Converts the whole current frame to ARGB, once per frame. Consumers that only need some pixels
+   * should read {@link #getYuvFrame()} instead.
+   */
   protected int[] getRgbBytes() {
-    imageConverter.run();
-    return rgbBytes;
+    return getRgbBytes(currentFrame);
+  }
+
+  /**
+   * Converts a {@link #retainFrame() retained} frame to ARGB, once per frame. Only one thread at a
+   * time may convert frames.
+   */
+  protected int[] getRgbBytes(final FrameRing.Frame frame) {
+    return frame.getArgb(yuvConverter);
+  }
+
+  /** The YUV planes of the current frame, valid while {@link #processImage()} runs. */
+  protected YuvFrame getYuvFrame() {
+    return currentFrame.getYuv();
   }
 
   protected int getLuminanceStride() {
-    return yRowStride;
+    return getYuvFrame().lumaRow(1);
   }
 
   protected byte[] getLuminance() {
-    return yuvBytes[0];
+    return getYuvFrame().getLuminance();
   }
 
   /** Callback for android.hardware.Camera API */
   @Override
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
-    if (isProcessingFrame) {
-      LOGGER.w("Dropping frame!");
-      return;
-    }
-
 
     Log.v("camera", "camera1");
 
     try {
       // Initialize the storage bitmaps once when the resolution is known.
-      if (rgbBytes == null) {
+      if (previewWidth == 0 || previewHeight == 0) {
         Camera.Size previewSize = camera.getParameters().getPreviewSize();
         previewHeight = previewSize.height;
         previewWidth = previewSize.width;
-        rgbBytes = new int[previewWidth * previewHeight];
         onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
       }
     } catch (final Exception e) {
@@ -217,27 +252,19 @@ public abstract class CameraActivity extends AppCompatActivity
       return;
     }
 
-    isProcessingFrame = true;
-    yuvBytes[0] = bytes;
-    yRowStride = previewWidth;
-
-    imageConverter =
-        new Runnable() {
-          @Override
-          public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
-          }
-        };
-
-    postInferenceCallback =
-        new Runnable() {
-          @Override
-          public void run() {
-            camera.addCallbackBuffer(bytes);
-            isProcessingFrame = false;
-          }
-        };
-    processImage();
+    // コピーしたらカメラのバッファはすぐに返す
+    final FrameRing.Frame frame = frameRing.acquire();
+    try {
+      if (frame != null) {
+        frame.setNV21(bytes, previewWidth, previewHeight);
+        publishFrame(frame);
+      }
+    } catch (final RuntimeException e) {
+      frameRing.cancel(frame);
+      LOGGER.e(e, "Exception!");
+    } finally {
+      camera.addCallbackBuffer(bytes);
+    }
   }
 
   /** Callback for Camera2 API */
@@ -249,61 +276,88 @@ public abstract class CameraActivity extends AppCompatActivity
     if (previewWidth == 0 || previewHeight == 0) {
       return;
     }
-    if (rgbBytes == null) {
-      rgbBytes = new int[previewWidth * previewHeight];
+    final Image image = reader.acquireLatestImage();
+    if (image == null) {
+      return;
     }
+    Trace.beginSection("imageAvailable");
+    // コピーしたらImageはすぐに閉じ，ImageReaderが次のフレームを受け取れるようにする
+    final FrameRing.Frame frame = frameRing.acquire();
     try {
-      final Image image = reader.acquireLatestImage();
-
-      if (image == null) {
-        return;
+      if (frame != null) {
+        final Plane[] planes = image.getPlanes();
+        frame.setPlanes(
+            planes[0].getBuffer(),
+            planes[1].getBuffer(),
+            planes[2].getBuffer(),
+            previewWidth,
+            previewHeight,
+            planes[0].getRowStride(),
+            planes[1].getRowStride(),
+            planes[1].getPixelStride());
+        publishFrame(frame);
       }
-
-      if (isProcessingFrame) {
-        image.close();
-        return;
-      }
-      isProcessingFrame = true;
-      Trace.beginSection("imageAvailable");
-      final Plane[] planes = image.getPlanes();
-      fillBytes(planes, yuvBytes);
-      yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
-
-      imageConverter =
-          new Runnable() {
-            @Override
-            public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
-                  yuvBytes[0],
-                  yuvBytes[1],
-                  yuvBytes[2],
-                  previewWidth,
-                  previewHeight,
-                  yRowStride,
-                  uvRowStride,
-                  uvPixelStride,
-                  rgbBytes);
-            }
-          };
-
-      postInferenceCallback =
-          new Runnable() {
-            @Override
-            public void run() {
-              image.close();
-              isProcessingFrame = false;
-            }
-          };
-
-      processImage();
-    } catch (final Exception e) {
+    } catch (final RuntimeException e) {
+      frameRing.cancel(frame);
       LOGGER.e(e, "Exception!");
+    } finally {
+      image.close();
       Trace.endSection();
+    }
+  }
+
+  private void publishFrame(final FrameRing.Frame frame) {
+    frameRing.publish(frame);
+    runInBackground(frameDrainer);
+  }
+
+  /**
+   * Hands the newest waiting frame to {@link #processImage()}, if the subclass can take one. Runs
+   * on the inference thread; frames that are overtaken in the meantime are skipped.
+   */
+  private void processLatestFrame() {
+    if (!canProcessFrame()) {
+      return;
+    }
+    final FrameRing.Frame frame = frameRing.takeLatest();
+    if (frame == null) {
       return;
     }
-    Trace.endSection();
+    currentFrame = frame;
+    frameRetained = false;
+    try {
+      processImage();
+    } finally {
+      readyForNextImage();
+      currentFrame = null;
+    }
+  }
+
+  /**
+   * Whether {@link #processImage()} can take a frame now. While it cannot, new frames wait in the
+   * ring, the newest replacing older ones; call {@link #requestNextFrame()} once it can.
+   */
+  protected boolean canProcessFrame() {
+    return true;
+  }
+
+  /** Processes the newest waiting frame, if any, on the inference thread. */
+  protected void requestNextFrame() {
+    runInBackground(frameDrainer);
+  }
+
+  /**
+   * Keeps the current frame after {@link #processImage()} returns, e.g. while its pixels are read
+   * on another thread. The caller must {@link FrameRing.Frame#release()} it.
+   */
+  protected FrameRing.Frame retainFrame() {
+    frameRetained = true;
+    return currentFrame;
+  }
+
+  /** How many frames the subclass may {@link #retainFrame() retain} at once. */
+  protected int getMaxRetainedFrames() {
+    return 2;
   }
 
   @Override
@@ -325,6 +379,7 @@ public abstract class CameraActivity extends AppCompatActivity
   @Override
   public synchronized void onPause() {
     LOGGER.d("onPause " + this);
+    frameRing.logStats();
 
     handlerThread.quitSafely();
     try {
@@ -347,6 +402,7 @@ public abstract class CameraActivity extends AppCompatActivity
   @Override
   public synchronized void onDestroy() {
     LOGGER.d("onDestroy " + this);
+    yuvConverter.close();
     super.onDestroy();
   }
 
@@ -468,26 +524,18 @@ public abstract class CameraActivity extends AppCompatActivity
     getFragmentManager().beginTransaction().replace(R.id.container, fragment).commit();
   }
 
-  protected void fillBytes(final Plane[] planes, final byte[][] yuvBytes) {
-    // Because of the variable row stride it's not possible to know in
-    // advance the actual necessary dimensions of the yuv planes.
-    for (int i = 0; i < planes.length; ++i) {
-      final ByteBuffer buffer = planes[i].getBuffer();
-      if (yuvBytes[i] == null) {
-        LOGGER.d("Initializing buffer %d at size %d", i, buffer.capacity());
-        yuvBytes[i] = new byte[buffer.capacity()];
-      }
-      buffer.get(yuvBytes[i]);
-    }
-  }
-
   public boolean isDebug() {
     return debug;
   }
 
+  /**
+   * Returns the current frame's slot to the ring, unless it has been retained. Called after {@link
+   * #processImage()} at the latest.
+   */
   protected void readyForNextImage() {
-    if (postInferenceCallback != null) {
-      postInferenceCallback.run();
+    if (currentFrame != null && !frameRetained) {
+      currentFrame.release();
+      frameRetained = true;
     }
   }
 
@@ -544,6 +592,15 @@ public abstract class CameraActivity extends AppCompatActivity
     inferenceTimeTextView.setText(inferenceTime);
   }
 
+  /** Shows settings chosen by the app rather than the user; the switch forwards NNAPI again. */
+  protected void showInferenceSettings(int numThreads, boolean useNNAPI) {
+    threadsTextView.setText(String.valueOf(numThreads));
+    apiSwitchCompat.setChecked(useNNAPI);
+  }
+
+  /** Called when the user asks to re-tune the inference settings (long press on threads). */
+  protected void tuneInference() {}
+
   protected abstract void processImage();
 
   protected abstract void onPreviewSizeChosen(final Size size, final int rotation);
@@ -16,17 +16,17 @@
 
 package org.tensorflow.lite.examples.detection;
 
-import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.media.ImageReader.OnImageAvailableListener;
+import android.os.Bundle;
 import android.os.Environment;
 import android.os.SystemClock;
 import android.util.DisplayMetrics;
@@ -35,41 +35,51 @@ import android.util.Size;
 import android.util.TypedValue;
 import android.widget.Toast;
 
-import androidx.annotation.NonNull;
-
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
-import com.google.firebase.ml.vision.FirebaseVision;
-import com.google.firebase.ml.vision.common.FirebaseVisionImage;
-import com.google.firebase.ml.vision.common.FirebaseVisionPoint;
-import com.google.firebase.ml.vision.face.FirebaseVisionFace;
-import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
-import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetector;
 import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetectorOptions;
 
-import org.jetbrains.bio.npy.NpyArray;
-import org.jetbrains.bio.npy.NpyFile;
 import org.tensorflow.lite.examples.detection.customview.OverlayView;
 import org.tensorflow.lite.examples.detection.customview.OverlayView.DrawCallback;
 import org.tensorflow.lite.examples.detection.env.BorderedText;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.Nv21Buffer;
+import org.tensorflow.lite.examples.detection.env.PipelineStage;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+import org.tensorflow.lite.examples.detection.face.DetectedFace;
+import org.tensorflow.lite.examples.detection.face.FaceDetectorProvider;
+import org.tensorflow.lite.examples.detection.face.FirebaseFaceDetectorProvider;
+import org.tensorflow.lite.examples.detection.face.ReplayFaceDetectorProvider;
 import org.tensorflow.lite.examples.detection.tflite.Classifier;
-import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
+import org.tensorflow.lite.examples.detection.tflite.FaceGrid;
+import org.tensorflow.lite.examples.detection.tflite.GazeAutoTuner;
+import org.tensorflow.lite.examples.detection.tflite.GazeEstimator;
+import org.tensorflow.lite.examples.detection.tflite.GazeFixtures;
+import org.tensorflow.lite.examples.detection.tflite.GazeInterpreterPool;
+import org.tensorflow.lite.examples.detection.tflite.RoiResampler;
+import org.tensorflow.lite.examples.detection.tracking.GazeFilter;
+import org.tensorflow.lite.examples.detection.tracking.KalmanGazeFilter;
+import org.tensorflow.lite.examples.detection.tracking.MedianGazeFilter;
 import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
+import org.tensorflow.lite.examples.detection.tracking.OneEuroGazeFilter;
+import org.tensorflow.lite.examples.detection.tracking.RoiTracker;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 /**
  * An activity that uses a TensorFlowMultiBoxDetector and ObjectTracker to detect and then track
@@ -79,13 +89,10 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     private static final Logger LOGGER = new Logger();
 
     // Configuration values for the prepackaged SSD model.
-    private static final int TF_OD_API_INPUT_SIZE = 224;
+    private static final int TF_OD_API_INPUT_SIZE = GazeStartup.INPUT_SIZE;
     private static final int cropSizex = 960;
     private static final int cropSizey = 1280;
 
-    private static final boolean TF_OD_API_IS_QUANTIZED = false;
-    private static final String TF_OD_API_MODEL_FILE = "converted_model.tflite";
-    private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/labelmap.txt";
     private static final DetectorMode MODE = DetectorMode.TF_OD_API;
     // Minimum detection confidence to track a detection.
     private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.5f;
@@ -93,23 +100,128 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     private static final Size DESIRED_PREVIEW_SIZE = new Size(960, 1280);
     private static final boolean SAVE_PREVIEW_BITMAP = false;
     private static final float TEXT_SIZE_DIP = 10;
+    // Estimate the gaze of every face in the frame instead of only the first one.
+    private static final boolean MULTI_FACE = false;
+    // Maximum number of faces estimated per frame in MULTI_FACE mode.
+    private static final int MAX_FACES = 4;
+    // Half the side of an eye crop relative to the face width, used when only eye landmarks are known.
+    private static final float EYE_CROP_RATIO = 0.2f;
+    // 視線の平滑化（顔ごとに，カメラからの相対位置[cm]に対して行う）
+    private static final GazeFilterType GAZE_FILTER = GazeFilterType.ONE_EURO;
+    // 1€フィルタ: 静止時のカットオフ[Hz]，速度によるカットオフの増分[1/cm]，速度のカットオフ[Hz]
+    private static final float ONE_EURO_MIN_CUTOFF = 1.0f;
+    private static final float ONE_EURO_BETA = 0.3f;
+    private static final float ONE_EURO_DERIVATIVE_CUTOFF = 1.0f;
+    // カルマンフィルタ: 加速度の雑音[cm^2/s^3]と観測の分散[cm^2]
+    private static final float KALMAN_PROCESS_NOISE = 50f;
+    private static final float KALMAN_MEASUREMENT_NOISE = 1f;
+    // 移動中央値の窓（フレーム数）
+    private static final int MEDIAN_WINDOW = 5;
+    private static final int MEDIAN_MAX_WINDOW = 15;
+    // 視線推定の入力: LIVEはカメラからの切り出し，FIXTUREは固定のサンプルを繰り返し使う（デバッグ用）
+    private static final InputMode INPUT_MODE = InputMode.LIVE;
+    // FIXTUREモードのサンプルがあるassetsのディレクトリ（""はassetsの直下）
+    private static final String FIXTURE_DIRECTORY = "";
+    // 顔検出への入力: BITMAPはRGBに変換・回転した画像，LUMAは輝度だけ，NV21は色も含めたYUVを回転情報付きで渡す
+    private static final DetectionInput DETECTION_INPUT = DetectionInput.LUMA;
+    // 顔検出の方法: FIREBASEはML Kitの検出器，REPLAYは記録した顔をassetsから読み込んで順番に返す
+    private static final FaceSource FACE_SOURCE = FaceSource.FIREBASE;
+    // REPLAYモードで使う記録（形式はReplayFaceDetectorProviderを参照）
+    private static final String FACE_RECORDING = "faces.csv";
+    // How face and eye crops are resampled from the camera frame to the model input size.
+    private static final RoiResampler.Mode RESAMPLE_MODE = RoiResampler.Mode.NEAREST;
+    // Auto-tuning: untimed and timed runs per thread count/NNAPI combination.
+    private static final int TUNE_WARM_UP_ITERATIONS = 2;
+    private static final int TUNE_ITERATIONS = 15;
+    // 同時に処理するフレームの数（フレームごとのバッファをこの数だけ用意する）
+    private static final int FRAMES_IN_FLIGHT = GazeStartup.INTERPRETER_POOL_SIZE + 2;
+    // 段と段の間のキューの長さと，満杯のときにどのフレームを捨てるか
+    private static final int STAGE_QUEUE_DEPTH = 2;
+    private static final PipelineStage.DropPolicy STAGE_DROP_POLICY = PipelineStage.DropPolicy.DROP_OLDEST;
+    // 各段の統計をログに出す間隔
+    private static final long STAGE_STATS_INTERVAL_MS = 5000;
+    // 顔検出はDETECTION_INTERVALフレームに1回だけ行い，間のフレームでは顔を輝度のテンプレートマッチングで追跡する
+    private static final boolean TRACK_FACES = true;
+    private static final int DETECTION_INTERVAL = 5;
+    // 追跡の一致度（正規化相互相関）がこれを下回ったら見失ったとみなし，次のフレームで検出し直す
+    private static final float MIN_TRACK_SCORE = 0.7f;
+    // テンプレートの1辺の標本数と，1フレームの間に顔が動きうる距離（顔の大きさに対する比）
+    private static final int TRACK_TEMPLATE_SIZE = 16;
+    private static final float TRACK_SEARCH_RATIO = 0.25f;
     OverlayView trackingOverlay;
     private Integer sensorOrientation;
 
-    private Classifier detector;
+    // モデルの読み込みはMyApplicationで始まり，完了するとdetectorsが設定される
+    private GazeStartup startup;
+    private volatile GazeInterpreterPool detectors;
+    // FIXTUREモードで使うサンプル
+    private GazeFixtures fixtures;
+
+    // 自動チューニング用のスレッド
+    private ExecutorService tuningExecutor;
 
     private long lastProcessingTimeMs;
     private Bitmap rgbFrameBitmap = null;
-    private Bitmap croppedBitmap = null;
     private Bitmap cropCopyBitmap = null;
 
-    private boolean computingDetection = false;
+    /**
+     * フレームは変換・顔検出・切り出し・推論・結果の反映の各段を順に流れ，段ごとに別のスレッドで処理する．
+     * 処理中のフレームの数はframePoolの大きさで決まり，空きがなければ最新のフレームがリングで待つ
+     */
+    private volatile ArrayBlockingQueue<GazeFrame> framePool;
+    // framePoolに属するフレームと，そのバッファを作ったときのプレビューのサイズ
+    private GazeFrame[] frames;
+    private int framesWidth;
+    private int framesHeight;
+    private PipelineStage<GazeFrame> convertStage;
+    private PipelineStage<GazeFrame> detectStage;
+    private PipelineStage<GazeFrame> roiStage;
+    private PipelineStage<GazeFrame> inferStage;
+    private PipelineStage<GazeFrame> publishStage;
+    // 顔検出器（onResumeで開き，onPauseで閉じる）
+    private volatile FaceDetectorProvider faceDetector;
+    // 結果の反映の段だけが使う
+    private long lastPublishedTimestamp;
+    private long lastStatsTime;
+    // 顔ごとの視線のフィルタ（IDで対応付け，足りなければ最も長く使われていないものを使い回す）
+    private final GazeFilter[] gazeFilters = newGazeFilters(MAX_FACES);
+    private final int[] gazeFilterIds = new int[MAX_FACES];
+    private final long[] gazeFilterLastUsed = new long[MAX_FACES];
+    private final float[] filteredGaze = new float[2];
+
+    // 追跡中の顔（切り出しの段だけが使う）
+    private final FaceTrack[] faceTracks = newFaceTracks(MAX_FACES);
+    private int numFaceTracks;
+    private final RectF trackRect = new RectF();
+    private final Rect trackGridRect = new Rect();
+    // 追跡できているか（切り出しの段が書き，次のフレームで検出するかの判断に使う）
+    private volatile boolean trackingValid;
+    // 前回の顔検出からのフレーム数（processImageだけが使う）
+    private int framesSinceDetection;
+    // 顔検出中のフレーム．その間も新しいフレームは前回の顔を追跡し続け，次の検出は始めない
+    private volatile GazeFrame pendingDetection;
+    // 推論に送った最新のフレーム（切り出しの段だけが使う）
+    private long lastInferredTimestamp;
+
+    // ウォームアップが終わるまではフレームを捨てる
+    private volatile boolean gazeReady = false;
+
+    // 自動チューニング中かどうか
+    private final AtomicBoolean tuning = new AtomicBoolean();
 
     private long timestamp = 0;
 
     private Matrix frameToCropTransform;
     private Matrix cropToFrameTransform;
 
+    // 顔検出の結果の座標系（BITMAPモードではcropSizex x cropSizeyの画像，それ以外は回転後のカメラ画像）
+    private int detectionWidth;
+    private int detectionHeight;
+    private Matrix detectionToFrameTransform;
+    private Matrix frameToDetectionTransform;
+    // NV21を検出器に渡すときの回転（度）
+    private int detectionRotation;
+
     private MultiBoxTracker tracker;
 
     private BorderedText borderedText;
@@ -140,6 +252,55 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                     .setContourMode(FirebaseVisionFaceDetectorOptions.ALL_CONTOURS)
                     .build();
 
+    // Contours are only reported for the most prominent face, so MULTI_FACE mode uses eye
+    // landmarks and face tracking IDs instead.
+    private FirebaseVisionFaceDetectorOptions multiFaceOpts =
+            new FirebaseVisionFaceDetectorOptions.Builder()
+                    .setLandmarkMode(FirebaseVisionFaceDetectorOptions.ALL_LANDMARKS)
+                    .enableTracking()
+                    .build();
+
+    /**
+     * モデルの読み込みを待つ処理はアクティビティごとに一度だけ登録する（onPreviewSizeChosenはonResumeのたびに呼ばれる）
+     */
+    @Override
+    protected void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        tuningExecutor = Executors.newSingleThreadExecutor();
+        // モデルの準備ができ次第フレームの処理を始める（ウォームアップはMyApplicationの読み込みで済んでいる）
+        startup = ((MyApplication) getApplicationContext()).getGazeStartup();
+        startup.ready()
+                .whenComplete(
+                        new BiConsumer<GazeStartup.Gaze, Throwable>() {
+                            @Override
+                            public void accept(final GazeStartup.Gaze loaded, final Throwable error) {
+                                if (tuningExecutor.isShutdown()) {
+                                    return;
+                                }
+                                if (error != null) {
+                                    onGazeStartupFailed(error);
+                                    return;
+                                }
+                                detectors = loaded.pool;
+                                // チューニング済みの設定はGazeStartupがプールに適用している
+                                final GazeAutoTuner.Config tuned =
+                                        GazeAutoTuner.load(
+                                                GazeStartup.getTuningPrefs(DetectorActivity.this),
+                                                GazeStartup.getTuningKey(),
+                                                TF_OD_API_INPUT_SIZE);
+                                if (tuned == null) {
+                                    showInferenceSettingsOnUiThread(GazeStartup.THREADS_PER_INTERPRETER, false);
+                                    // 初回起動時はチューニングが終わってから処理を始める
+                                    tuneInference();
+                                } else {
+                                    showInferenceSettingsOnUiThread(tuned.numThreads, tuned.useNNAPI);
+                                    gazeReady = true;
+                                }
+                            }
+                        });
+    }
+
     // Preview画像のサイズが決定されたときに呼ばれるメソッド
     @Override
     public void onPreviewSizeChosen(final Size size, final int rotation) {
@@ -161,13 +322,11 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         int cropSize = TF_OD_API_INPUT_SIZE;
 
         try {
-            detector =
-                    TFLiteObjectDetectionAPIModel.create(
-                            getAssets(),
-                            TF_OD_API_MODEL_FILE,
-                            TF_OD_API_LABELS_FILE,
-                            TF_OD_API_INPUT_SIZE,
-                            TF_OD_API_IS_QUANTIZED);
+            if (INPUT_MODE == InputMode.FIXTURE) {
+                // 毎フレームのデコードを避けるため，サンプルは最初に一度だけ読み込む
+                fixtures = GazeFixtures.load(getAssets(), FIXTURE_DIRECTORY, TF_OD_API_INPUT_SIZE);
+                LOGGER.i("Replaying %d gaze fixtures", fixtures.size());
+            }
             cropSize = TF_OD_API_INPUT_SIZE;
         } catch (final IOException e) {
             e.printStackTrace();
@@ -193,9 +352,6 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         // プレビュー（画面上に表示された画像）の情報を持つBitmap
         rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
 
-        // 深層学習用にサイズが変更された画像を持つBitmap
-        croppedBitmap = Bitmap.createBitmap(cropSizex, cropSizey, Config.ARGB_8888);
-
         // PreviewFrameからCropFrameへの変換用のMatrix
         frameToCropTransform =
                 ImageUtils.getTransformationMatrix(
@@ -207,6 +363,27 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         cropToFrameTransform = new Matrix();
         frameToCropTransform.invert(cropToFrameTransform);
 
+        if (DETECTION_INPUT == DetectionInput.BITMAP) {
+            detectionWidth = cropSizex;
+            detectionHeight = cropSizey;
+            detectionToFrameTransform = cropToFrameTransform;
+            frameToDetectionTransform = frameToCropTransform;
+        } else {
+            // 検出器は回転情報に従って，回転後の画像上の座標で結果を返す
+            final int degrees = ((sensorOrientation % 360) + 360) % 360;
+            final boolean transposed = degrees == 90 || degrees == 270;
+            detectionWidth = transposed ? previewHeight : previewWidth;
+            detectionHeight = transposed ? previewWidth : previewHeight;
+            frameToDetectionTransform =
+                    ImageUtils.getTransformationMatrix(
+                            previewWidth, previewHeight,
+                            detectionWidth, detectionHeight,
+                            sensorOrientation, false);
+            detectionToFrameTransform = new Matrix();
+            frameToDetectionTransform.invert(detectionToFrameTransform);
+            detectionRotation = degrees;
+        }
+
         // 画面と関連付け
         trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
 
@@ -232,179 +409,508 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
         // 画面描画の設定 実際
         tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+
+        startPipeline();
+    }
+
+    /**
+     * フレームごとのバッファと各段のワーカーを用意する．onPreviewSizeChosenはonResumeのたびに呼ばれるので，
+     * 段は最初の一度だけ作り，バッファはプレビューのサイズが変わったときだけ作り直す
+     */
+    private void startPipeline() {
+        if (publishStage == null) {
+            createStages();
+        }
+        if (frames == null || framesWidth != previewWidth || framesHeight != previewHeight) {
+            final GazeFrame[] created = new GazeFrame[FRAMES_IN_FLIGHT];
+            final ArrayBlockingQueue<GazeFrame> pool = new ArrayBlockingQueue<>(FRAMES_IN_FLIGHT);
+            for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+                // RGBへの変換も回転もせず，YUVのまま回転情報と一緒に渡すためのバッファ
+                final Nv21Buffer buffer =
+                        DETECTION_INPUT == DetectionInput.BITMAP
+                                ? null
+                                : new Nv21Buffer(previewWidth, previewHeight, DETECTION_INPUT == DetectionInput.NV21);
+                created[i] = new GazeFrame(MULTI_FACE ? MAX_FACES : 1, TF_OD_API_INPUT_SIZE, RESAMPLE_MODE, buffer);
+                pool.add(created[i]);
+            }
+            framesWidth = previewWidth;
+            framesHeight = previewHeight;
+            synchronized (this) {
+                frames = created;
+                framePool = pool;
+            }
+        }
+        lastStatsTime = SystemClock.uptimeMillis();
+        requestNextFrame();
+    }
+
+    /**
+     * 各段のワーカーを作る．段は逆順に作り，次の段が必ず存在するようにする
+     */
+    private void createStages() {
+        final PipelineStage.Recycler<GazeFrame> recycler =
+                new PipelineStage.Recycler<GazeFrame>() {
+                    @Override
+                    public void recycle(final GazeFrame frame) {
+                        finishFrame(frame);
+                    }
+                };
+        publishStage =
+                new PipelineStage<>(
+                        "publish", STAGE_QUEUE_DEPTH, STAGE_DROP_POLICY, 1,
+                        new PipelineStage.Worker<GazeFrame>() {
+                            @Override
+                            public void process(final GazeFrame frame) {
+                                publish(frame);
+                            }
+                        },
+                        recycler);
+        // 推論はインタプリタの数だけ並列に行う
+        inferStage =
+                new PipelineStage<>(
+                        "infer", STAGE_QUEUE_DEPTH, STAGE_DROP_POLICY, GazeStartup.INTERPRETER_POOL_SIZE,
+                        new PipelineStage.Worker<GazeFrame>() {
+                            @Override
+                            public void process(final GazeFrame frame) throws InterruptedException {
+                                infer(frame);
+                            }
+                        },
+                        recycler);
+        roiStage =
+                new PipelineStage<>(
+                        "roi", STAGE_QUEUE_DEPTH, STAGE_DROP_POLICY, 1,
+                        new PipelineStage.Worker<GazeFrame>() {
+                            @Override
+                            public void process(final GazeFrame frame) {
+                                extractRois(frame);
+                            }
+                        },
+                        recycler);
+        detectStage =
+                new PipelineStage<>(
+                        "detect", STAGE_QUEUE_DEPTH, STAGE_DROP_POLICY, 1,
+                        new PipelineStage.Worker<GazeFrame>() {
+                            @Override
+                            public void process(final GazeFrame frame) throws Exception {
+                                detectFaces(frame);
+                            }
+                        },
+                        recycler);
+        convertStage =
+                new PipelineStage<>(
+                        "convert", STAGE_QUEUE_DEPTH, STAGE_DROP_POLICY, 1,
+                        new PipelineStage.Worker<GazeFrame>() {
+                            @Override
+                            public void process(final GazeFrame frame) {
+                                convert(frame);
+                            }
+                        },
+                        recycler);
     }
 
     /**
      * 画像を処理するメソッド
      * 通常であればカメラからの映像が来る度にこのメソッドが呼ばれるはずである
+     * 空いているバッファにフレームを割り当て，最初の段に渡すだけで，処理は各段のスレッドで行う
      */
     @Override
     protected void processImage() {
 
         // テスト用に画像を保存
         // saveImage(rgbFrameBitmap, "real");
+        final GazeFrame frame = framePool.poll();
+        if (frame == null) {
+            return;
+        }
         ++timestamp;
-        final long currTimestamp = timestamp;
+        frame.timestamp = timestamp;
+        frame.timeNanos = SystemClock.elapsedRealtimeNanos();
         trackingOverlay.postInvalidate();
 
-        // No mutex needed as this method is not reentrant.
-        if (computingDetection) {
-            readyForNextImage();
+        // 顔と目はYUVのフレームから必要な画素だけ変換して切り出すので，推定が終わるまでスロットを借りておく
+        frame.slot = retainFrame();
+
+        // 顔検出は一定の間隔か，追跡で顔を見失ったときだけ行う．それ以外のフレームと，
+        // 検出中に来たフレームは変換と検出を飛ばす
+        frame.detect = (!TRACK_FACES || !trackingValid || ++framesSinceDetection >= DETECTION_INTERVAL)
+                && pendingDetection == null;
+        if (frame.detect) {
+            framesSinceDetection = 0;
+            pendingDetection = frame;
+            convertStage.offer(frame);
+        } else {
+            roiStage.offer(frame);
+        }
+    }
+
+    /**
+     * 変換の段: 顔検出器への入力を作る
+     */
+    private void convert(final GazeFrame frame) {
+        frame.startFace = SystemClock.uptimeMillis();
+
+        // フレーム全体のRGBはBITMAPモードの顔検出と，確認用の保存にだけ使う
+        if (DETECTION_INPUT == DetectionInput.BITMAP || SAVE_PREVIEW_BITMAP) {
+            // Previewの画像を取得．しかし，実際にPreviewを表示しているときにはOrientationをいじっている．
+            // 画像を回転させている
+            final int[] rgbBytes = getRgbBytes(frame.slot);
+            rgbFrameBitmap.setPixels(rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
+
+            // 深層学習用にサイズが変更された画像を持つBitmap（フレームごとのバッファに描くのでコピーは不要）
+            if (frame.bitmap == null) {
+                frame.bitmap = Bitmap.createBitmap(cropSizex, cropSizey, Config.ARGB_8888);
+            }
+
+            // カメラから取得した映像とcanvasを関連付け
+            // Canvasを用いてbitmapを自由に変更できる
+            final Canvas canvas = new Canvas(frame.bitmap);
+
+            // bitmapの描かれたキャンバスにframeToCropTransformを用いてrgbFrameBitmapを描画
+            canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+
+            // bitmapを保存
+            if (SAVE_PREVIEW_BITMAP) {
+                ImageUtils.saveBitmap(frame.bitmap);
+            }
+        }
+
+        //顔検出のための処理
+        if (DETECTION_INPUT == DetectionInput.BITMAP) {
+            frame.image.setBitmap(frame.bitmap);
+        } else {
+            frame.image.setNV21(
+                    frame.detectionBuffer.fill(frame.slot.getYuv()), previewWidth, previewHeight, detectionRotation);
+        }
+        detectStage.offer(frame);
+    }
+
+    /**
+     * 顔検出の段: 検出が終わるまでこの段のスレッドで待つので，その間も他の段は別のフレームを処理できる
+     */
+    private void detectFaces(final GazeFrame frame) throws Exception {
+        // 認識結果がゼロの場合でも返る．失敗した場合は例外になり，フレームは捨てられる
+        final FaceDetectorProvider detector = faceDetector;
+        if (detector == null) {
+            throw new IllegalStateException("No face detector");
+        }
+        frame.faces = detector.detect(frame.image).get();
+        frame.image.clear();
+        roiStage.offer(frame);
+    }
+
+    /**
+     * 切り出しの段: 推定する顔を選び，顔と目の切り出しとグリッドを設定する．
+     * 顔検出を飛ばしたフレームでは，前回検出した顔を追跡して切り出す．
+     * 検出したフレームが着くと，その画像からテンプレートを取り直し，以降のフレームはそこから追跡する
+     */
+    private void extractRois(final GazeFrame frame) {
+        if (!frame.detect) {
+            trackFaces(frame);
+        } else {
+            numFaceTracks = 0;
+            if (MULTI_FACE) {
+                // 全員の視線を一度に推定する
+                selectFaces(frame);
+            } else {
+                selectFirstFace(frame);
+            }
+            trackingValid = numFaceTracks > 0;
+            frame.faces = null;
+            // 追跡の元になる顔が決まったので，次の検出を始めてよい
+            pendingDetection = null;
+            requestNextFrame();
+        }
+        // 検出中に追跡したフレームが先に推論へ進んでいれば，検出したフレームの結果は
+        // 反映の段で古いとして捨てられるので推論しない
+        if (frame.count == 0 || frame.timestamp < lastInferredTimestamp) {
+            finishFrame(frame);
             return;
         }
-        computingDetection = true;
-        LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
+        lastInferredTimestamp = frame.timestamp;
+        frame.faceTime = SystemClock.uptimeMillis() - frame.startFace;
+        inferStage.offer(frame);
+    }
 
-        // Previewの画像を取得．しかし，実際にPreviewを表示しているときにはOrientationをいじっている．
-        // 画像を回転させている
-        rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+    /**
+     * 最初の一人の顔と目を輪郭から切り出す
+     */
+    private void selectFirstFace(final GazeFrame frame) {
+        final List<DetectedFace> faces = frame.faces;
+        // 最初の一人のみ顔を検出する．目の輪郭がない場合も推定しない
+        if (faces.size() == 0 || !faces.get(0).hasEyeContours()) {
+            return;
+        }
+        final DetectedFace first = faces.get(0);
+        // 顔の境界
+        Rect bounds = new Rect(first.getLeft(), first.getTop(), first.getRight(), first.getBottom());
+        // ランドマーク 右目
+        float[] rightEyeContour = first.getRightEyeContour();
+
+        // ランドマーク 左目
+        float[] leftEyeContour = first.getLeftEyeContour();
+
+        // 顔の領域が画面外にかかる場合は推定しない
+        if (bounds.left < 0 || bounds.right > detectionWidth
+                || bounds.top < 0 || bounds.bottom > detectionHeight) {
+            return;
+        }
+        final YuvFrame yuv = frame.slot.getYuv();
 
-        readyForNextImage();
+        // 顔の切り出し（推論時に入力へ直接書き込む）
+        setFrameRoi(frame.face[0], yuv, bounds);
 
-        // カメラから取得した映像とcanvasを関連付け
-        // Canvasを用いてcroppedBitmapを自由に変更できる
-        final Canvas canvas = new Canvas(croppedBitmap);
+        // 右目の切り出し
+        Rect rightRec = calEyeRect(rightEyeContour);
+        setFrameRoi(frame.rightEye[0], yuv, rightRec);
 
-        // croppedBitmapの描かれたキャンバスにframeToCropTransformを用いてrgbFrameBitmapを描画
-        canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+        // 左目の切り出し
+        Rect leftRec = calEyeRect(leftEyeContour);
+        setFrameRoi(frame.leftEye[0], yuv, leftRec);
 
-        Log.v("croppedBitmap", croppedBitmap.getWidth() + ":" + croppedBitmap.getHeight());
+        // 画面の中のどこに顔があるかを示すグリッド
+        FaceGrid.fill(detectionWidth, detectionHeight, bounds, frame.grid[0]);
+        frame.ids[0] = 0;
+        frame.count = 1;
+        startTrack(yuv, bounds, rightRec, leftRec, 0);
+    }
 
-        //saveImage(croppedBitmap, "cropped");
+    /**
+     * 画面内の顔（最大MAX_FACES人）の切り出しとグリッドを作成する
+     */
+    private void selectFaces(final GazeFrame frame) {
+        final YuvFrame yuv = frame.slot.getYuv();
+        int count = 0;
+        for (DetectedFace f : frame.faces) {
+            if (count == MAX_FACES) {
+                break;
+            }
+            if (!f.hasEyeLandmarks()) {
+                continue;
+            }
+            Rect bounds = new Rect(f.getLeft(), f.getTop(), f.getRight(), f.getBottom());
+            Rect rightRec = calEyeRect(f.getRightEyeX(), f.getRightEyeY(), bounds.width());
+            Rect leftRec = calEyeRect(f.getLeftEyeX(), f.getLeftEyeY(), bounds.width());
+
+            // 顔と目の領域が画面外でない場合のみ推定する
+            if (!isInside(bounds) || !isInside(rightRec) || !isInside(leftRec)) {
+                continue;
+            }
+
+            setFrameRoi(frame.face[count], yuv, bounds);
+            setFrameRoi(frame.rightEye[count], yuv, rightRec);
+            setFrameRoi(frame.leftEye[count], yuv, leftRec);
+            FaceGrid.fill(detectionWidth, detectionHeight, bounds, frame.grid[count]);
 
-        // croppedBitmapを保存
-        if (SAVE_PREVIEW_BITMAP) {
-            ImageUtils.saveBitmap(croppedBitmap);
+            // トラッキングIDがない場合は並び順を使う
+            int id = f.getTrackingId();
+            frame.ids[count] = id == DetectedFace.INVALID_ID ? count : id;
+            startTrack(yuv, bounds, rightRec, leftRec, frame.ids[count]);
+            count++;
         }
+        frame.count = count;
+    }
 
-        runInBackground(
-                new Runnable() {
-                    @Override
-                    public void run() {
+    /**
+     * 検出した顔の追跡を始める．顔はテンプレートマッチングで追い，目は検出時の位置を顔と同じだけ動かす
+     *
+     * @param yuv       顔を検出したカメラ画像
+     * @param bounds    顔の領域（顔検出の座標系）
+     * @param rightRec  右目の領域（顔検出の座標系）
+     * @param leftRec   左目の領域（顔検出の座標系）
+     * @param id        顔のID
+     */
+    private void startTrack(YuvFrame yuv, Rect bounds, Rect rightRec, Rect leftRec, int id) {
+        if (!TRACK_FACES) {
+            return;
+        }
+        final FaceTrack track = faceTracks[numFaceTracks];
+        trackRect.set(bounds);
+        detectionToFrameTransform.mapRect(trackRect);
+        track.rightEye.set(rightRec);
+        detectionToFrameTransform.mapRect(track.rightEye);
+        track.leftEye.set(leftRec);
+        detectionToFrameTransform.mapRect(track.leftEye);
+        track.id = id;
+        // 平坦で追跡できない顔は，次の検出まで推定しない
+        if (track.tracker.start(
+                yuv.getLuminance(), yuv.lumaRow(1), yuv.getWidth(), yuv.getHeight(),
+                Math.round(trackRect.left), Math.round(trackRect.top),
+                Math.round(trackRect.right), Math.round(trackRect.bottom))) {
+            numFaceTracks++;
+        }
+    }
 
-                        LOGGER.i("Running detection on image " + currTimestamp);
+    /**
+     * 前回検出した顔を追跡し，顔と目の切り出しとグリッドを設定する．見失った顔があれば次のフレームで検出し直す
+     */
+    private void trackFaces(final GazeFrame frame) {
+        frame.startFace = SystemClock.uptimeMillis();
+        final YuvFrame yuv = frame.slot.getYuv();
+        final byte[] luma = yuv.getLuminance();
+        final int rowStride = yuv.lumaRow(1);
+        int count = 0;
+        for (int i = 0; i < numFaceTracks; i++) {
+            final FaceTrack track = faceTracks[i];
+            final RoiTracker tracker = track.tracker;
+            if (tracker.track(luma, rowStride, yuv.getWidth(), yuv.getHeight()) < MIN_TRACK_SCORE) {
+                tracker.stop();
+                trackingValid = false;
+                continue;
+            }
+            trackRect.set(tracker.getLeft(), tracker.getTop(), tracker.getRight(), tracker.getBottom());
+            setFrameRoi(frame.face[count], yuv, trackRect);
+
+            // グリッドは顔検出の座標系で作る
+            frameToDetectionTransform.mapRect(trackRect);
+            trackRect.round(trackGridRect);
+            FaceGrid.fill(detectionWidth, detectionHeight, trackGridRect, frame.grid[count]);
+
+            trackRect.set(track.rightEye);
+            trackRect.offset(tracker.getOffsetX(), tracker.getOffsetY());
+            setFrameRoi(frame.rightEye[count], yuv, trackRect);
+            trackRect.set(track.leftEye);
+            trackRect.offset(tracker.getOffsetX(), tracker.getOffsetY());
+            setFrameRoi(frame.leftEye[count], yuv, trackRect);
+
+            frame.ids[count] = track.id;
+            count++;
+        }
+        frame.count = count;
+    }
 
-                        long startFace = SystemClock.uptimeMillis();
+    /**
+     * 推論の段: 空いているインタプリタで視線を推定し，読み終わったカメラ画像のスロットをすぐに返す
+     */
+    private void infer(final GazeFrame frame) throws InterruptedException {
+        long startCNN = SystemClock.uptimeMillis();
 
-                        //顔検出のための処理
-                        FirebaseVisionImage image = FirebaseVisionImage.fromBitmap(croppedBitmap);
+        GazeEstimator estimator = detectors.acquireEstimator();
+        try {
+            if (MULTI_FACE) {
+                estimator.estimateBatch(frame.face, frame.rightEye, frame.leftEye, frame.grid, frame.count, frame.gaze);
+            } else {
+                switch (INPUT_MODE) {
+                    case FIXTURE:
+                        // 確認用に読み込み済みのサンプルを順番に使う（カメラからの切り出しは使わない）
+                        GazeFixtures.Sample sample = fixtures.next();
+                        estimator.estimate(sample.face, sample.rightEye, sample.leftEye, sample.faceGrid, frame.gaze[0]);
+                        break;
+                    case LIVE:
+                        estimator.estimate(frame.face[0], frame.rightEye[0], frame.leftEye[0], frame.grid[0], frame.gaze[0]);
+                        break;
+                }
+            }
+        } finally {
+            detectors.release(estimator);
+        }
+        frame.inferenceTime = SystemClock.uptimeMillis() - startCNN;
+        frame.releaseSlot();
+        publishStage.offer(frame);
+    }
 
-                        Bitmap bitmap = croppedBitmap.copy(Config.ARGB_8888, true);
+    /**
+     * 結果の反映の段: 視線の位置を画面に描き，時間を記録する
+     */
+    private void publish(final GazeFrame frame) {
+        startup.onFirstGaze();
+
+        // 推論は並列なので結果の順序が入れ替わることがある．古い結果で新しい結果を上書きしない
+        // （顔検出中も追跡したフレームは先に進むので，順序はここでだけ揃える）
+        if (frame.timestamp > lastPublishedTimestamp) {
+            lastPublishedTimestamp = frame.timestamp;
+
+            // 視線推定の結果を平滑化し，画面上の位置を計算
+            for (int i = 0; i < frame.count; i++) {
+                final float[] gaze = frame.gaze[i];
+                gazeFilterFor(frame.ids[i], frame.timestamp).filter(frame.timeNanos, gaze[0], gaze[1], filteredGaze);
+                gazePointOnReal(filteredGaze, frame.points[i]);
+            }
 
-                        FirebaseVisionFaceDetector detectorFace = FirebaseVision.getInstance()
-                                .getVisionFaceDetector(realTimeOpts);
-
-                        Task<List<FirebaseVisionFace>> resultFace =
-                                detectorFace.detectInImage(image)
-                                        .addOnSuccessListener(
-                                                new OnSuccessListener<List<FirebaseVisionFace>>() {
-
-                                                    // 認識結果がゼロの場合でも呼ばれる
-                                                    @Override
-                                                    public void onSuccess(List<FirebaseVisionFace> faces) {
-
-                                                        // 最初の一人のみ顔を検出する．
-                                                        if (faces.size() != 0) {
-                                                            // 顔の境界
-                                                            Rect bounds = faces.get(0).getBoundingBox();
-                                                            // If landmark detection was enabled (mouth, ears, eyes, cheeks, and
-                                                            // nose available):
-                                                            // ランドマーク 右目
-                                                            List<FirebaseVisionPoint> rightEyeContour =
-                                                                    faces.get(0).getContour(FirebaseVisionFaceContour.RIGHT_EYE).getPoints();
-
-                                                            // ランドマーク 左目
-                                                            List<FirebaseVisionPoint> leftEyeContour =
-                                                                    faces.get(0).getContour(FirebaseVisionFaceContour.LEFT_EYE).getPoints();
-
-
-                                                            // 顔の領域が画面外でない場合
-                                                            if (bounds.left >= 0 && bounds.right <= bitmap.getWidth()
-                                                                    && bounds.top >= 0 && bounds.bottom <= bitmap.getHeight()) {
-
-                                                                // 顔を切り取った画像
-                                                                Bitmap face = Bitmap.createScaledBitmap(cropBitmap(bitmap, bounds), scaledSize, scaledSize, false);
-
-                                                                Log.v("Contour", bounds.toString());
-                                                                // 右目を切り取った画像
-                                                                Rect rightRec = calEyeRect(rightEyeContour);
-                                                                Log.v("EyeRect", rightRec.toString());
-                                                                Bitmap test = cropBitmap(bitmap, rightRec);
-                                                                Bitmap right = Bitmap.createScaledBitmap(cropBitmap(bitmap, rightRec), scaledSize, scaledSize, false);
-                                                                Log.v("right_eye", "crop :" + test.getWidth() + ":" + test.getHeight()
-                                                                        + "\nscaled :" + right.getWidth() + ":" + right.getHeight());
-
-                                                                // 左目を切り取った画像
-                                                                Rect leftRec = calEyeRect(leftEyeContour);
-                                                                Bitmap left = Bitmap.createScaledBitmap(cropBitmap(bitmap, leftRec), scaledSize, scaledSize, false);
-
-                                                                // 画面の中のどこに顔があるかを示している画像
-                                                                Bitmap grid = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
-                                                                Canvas cv = new Canvas(grid);
-                                                                cv.drawColor(Color.BLACK);
-                                                                Paint p = new Paint();
-                                                                p.setColor(Color.WHITE);
-                                                                cv.drawRect(bounds, p);
-                                                                cv.drawBitmap(grid, 0, 0, null);
-                                                                grid = Bitmap.createScaledBitmap(grid, 25, 25, false);
-
-                                                                int[] intValues_grid;
-                                                                intValues_grid = new int[25 * 25];
-                                                                grid.getPixels(intValues_grid, 0, grid.getWidth(), 0, 0, grid.getWidth(), grid.getHeight());
-
-                                                                for (int i = 0; i < 25; ++i) {
-                                                                    for (int j = 0; j < 25; ++j) {
-                                                                        // 一つずつピクセルを取り出す
-                                                                        int pixelValue = intValues_grid[i * 25 + j];
-                                                                        if (pixelValue == -16777216) {
-                                                                            Log.v("grid", "黒");
-                                                                        } else if (pixelValue == -1) {
-                                                                            Log.v("grid", "白");
-                                                                        } else {
-                                                                            Log.v("grid", "白黒以外が存在しています");
-                                                                        }
-
-                                                                    }
-                                                                }
-
-                                                                long faceTime = SystemClock.uptimeMillis() - startFace;
-
-                                                                // saveImage(grid, "grid");
-
-                                                                // saveImage(face, "face");
-
-                                                                // saveImage(right, "right");
-
-                                                                // saveImage(left, "left");
-
-                                                                //computingDetection = false;
-                                                                recognize(getBaseContext(), face, left, right, grid, faceTime);
-                                                            }
-
-                                                            // 顔の領域が画面の外に及ぶ場合
-                                                            else {
-                                                                computingDetection = false;
-                                                            }
-
-                                                            // ここで色々用いて顔画像を切り出す
-
-                                                        } else {
-                                                            computingDetection = false;
-                                                        }
-                                                    }
-                                                })
-                                        .addOnFailureListener(
-                                                new OnFailureListener() {
-                                                    @Override
-                                                    public void onFailure(@NonNull Exception e) {
-                                                        // Task failed with an exception
-                                                        // ...
-                                                        computingDetection = false;
-                                                    }
-                                                });
+            if (MULTI_FACE) {
+                writeCSV.MakeFile(frame.faceTime + "," + frame.inferenceTime + "," + frame.count);
+                tracker.setEyePositions(frame.ids, frame.points, frame.count);
+            } else {
+                writeCSV.MakeFile(frame.faceTime + "," + String.valueOf(frame.inferenceTime));
+                tracker.setEyePosition(frame.points[0]);
+            }
 
-                    }
-                });
+            // 更新要請
+            trackingOverlay.postInvalidate();
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        if (now - lastStatsTime >= STAGE_STATS_INTERVAL_MS) {
+            lastStatsTime = now;
+            PipelineStage.logReports(convertStage, detectStage, roiStage, inferStage, publishStage);
+        }
+        finishFrame(frame);
+    }
+
+    /**
+     * フレームのバッファをプールに返し，待っている最新のフレームの処理を始める．捨てられたフレームもここに来る
+     */
+    private void finishFrame(final GazeFrame frame) {
+        if (pendingDetection == frame) {
+            // 変換や検出の段で捨てられた場合も，次のフレームを止めたままにしない
+            pendingDetection = null;
+        }
+        frame.reset();
+        // プレビューのサイズが変わる前のフレームは，大きさが合わないのでプールに戻さない
+        synchronized (this) {
+            for (GazeFrame f : frames) {
+                if (f == frame) {
+                    framePool.offer(frame);
+                    break;
+                }
+            }
+        }
+        requestNextFrame();
+    }
+
+    /**
+     * バッファに空きがあるときだけ新しいフレームを受け取る（それまでは最新のフレームがリングで待つ）．
+     * 追跡しない場合は検出中のフレームを処理できないので，検出が終わるまで待つ
+     */
+    @Override
+    protected boolean canProcessFrame() {
+        final ArrayBlockingQueue<GazeFrame> pool = framePool;
+        return gazeReady && (TRACK_FACES || pendingDetection == null) && pool != null && !pool.isEmpty();
+    }
+
+    @Override
+    protected int getMaxRetainedFrames() {
+        return FRAMES_IN_FLIGHT;
+    }
+
+    /**
+     * 顔検出の座標系の領域をカメラ画像上の領域に変換し，切り出しを設定する
+     *
+     * @param resampler 設定する切り出し
+     * @param frame     カメラ画像（YUV, previewWidth x previewHeight）
+     * @param cropRect  顔検出の座標系の領域
+     */
+    private RoiResampler setFrameRoi(RoiResampler resampler, YuvFrame frame, Rect cropRect) {
+        RectF r = new RectF(cropRect);
+        detectionToFrameTransform.mapRect(r);
+        return setFrameRoi(resampler, frame, r);
+    }
+
+    /**
+     * カメラ画像上の領域で切り出しを設定する
+     */
+    private RoiResampler setFrameRoi(RoiResampler resampler, YuvFrame frame, RectF r) {
+        // 検出の座標系はカメラ画像をsensorOrientationだけ回転したもの
+        resampler.setRoi(
+                frame,
+                Math.round(r.left), Math.round(r.top), Math.round(r.right), Math.round(r.bottom),
+                sensorOrientation);
+        return resampler;
+    }
+
+    private boolean isInside(Rect rect) {
+        return rect.left >= 0 && rect.right <= detectionWidth
+                && rect.top >= 0 && rect.bottom <= detectionHeight
+                && rect.width() > 0 && rect.height() > 0;
     }
 
     // 画像上での1pixelの実際の距離を返す(cm)．
@@ -474,7 +980,52 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     }
 
-    private float[] gazePointOnReal(float[] gaze) {
+    /**
+     * 顔のIDに対応する視線のフィルタを返す．初めてのIDには最も長く使われていないフィルタをリセットして割り当てる
+     */
+    private GazeFilter gazeFilterFor(int id, long timestamp) {
+        int oldest = 0;
+        for (int i = 0; i < gazeFilters.length; i++) {
+            if (gazeFilterLastUsed[i] != 0 && gazeFilterIds[i] == id) {
+                gazeFilterLastUsed[i] = timestamp;
+                return gazeFilters[i];
+            }
+            if (gazeFilterLastUsed[i] < gazeFilterLastUsed[oldest]) {
+                oldest = i;
+            }
+        }
+        gazeFilters[oldest].reset();
+        gazeFilterIds[oldest] = id;
+        gazeFilterLastUsed[oldest] = timestamp;
+        return gazeFilters[oldest];
+    }
+
+    private static GazeFilter[] newGazeFilters(int count) {
+        GazeFilter[] filters = new GazeFilter[count];
+        for (int i = 0; i < count; i++) {
+            switch (GAZE_FILTER) {
+                case ONE_EURO:
+                    filters[i] = new OneEuroGazeFilter(ONE_EURO_MIN_CUTOFF, ONE_EURO_BETA, ONE_EURO_DERIVATIVE_CUTOFF);
+                    break;
+                case KALMAN:
+                    filters[i] = new KalmanGazeFilter(KALMAN_PROCESS_NOISE, KALMAN_MEASUREMENT_NOISE);
+                    break;
+                case MEDIAN:
+                    filters[i] = new MedianGazeFilter(MEDIAN_MAX_WINDOW, MEDIAN_WINDOW);
+                    break;
+                default:
+                    // 何もしない（生の値をそのまま返す）
+                    filters[i] = new MedianGazeFilter(1, 1);
+                    break;
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * 視線を画面上の位置（物理ピクセル）に変換してoutに書き込む
+     */
+    private void gazePointOnReal(float[] gaze, float[] out) {
 
         // MediaPad M5 Proを縦型カメラ右側に持ったときの画面左上から見たカメラの位置[cm]（画面座標系）
         float dx = 15.2f;
@@ -484,33 +1035,33 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         float realx = dx + gaze[0];
         float realy = dy - gaze[1];
 
-        int x = (int) (realx / realWidthPerPixel);
-        int y = (int) (realy / realHeightPercPixel);
-
-        return new float[]{x, y};
-
+        out[0] = (int) (realx / realWidthPerPixel);
+        out[1] = (int) (realy / realHeightPercPixel);
     }
 
-    private Rect calEyeRect(List<FirebaseVisionPoint> lists) {
+    /**
+     * @param contour 目の輪郭（x0, y0, x1, y1, ...）
+     */
+    private Rect calEyeRect(float[] contour) {
 
         int left, right, top, bottom = 0;
-        left = (int) lists.get(0).getX().floatValue();
-        right = (int) lists.get(0).getX().floatValue();
-        top = (int) lists.get(0).getY().floatValue();
-        bottom = (int) lists.get(0).getY().floatValue();
-
-        for (int i = 1; i < lists.size(); i++) {
-            if ((int) lists.get(i).getX().floatValue() < left) {
-                left = (int) lists.get(i).getX().floatValue();
+        left = (int) contour[0];
+        right = (int) contour[0];
+        top = (int) contour[1];
+        bottom = (int) contour[1];
+
+        for (int i = 2; i + 1 < contour.length; i += 2) {
+            if ((int) contour[i] < left) {
+                left = (int) contour[i];
             }
-            if ((int) lists.get(i).getX().floatValue() > right) {
-                right = (int) lists.get(i).getX().floatValue();
+            if ((int) contour[i] > right) {
+                right = (int) contour[i];
             }
-            if ((int) lists.get(i).getY().floatValue() < top) {
-                top = (int) lists.get(i).getY().floatValue();
+            if ((int) contour[i + 1] < top) {
+                top = (int) contour[i + 1];
             }
-            if ((int) lists.get(i).getY().floatValue() > bottom) {
-                bottom = (int) lists.get(i).getY().floatValue();
+            if ((int) contour[i + 1] > bottom) {
+                bottom = (int) contour[i + 1];
             }
         }
         int addValue = (right - left) / 2;
@@ -521,6 +1072,20 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         return rec;
     }
 
+    /**
+     * 目のランドマークから目の領域を計算する（calEyeRectと同じく目の幅の2倍の正方形）
+     *
+     * @param centerX   目の中心
+     * @param centerY   目の中心
+     * @param faceWidth 顔の横幅
+     */
+    private Rect calEyeRect(float centerX, float centerY, int faceWidth) {
+        int half = (int) (faceWidth * EYE_CROP_RATIO);
+        int x = (int) centerX;
+        int y = (int) centerY;
+        return new Rect(x - half, y - half, x + half, y + half);
+    }
+
     private void saveImage(Bitmap finalBitmap, String word) {
 
         String root = Environment.getExternalStorageDirectory().getPath();
@@ -575,205 +1140,210 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         return ret;
     }
 
-    private void recognize(Context context, Bitmap face, Bitmap right, Bitmap left, Bitmap grid, long faceTime) {
-
-        runInBackground(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.v("MLKit", "recognize");
-
-                        long startCNN = SystemClock.uptimeMillis();
-
-                        //LOGGER.i("Running detection on image " + currTimestamp);
-                        final long startTime = SystemClock.uptimeMillis();
-
-                        BitmapFactory.Options options = new BitmapFactory.Options();
-                        options.inSampleSize = 2;
-
-                        Bitmap face_b = null;
-                        Bitmap right_b = null;
-                        Bitmap left_b = null;
-
-                        MyApplication ma = (MyApplication)context.getApplicationContext();
-                        ma.loadNPY();
-                        NpyArray face_mean = ma.face_mean;
-                        NpyArray right_mean = ma.right_mean;
-                        NpyArray left_mean = ma.left_mean;
-
-                        float test = face_mean.asFloatArray()[224];
-
-//                        NpyArray test = NpyFile.read(Paths.get(URI.parse("file:///android_asset/face_mean.npy")), 1000);
+    @Override
+    protected int getLayoutId() {
+        return R.layout.camera_connection_fragment_tracking;
+    }
 
+    @Override
+    protected Size getDesiredPreviewFrameSize() {
+        return DESIRED_PREVIEW_SIZE;
+    }
 
-                        try {
-                            face_b = BitmapFactory.decodeStream(getResources().getAssets().open("00757_face.jpg"));
-                            right_b = BitmapFactory.decodeStream(getResources().getAssets().open("00757_right.jpg"));
-                            left_b = BitmapFactory.decodeStream(getResources().getAssets().open("00757_left.jpg"));
-                        } catch (IOException e) {
+    // Which detection model to use: by default uses Tensorflow Object Detection API frozen
+    // checkpoints.
+    private enum DetectorMode {
+        TF_OD_API;
+    }
 
+    // Where the gaze model takes its face and eye crops from.
+    private enum InputMode {
+        LIVE,
+        FIXTURE
+    }
 
-                        }
+    // How gaze points are smoothed.
+    private enum GazeFilterType {
+        NONE,
+        ONE_EURO,
+        KALMAN,
+        MEDIAN
+    }
 
-                        face_b = Bitmap.createScaledBitmap(face_b, scaledSize, scaledSize, true);
-                        right_b = Bitmap.createScaledBitmap(right_b, scaledSize, scaledSize, true);
-                        left_b = Bitmap.createScaledBitmap(left_b, scaledSize, scaledSize, true);
+    // Where the faces come from.
+    private enum FaceSource {
+        FIREBASE,
+        REPLAY
+    }
 
+    // What the face detector is given for each frame.
+    private enum DetectionInput {
+        BITMAP,
+        LUMA,
+        NV21
+    }
 
-                        InputStream stream = null;
-                        try {
-                            stream = context.getAssets().open("grid.txt");
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+    // A face followed between detections: its tracker, and the eye regions on the camera frame at
+    // the last detection, moved along with the face.
+    private static final class FaceTrack {
+        final RoiTracker tracker = new RoiTracker(TRACK_TEMPLATE_SIZE, TRACK_SEARCH_RATIO);
+        final RectF rightEye = new RectF();
+        final RectF leftEye = new RectF();
+        int id;
+    }
 
-                        float[] check = new float[625];
-                        int count = 0;
+    private static FaceTrack[] newFaceTracks(int count) {
+        FaceTrack[] tracks = new FaceTrack[count];
+        for (int i = 0; i < count; i++) {
+            tracks[i] = new FaceTrack();
+        }
+        return tracks;
+    }
 
+    /**
+     * スレッド数とNNAPIの組み合わせを全て試し，最も速い設定を保存して適用する．
+     * チューニング中はフレームを捨てる
+     */
+    @Override
+    protected void tuneInference() {
+        if (detectors == null || !tuning.compareAndSet(false, true)) {
+            return;
+        }
+        gazeReady = false;
+        tuningExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
                         try {
-                            String csvLine;
-                            while ((csvLine = reader.readLine()) != null) {
-                                check[count] = Float.parseFloat(csvLine.split(",")[0]);
-                                count++;
-                            }
-                        } catch (IOException ex) {
-                            throw new RuntimeException("Error in reading CSV file: " + ex);
+                            GazeAutoTuner tuner =
+                                    new GazeAutoTuner(
+                                            Runtime.getRuntime().availableProcessors(),
+                                            TUNE_WARM_UP_ITERATIONS,
+                                            TUNE_ITERATIONS);
+                            // 入力サイズが異なるモデルがあれば，それぞれの結果からGazeAutoTuner.bestで選ぶ
+                            GazeAutoTuner.Config best =
+                                    tuner.tune(detectors, TF_OD_API_INPUT_SIZE);
+                            LOGGER.i("Tuned gaze settings: %s", best);
+                            GazeAutoTuner.save(GazeStartup.getTuningPrefs(DetectorActivity.this), GazeStartup.getTuningKey(), best);
+                            applyTuning(best);
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (final RuntimeException e) {
+                            LOGGER.e(e, "Gaze tuning failed");
                         } finally {
-                            try {
-                                stream.close();
-                            } catch (IOException e) {
-                                throw new RuntimeException("Error while closing input stream: " + e);
-                            }
-                        }
-
-                        //final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
-                        final float[][] results = detector.recognizeImageEye(face_b, right_b, left_b, check, face_mean, right_mean, left_mean);
-
-                        // 視線推定の結果からcropのビットマップ上の位置を計算
-                        float[] result = gazePointOnReal(new float[]{results[0][0], results[0][1]});
-                        // float[] result = gazePointOnReal(new float[]{-1f, 0f});
-                        //float[] result = gazePointOnBitmap(new float[]{-5f, 0f}, dis);
-
-                        Log.v("neko", "x:" + results[0][0] + "\n" + results[0][1]);
-
-
-                        // 時間の測定
-                        long endCNN = SystemClock.uptimeMillis();
-
-                        if (result != null) {
-                            writeCSV.MakeFile(faceTime + "," + String.valueOf(endCNN - startCNN));
-                        }
-                        // cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-                        // 紐付け？
-                        // final Canvas canvas = new Canvas(cropCopyBitmap);
-//                        final Paint paint = new Paint();
-//                        paint.setColor(Color.RED);
-//                        paint.setStyle(Paint.Style.STROKE);
-//                        paint.setStrokeWidth(2.0f);
-
-                        // cropToFrameTransform.mapPoints(result);
-
-                        tracker.setEyePosition(result);
-
-                        // 更新要請
-                        trackingOverlay.postInvalidate();
-
-/*                        runOnUiThread(
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        showFrameInfo(previewWidth + "x" + previewHeight);
-                                        showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                                        showInference(lastProcessingTimeMs + "ms");
-                                    }
-                                });*/
-/*
-
-                        // 時間の測定
-                        lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-
-                        cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-                        // 紐付け？
-                        final Canvas canvas = new Canvas(cropCopyBitmap);
-                        final Paint paint = new Paint();
-                        paint.setColor(Color.RED);
-                        paint.setStyle(Paint.Style.STROKE);
-                        paint.setStrokeWidth(2.0f);
-
-                        // 検知するサイズが小さい場合検知しない
-                        float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                        switch (MODE) {
-                            case TF_OD_API:
-                                minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                                break;
+                            tuning.set(false);
+                            gazeReady = true;
                         }
+                    }
+                });
+    }
 
-                        // 結果を保存するリストの作成
-                        final List<Classifier.Recognition> mappedRecognitions =
-                                new LinkedList<Classifier.Recognition>();
-
-                        // 深層学習で得た結果をbitmapに貼り付けている
-                        for (final Classifier.Recognition result : results) {
-                            final RectF location = result.getLocation();
-                            if (location != null && result.getConfidence() >= minimumConfidence) {
-                                canvas.drawRect(location, paint);
-
-                                // locatin(rect)をcropToFrameTransformのマトリックスで変形
-                                cropToFrameTransform.mapRect(location);
-
-                                // 変形させた結果を元に戻している
-                                result.setLocation(location);
-                                // listに格納
-                                mappedRecognitions.add(result);
-                            }
-                        }
-
-                        // trackingのデータについて
-                        tracker.trackResults(mappedRecognitions, 100);
-
-                        // 更新要請
-                        trackingOverlay.postInvalidate();
+    private void applyTuning(final GazeAutoTuner.Config config) {
+        detectors.setNumThreads(config.numThreads);
+        detectors.setUseNNAPI(config.useNNAPI);
+        showInferenceSettingsOnUiThread(config.numThreads, config.useNNAPI);
+    }
 
-                        runOnUiThread(
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        showFrameInfo(previewWidth + "x" + previewHeight);
-                                        showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                                        showInference(lastProcessingTimeMs + "ms");
-                                    }
-                                });
-*/
+    private void showInferenceSettingsOnUiThread(final int numThreads, final boolean useNNAPI) {
+        runOnUiThread(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        showInferenceSettings(numThreads, useNNAPI);
+                    }
+                });
+    }
 
-                        computingDetection = false;
+    private void onGazeStartupFailed(final Throwable error) {
+        LOGGER.e(error, "Exception initializing classifier!");
+        runOnUiThread(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast toast =
+                                Toast.makeText(
+                                        getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
+                        toast.show();
+                        finish();
                     }
                 });
     }
 
+    // 設定は各インタプリタが次に貸し出されるときに反映される
     @Override
-    protected int getLayoutId() {
-        return R.layout.camera_connection_fragment_tracking;
+    protected void setUseNNAPI(final boolean isChecked) {
+        if (detectors != null) {
+            detectors.setUseNNAPI(isChecked);
+        }
     }
 
     @Override
-    protected Size getDesiredPreviewFrameSize() {
-        return DESIRED_PREVIEW_SIZE;
+    protected void setNumThreads(final int numThreads) {
+        if (detectors != null) {
+            detectors.setNumThreads(numThreads);
+        }
     }
 
-    // Which detection model to use: by default uses Tensorflow Object Detection API frozen
-    // checkpoints.
-    private enum DetectorMode {
-        TF_OD_API;
+    /**
+     * 顔検出器はアクティビティが表示されている間だけ開いておく．最初に開くときに作り，以降は使い回す
+     */
+    @Override
+    public synchronized void onResume() {
+        super.onResume();
+        if (faceDetector == null) {
+            faceDetector = createFaceDetector();
+        }
+        if (faceDetector != null) {
+            faceDetector.open();
+        }
     }
 
     @Override
-    protected void setUseNNAPI(final boolean isChecked) {
-        runInBackground(() -> detector.setUseNNAPI(isChecked));
+    public synchronized void onPause() {
+        // 検出中のフレームは失敗として捨てられる
+        if (faceDetector != null) {
+            faceDetector.close();
+        }
+        super.onPause();
+    }
+
+    private FaceDetectorProvider createFaceDetector() {
+        // 結果は検出器のワーカースレッドでそのまま受け取り，待っている顔検出の段に渡す（メインスレッドは使わない）
+        final Executor direct =
+                new Executor() {
+                    @Override
+                    public void execute(final Runnable r) {
+                        r.run();
+                    }
+                };
+        switch (FACE_SOURCE) {
+            case REPLAY:
+                try (Reader reader = new InputStreamReader(getAssets().open(FACE_RECORDING), StandardCharsets.UTF_8)) {
+                    final List<List<DetectedFace>> frames = ReplayFaceDetectorProvider.load(reader);
+                    LOGGER.i("Replaying %d recorded frames of faces", frames.size());
+                    return new ReplayFaceDetectorProvider(frames, direct);
+                } catch (final IOException | IllegalArgumentException e) {
+                    LOGGER.e(e, "Could not load %s", FACE_RECORDING);
+                    return null;
+                }
+            default:
+                return new FirebaseFaceDetectorProvider(MULTI_FACE ? multiFaceOpts : realTimeOpts, direct);
+        }
     }
 
     @Override
-    protected void setNumThreads(final int numThreads) {
-        runInBackground(() -> detector.setNumThreads(numThreads));
+    public synchronized void onDestroy() {
+        if (tuningExecutor != null) {
+            tuningExecutor.shutdown();
+        }
+        // 各段を止め，処理中のフレームはバッファをプールに返す
+        for (PipelineStage<?> stage :
+                new PipelineStage<?>[]{convertStage, detectStage, roiStage, inferStage, publishStage}) {
+            if (stage != null) {
+                stage.close();
+            }
+        }
+        // インタプリタはアプリ全体で共有しているので閉じない
+        super.onDestroy();
     }
 }
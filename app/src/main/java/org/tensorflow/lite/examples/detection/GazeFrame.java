@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection;
+
+import android.graphics.Bitmap;
+
+import org.tensorflow.lite.examples.detection.env.FrameRing;
+import org.tensorflow.lite.examples.detection.env.Nv21Buffer;
+import org.tensorflow.lite.examples.detection.face.DetectedFace;
+import org.tensorflow.lite.examples.detection.face.FaceImage;
+import org.tensorflow.lite.examples.detection.tflite.GazeTensorPacker;
+import org.tensorflow.lite.examples.detection.tflite.RoiResampler;
+
+import java.util.List;
+
+/**
+ * Everything one camera frame carries through the stages of {@link DetectorActivity}: the frame
+ * slot, the detector input, the detected faces, their crops and the estimated gaze.
+ *
+ * <p>A fixed number of these are pooled, so the buffers are allocated once and the pool size
+ * bounds the frames in flight. Each stage works on a frame alone, so nothing here is synchronized;
+ * the stage queues order the writes of one stage before the reads of the next.
+ */
+final class GazeFrame {
+    // カメラ画像のスロット（推定が終わるまで借りておく）
+    FrameRing.Frame slot;
+    long timestamp;
+    // フレームを受け取った時刻（視線のフィルタに使う）
+    long timeNanos;
+    // 顔検出を行うか（falseなら前回検出した顔を追跡する）
+    boolean detect;
+    long startFace;
+    long faceTime;
+    long inferenceTime;
+
+    // BITMAPモードの検出器への入力と，確認用に保存する画像
+    Bitmap bitmap;
+    // BITMAPモード以外の検出器への入力
+    final Nv21Buffer detectionBuffer;
+    // 顔検出器への入力（bitmapかdetectionBufferを指す）と結果
+    final FaceImage image = new FaceImage();
+    List<DetectedFace> faces;
+
+    // 推定する顔（最大maxFaces人）の切り出し・グリッド・結果
+    final RoiResampler[] face;
+    final RoiResampler[] rightEye;
+    final RoiResampler[] leftEye;
+    final float[][] grid;
+    final float[][] gaze;
+    final float[][] points;
+    final int[] ids;
+    int count;
+
+    /**
+     * @param maxFaces        Faces estimated per frame at most.
+     * @param inputSize       Side of the model's face and eye crops.
+     * @param resampleMode    How the crops are resampled from the frame.
+     * @param detectionBuffer NV21 input of the face detector, or null if it takes bitmaps.
+     */
+    GazeFrame(
+            final int maxFaces,
+            final int inputSize,
+            final RoiResampler.Mode resampleMode,
+            final Nv21Buffer detectionBuffer) {
+        this.detectionBuffer = detectionBuffer;
+        face = new RoiResampler[maxFaces];
+        rightEye = new RoiResampler[maxFaces];
+        leftEye = new RoiResampler[maxFaces];
+        for (int i = 0; i < maxFaces; i++) {
+            face[i] = new RoiResampler(inputSize, resampleMode);
+            rightEye[i] = new RoiResampler(inputSize, resampleMode);
+            leftEye[i] = new RoiResampler(inputSize, resampleMode);
+        }
+        grid = new float[maxFaces][GazeTensorPacker.GRID_CELLS];
+        gaze = new float[maxFaces][2];
+        points = new float[maxFaces][2];
+        ids = new int[maxFaces];
+    }
+
+    /** Returns the frame slot to the ring once its pixels are no longer read. */
+    void releaseSlot() {
+        if (slot != null) {
+            slot.release();
+            slot = null;
+        }
+    }
+
+    /** Makes this context ready for the next frame. The buffers are kept. */
+    void reset() {
+        releaseSlot();
+        detect = false;
+        image.clear();
+        faces = null;
+        count = 0;
+    }
+}
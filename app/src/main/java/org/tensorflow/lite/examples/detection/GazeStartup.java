@@ -0,0 +1,249 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetManager;
+import android.os.Build;
+import android.os.SystemClock;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.tflite.GazeAutoTuner;
+import org.tensorflow.lite.examples.detection.tflite.GazeInterpreterPool;
+import org.tensorflow.lite.examples.detection.tflite.MeanImage;
+import org.tensorflow.lite.examples.detection.tflite.MeanImageStore;
+import org.tensorflow.lite.examples.detection.tflite.WarmUpResult;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Loads everything the gaze model needs, starting from {@link MyApplication#onCreate()} so that it
+ * overlaps with opening the camera.
+ *
+ * <p>The model file, the three mean images and the stored tuning are read in
+ * parallel on background threads. Once they are all there the interpreter pool is built, the
+ * settings tuned on an earlier launch are applied and every interpreter is warmed up with them;
+ * then {@link #ready()} completes. The activity starts feeding frames as soon as it does.
+ *
+ * <p>Time to first gaze is measured from the start of loading to the first call of {@link
+ * #onFirstGaze()}.
+ */
+public final class GazeStartup {
+    private static final Logger LOGGER = new Logger();
+
+    // Configuration values of the gaze model.
+    static final int INPUT_SIZE = 224;
+    static final boolean IS_QUANTIZED = false;
+    static final String MODEL_FILE = "converted_model.tflite";
+    // 平均画像（shapeは(INPUT_SIZE, INPUT_SIZE, 3)，RGB）
+    static final String FACE_MEAN_FILE = "face_mean.npy";
+    static final String RIGHT_MEAN_FILE = "right_mean.npy";
+    static final String LEFT_MEAN_FILE = "left_mean.npy";
+    // Number of interpreters, i.e. frames whose gaze can be estimated at the same time.
+    static final int INTERPRETER_POOL_SIZE = 2;
+    // TFLite threads of each pooled interpreter, unless the device has been tuned.
+    static final int THREADS_PER_INTERPRETER = 2;
+    // Threads used to preprocess the face and eye crops, separate from the TFLite threads. They
+    // form one pool shared by all interpreters.
+    static final int PREPROCESS_THREADS = 3;
+    // Synthetic inferences run on every interpreter before the first frame.
+    static final int WARM_UP_ITERATIONS = 3;
+    static final String TUNING_PREFS = "gaze_tuning";
+
+    // Background threads used while loading; enough to read every file at once.
+    private static final int LOADER_THREADS = 4;
+
+    // 全てのインタプリタが共有する前処理のスレッド（アプリが動いている間は止めない）
+    private static final ForkJoinPool PREPROCESS_POOL = new ForkJoinPool(PREPROCESS_THREADS);
+
+    /** The loaded gaze model. */
+    public static final class Gaze {
+        public final GazeInterpreterPool pool;
+        public final WarmUpResult warmUp;
+
+        Gaze(final GazeInterpreterPool pool, final WarmUpResult warmUp) {
+            this.pool = pool;
+            this.warmUp = warmUp;
+        }
+    }
+
+    private final long startTime;
+    private final CompletableFuture<Gaze> ready;
+    private final AtomicBoolean firstGaze = new AtomicBoolean();
+
+    private GazeStartup(final long startTime, final CompletableFuture<Gaze> ready) {
+        this.startTime = startTime;
+        this.ready = ready;
+    }
+
+    /** Starts loading in the background and returns immediately. */
+    static GazeStartup start(final Context context, final MeanImageStore meanImages) {
+        final long startTime = SystemClock.uptimeMillis();
+        final AssetManager assets = context.getAssets();
+        final SharedPreferences tuningPrefs = getTuningPrefs(context);
+        final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS);
+
+        final CompletableFuture<MappedByteBuffer> model =
+                load(loader, new Loader<MappedByteBuffer>() {
+                    @Override
+                    public MappedByteBuffer load() throws IOException {
+                        return GazeInterpreterPool.loadModelFile(assets, MODEL_FILE);
+                    }
+                });
+        final CompletableFuture<MeanImage> faceMean = loadMean(loader, meanImages, FACE_MEAN_FILE);
+        final CompletableFuture<MeanImage> rightMean = loadMean(loader, meanImages, RIGHT_MEAN_FILE);
+        final CompletableFuture<MeanImage> leftMean = loadMean(loader, meanImages, LEFT_MEAN_FILE);
+        final CompletableFuture<GazeAutoTuner.Config> tuned =
+                CompletableFuture.supplyAsync(
+                        new Supplier<GazeAutoTuner.Config>() {
+                            @Override
+                            public GazeAutoTuner.Config get() {
+                                return GazeAutoTuner.load(tuningPrefs, getTuningKey(), INPUT_SIZE);
+                            }
+                        },
+                        loader);
+
+        final CompletableFuture<Gaze> ready =
+                CompletableFuture.allOf(model, faceMean, rightMean, leftMean, tuned)
+                        .thenApplyAsync(
+                                new Function<Void, GazeInterpreterPool>() {
+                                    @Override
+                                    public GazeInterpreterPool apply(final Void ignored) {
+                                        final GazeInterpreterPool pool =
+                                                GazeInterpreterPool.create(
+                                                        model.join(),
+                                                        INPUT_SIZE,
+                                                        IS_QUANTIZED,
+                                                        faceMean.join(),
+                                                        rightMean.join(),
+                                                        leftMean.join(),
+                                                        INTERPRETER_POOL_SIZE,
+                                                        THREADS_PER_INTERPRETER);
+                                        pool.setPreprocessPool(PREPROCESS_POOL);
+                                        // この端末で以前チューニングした設定があればウォームアップ前に適用する
+                                        final GazeAutoTuner.Config config = tuned.join();
+                                        if (config != null) {
+                                            LOGGER.i("Using tuned gaze settings: %s", config);
+                                            pool.setNumThreads(config.numThreads);
+                                            pool.setUseNNAPI(config.useNNAPI);
+                                        }
+                                        LOGGER.i("Gaze interpreters built after %dms", SystemClock.uptimeMillis() - startTime);
+                                        return pool;
+                                    }
+                                },
+                                loader)
+                        .thenCompose(
+                                new Function<GazeInterpreterPool, CompletableFuture<Gaze>>() {
+                                    @Override
+                                    public CompletableFuture<Gaze> apply(final GazeInterpreterPool pool) {
+                                        final CompletableFuture<Gaze> warmed = new CompletableFuture<>();
+                                        // 最初の推論の遅延をなくすため，インタプリタごとに並列でダミーの推論を行う
+                                        pool.warmUp(
+                                                WARM_UP_ITERATIONS,
+                                                loader,
+                                                new WarmUpResult.Listener() {
+                                                    @Override
+                                                    public void onWarmedUp(final WarmUpResult result) {
+                                                        warmed.complete(new Gaze(pool, result));
+                                                    }
+                                                });
+                                        return warmed;
+                                    }
+                                });
+
+        ready.whenComplete(
+                new BiConsumer<Gaze, Throwable>() {
+                    @Override
+                    public void accept(final Gaze gaze, final Throwable error) {
+                        loader.shutdown();
+                        if (error != null) {
+                            LOGGER.e(error, "Gaze startup failed");
+                        } else {
+                            LOGGER.i(
+                                    "Gaze model ready after %dms: %s",
+                                    SystemClock.uptimeMillis() - startTime, gaze.warmUp);
+                        }
+                    }
+                });
+        return new GazeStartup(startTime, ready);
+    }
+
+    /**
+     * Completes with the warmed-up model, or exceptionally if any file could not be loaded. Callbacks
+     * run on a loader thread.
+     */
+    public CompletableFuture<Gaze> ready() {
+        return ready;
+    }
+
+    /** Logs the time to first gaze the first time it is called; later calls do nothing. */
+    public void onFirstGaze() {
+        if (firstGaze.compareAndSet(false, true)) {
+            LOGGER.i("Time to first gaze: %dms", SystemClock.uptimeMillis() - startTime);
+        }
+    }
+
+    static SharedPreferences getTuningPrefs(final Context context) {
+        return context.getSharedPreferences(TUNING_PREFS, Context.MODE_PRIVATE);
+    }
+
+    /** Tuning is stored per device model and model file. */
+    static String getTuningKey() {
+        return Build.MODEL + "/" + MODEL_FILE;
+    }
+
+    /** A load step that may fail with an {@link IOException}. */
+    private interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    private static <T> CompletableFuture<T> load(final ExecutorService executor, final Loader<T> loader) {
+        return CompletableFuture.supplyAsync(
+                new Supplier<T>() {
+                    @Override
+                    public T get() {
+                        try {
+                            return loader.load();
+                        } catch (final IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }
+                },
+                executor);
+    }
+
+    private static CompletableFuture<MeanImage> loadMean(
+            final ExecutorService executor, final MeanImageStore meanImages, final String file) {
+        return load(executor, new Loader<MeanImage>() {
+            @Override
+            public MeanImage load() throws IOException {
+                return meanImages.get(file, INPUT_SIZE, INPUT_SIZE, 3);
+            }
+        });
+    }
+}
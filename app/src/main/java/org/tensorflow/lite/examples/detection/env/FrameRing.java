@@ -0,0 +1,288 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed set of reusable frame slots between the camera callback and the processing pipeline,
+ * with latest-frame-wins semantics and no locks.
+ *
+ * <p>The camera side {@link #acquire()}s a slot, copies the frame into it and {@link
+ * #publish(Frame)}es it, so the camera buffer can be returned at once. The pipeline {@link
+ * #takeLatest()}s the newest published frame whenever it has capacity, and {@link Frame#release()}s
+ * it when nothing reads its pixels any more.
+ *
+ * <p>Frames that nobody took before a newer one was published are <em>stale</em>: they are recycled
+ * unprocessed. A frame that arrives while every slot is being written or processed is
+ * <em>dropped</em>. Both are counted.
+ *
+ * <p>Each slot's state and the sequence number of the frame it holds share one atomic word, so a
+ * compare-and-set on a slot never mistakes a republished slot for the frame it held before. The
+ * pixel arrays of a slot are written only by its current owner; publishing and taking order those
+ * writes before the reads.
+ */
+public final class FrameRing {
+  private static final Logger LOGGER = new Logger();
+
+  // Slot states, in the low bits of the slot word; the frame's sequence number is in the rest.
+  private static final int FREE = 0;
+  private static final int WRITING = 1;
+  private static final int READY = 2;
+  private static final int READING = 3;
+  private static final int STATE_BITS = 2;
+  private static final long STATE_MASK = (1 << STATE_BITS) - 1;
+
+  private final Frame[] frames;
+  private final AtomicLongArray slots;
+  private final AtomicLong sequence = new AtomicLong();
+
+  private final AtomicLong published = new AtomicLong();
+  private final AtomicLong taken = new AtomicLong();
+  private final AtomicLong stale = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * @param capacity Number of slots: frames held by the pipeline at once, plus one being written
+   *                 and one waiting.
+   */
+  public FrameRing(final int capacity) {
+    if (capacity < 2) {
+      throw new IllegalArgumentException("A frame ring needs at least 2 slots: " + capacity);
+    }
+    frames = new Frame[capacity];
+    for (int i = 0; i < capacity; ++i) {
+      frames[i] = new Frame(this, i);
+    }
+    slots = new AtomicLongArray(capacity);
+  }
+
+  public int getCapacity() {
+    return frames.length;
+  }
+
+  /**
+   * Returns a slot to copy a new frame into, or null if the frame has to be dropped. If no slot is
+   * free, the oldest frame that is still waiting is overwritten and counted as stale.
+   */
+  public Frame acquire() {
+    for (int i = 0; i < frames.length; ++i) {
+      final long word = slots.get(i);
+      if (state(word) == FREE && slots.compareAndSet(i, word, with(word, WRITING))) {
+        return frames[i];
+      }
+    }
+    while (true) {
+      // 空きがなければ，まだ取り出されていない最も古いフレームを上書きする
+      int oldest = -1;
+      long oldestWord = 0;
+      for (int i = 0; i < frames.length; ++i) {
+        final long word = slots.get(i);
+        if (state(word) == READY && (oldest < 0 || word < oldestWord)) {
+          oldest = i;
+          oldestWord = word;
+        }
+      }
+      if (oldest < 0) {
+        dropped.incrementAndGet();
+        return null;
+      }
+      if (slots.compareAndSet(oldest, oldestWord, with(oldestWord, WRITING))) {
+        stale.incrementAndGet();
+        return frames[oldest];
+      }
+    }
+  }
+
+  /** Makes a frame filled after {@link #acquire()} available to {@link #takeLatest()}. */
+  public void publish(final Frame frame) {
+    final long word = slots.get(frame.index);
+    if (state(word) != WRITING) {
+      throw new IllegalStateException("Frame " + frame.index + " was not acquired for writing");
+    }
+    frame.argbValid = false;
+    published.incrementAndGet();
+    slots.set(frame.index, (sequence.incrementAndGet() << STATE_BITS) | READY);
+  }
+
+  /** Gives back a slot from {@link #acquire()} without publishing it, e.g. if copying failed. */
+  public void cancel(final Frame frame) {
+    final long word = slots.get(frame.index);
+    if (state(word) != WRITING || !slots.compareAndSet(frame.index, word, with(word, FREE))) {
+      throw new IllegalStateException("Frame " + frame.index + " was not acquired for writing");
+    }
+  }
+
+  /**
+   * Takes the newest published frame, or returns null if there is none. Older frames that are
+   * still waiting will never be processed and are recycled as stale.
+   */
+  public Frame takeLatest() {
+    while (true) {
+      int latest = -1;
+      long latestWord = 0;
+      for (int i = 0; i < frames.length; ++i) {
+        final long word = slots.get(i);
+        if (state(word) == READY && (latest < 0 || word > latestWord)) {
+          latest = i;
+          latestWord = word;
+        }
+      }
+      if (latest < 0) {
+        return null;
+      }
+      if (!slots.compareAndSet(latest, latestWord, with(latestWord, READING))) {
+        continue;
+      }
+      for (int i = 0; i < frames.length; ++i) {
+        final long word = slots.get(i);
+        if (state(word) == READY
+            && word < latestWord
+            && slots.compareAndSet(i, word, with(word, FREE))) {
+          stale.incrementAndGet();
+        }
+      }
+      taken.incrementAndGet();
+      return frames[latest];
+    }
+  }
+
+  private void release(final Frame frame) {
+    final long word = slots.get(frame.index);
+    if (state(word) != READING || !slots.compareAndSet(frame.index, word, with(word, FREE))) {
+      throw new IllegalStateException("Frame " + frame.index + " is not being processed");
+    }
+  }
+
+  /** Frames published since the ring was created. */
+  public long getPublishedCount() {
+    return published.get();
+  }
+
+  /** Frames handed to the pipeline. */
+  public long getTakenCount() {
+    return taken.get();
+  }
+
+  /** Published frames that were superseded before the pipeline took them. */
+  public long getStaleCount() {
+    return stale.get();
+  }
+
+  /** Frames that arrived while no slot could take them. */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /** Logs the frame counters. */
+  public void logStats() {
+    LOGGER.i(
+        "Frames: %d published, %d processed, %d stale, %d dropped",
+        published.get(), taken.get(), stale.get(), dropped.get());
+  }
+
+  private static int state(final long word) {
+    return (int) (word & STATE_MASK);
+  }
+
+  private static long with(final long word, final int state) {
+    return (word & ~STATE_MASK) | state;
+  }
+
+  /**
+   * One slot: its own copy of the YUV planes, one {@link YuvFrame} describing them and, on request,
+   * the ARGB conversion of them. The arrays are allocated for the first frame and reused as long as
+   * the frame size stays the same, so a steady stream of frames allocates nothing.
+   */
+  public static final class Frame {
+    private final FrameRing ring;
+    private final int index;
+
+    private byte[] yData;
+    private byte[] uData;
+    private byte[] vData;
+    // 配列が変わるたびに指し直す（フレームごとに作らない）
+    private final YuvFrame yuv = new YuvFrame();
+    private int[] argb;
+    private boolean argbValid;
+
+    private Frame(final FrameRing ring, final int index) {
+      this.ring = ring;
+      this.index = index;
+    }
+
+    /** Copies an NV21 frame from {@code Camera.PreviewCallback}. */
+    public void setNV21(final byte[] data, final int width, final int height) {
+      yData = reuse(yData, data.length);
+      System.arraycopy(data, 0, yData, 0, data.length);
+      yuv.setNV21(yData, width, height);
+    }
+
+    /** Copies the planes of a YUV_420_888 {@code Image}, each from its position to its limit. */
+    public void setPlanes(
+        final ByteBuffer y,
+        final ByteBuffer u,
+        final ByteBuffer v,
+        final int width,
+        final int height,
+        final int yRowStride,
+        final int uvRowStride,
+        final int uvPixelStride) {
+      yData = reuse(yData, y.remaining());
+      uData = reuse(uData, u.remaining());
+      vData = reuse(vData, v.remaining());
+      y.get(yData, 0, y.remaining());
+      u.get(uData, 0, u.remaining());
+      v.get(vData, 0, v.remaining());
+      // ストライドはフレームごとに変わりうるので毎回設定し直す
+      yuv.setPlanes(yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride);
+    }
+
+    /** The YUV planes of this frame. */
+    public YuvFrame getYuv() {
+      return yuv;
+    }
+
+    /** Converts the frame to ARGB the first time it is called, and returns the slot's array. */
+    public int[] getArgb(final YuvConverter converter) {
+      if (!argbValid) {
+        final int numPixels = yuv.getWidth() * yuv.getHeight();
+        if (argb == null || argb.length != numPixels) {
+          argb = new int[numPixels];
+        }
+        yuv.toArgb(converter, argb);
+        argbValid = true;
+      }
+      return argb;
+    }
+
+    /** Sequence number of this frame, increasing with every published frame. */
+    public long getSequence() {
+      return ring.slots.get(index) >>> STATE_BITS;
+    }
+
+    /** Returns a frame from {@link #takeLatest()} to the ring. */
+    public void release() {
+      ring.release(this);
+    }
+
+    private static byte[] reuse(final byte[] array, final int length) {
+      return array != null && array.length == length ? array : new byte[length];
+    }
+  }
+}
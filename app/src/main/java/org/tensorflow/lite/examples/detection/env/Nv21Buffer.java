@@ -0,0 +1,88 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable direct buffer holding one frame as NV21, the input format of detectors that take raw
+ * camera bytes plus rotation metadata.
+ *
+ * <p>With {@code color} false only the luma plane is copied per frame; the chroma block is filled
+ * with neutral grey once, so the detector sees a greyscale image. Either way the frame is neither
+ * converted to RGB nor rotated.
+ *
+ * <p>Not thread-safe; a buffer must not be refilled while a detector may still read it.
+ */
+public final class Nv21Buffer {
+  private final int width;
+  private final int height;
+  private final boolean color;
+  private final ByteBuffer buffer;
+  // Scratch row for interleaving planar chroma.
+  private final byte[] row;
+
+  /**
+   * @param width  Frame width, even.
+   * @param height Frame height, even.
+   * @param color  Whether to copy the chroma too.
+   */
+  public Nv21Buffer(final int width, final int height, final boolean color) {
+    if (width < 2 || height < 2 || width % 2 != 0 || height % 2 != 0) {
+      throw new IllegalArgumentException("NV21 needs an even frame size: " + width + "x" + height);
+    }
+    this.width = width;
+    this.height = height;
+    this.color = color;
+    final int frameSize = width * height;
+    buffer = ByteBuffer.allocateDirect(frameSize + frameSize / 2);
+    row = color ? new byte[width] : null;
+    if (!color) {
+      // 色差を128（無彩色）で埋めておけば，以降は輝度だけ書き換えればよい
+      for (int i = frameSize; i < buffer.capacity(); ++i) {
+        buffer.put(i, (byte) 128);
+      }
+    }
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public boolean isColor() {
+    return color;
+  }
+
+  /** Copies a frame of the same size in and returns the buffer, positioned at 0. */
+  public ByteBuffer fill(final YuvFrame frame) {
+    if (frame.getWidth() != width || frame.getHeight() != height) {
+      throw new IllegalArgumentException(
+          "Frame is " + frame.getWidth() + "x" + frame.getHeight() + ", expected " + width + "x"
+              + height);
+    }
+    buffer.clear();
+    frame.writeLuminance(buffer);
+    if (color) {
+      frame.writeChromaNV21(buffer, row);
+    }
+    buffer.rewind();
+    return buffer;
+  }
+}
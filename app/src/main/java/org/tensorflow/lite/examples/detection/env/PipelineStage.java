@@ -0,0 +1,283 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of a frame pipeline: a bounded input queue served by its own worker threads.
+ *
+ * <p>A worker takes an item, processes it and usually {@link #offer}s it to the next stage, so
+ * consecutive stages work on different frames at the same time. When the queue is full, the {@link
+ * DropPolicy} decides which item gives way. Items that are dropped, that fail, or that are still
+ * queued when the stage is closed go to the {@link Recycler}, so pooled resources always come back.
+ *
+ * <p>Occupancy (queued plus in process), the busy fraction of the workers, throughput and drops
+ * are reported by {@link #report()} as the change since the previous report.
+ */
+public final class PipelineStage<T> {
+  private static final Logger LOGGER = new Logger();
+
+  /** What happens to an item offered to a full queue. */
+  public enum DropPolicy {
+    /** The oldest queued item is dropped to make room; the newest frame wins. */
+    DROP_OLDEST,
+    /** The offered item is dropped. */
+    DROP_NEWEST,
+    /** The caller waits for room, so back pressure reaches the previous stage. */
+    BLOCK
+  }
+
+  /**
+   * Processes one item; called on a worker thread of the stage. If it throws, the item is recycled,
+   * so it must not have been passed on.
+   */
+  public interface Worker<T> {
+    void process(T item) throws Exception;
+  }
+
+  /** Takes back an item that left the pipeline without being processed by this stage. */
+  public interface Recycler<T> {
+    void recycle(T item);
+  }
+
+  private final String name;
+  private final int depth;
+  private final DropPolicy dropPolicy;
+  private final Worker<T> worker;
+  private final Recycler<T> recycler;
+  private final ArrayBlockingQueue<T> queue;
+  private final Thread[] threads;
+  private volatile boolean closed;
+
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger maxOccupancy = new AtomicInteger();
+  private final AtomicLong processed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong busyNanos = new AtomicLong();
+
+  // Totals at the previous report.
+  private long lastReportTime;
+  private long lastProcessed;
+  private long lastDropped;
+  private long lastFailed;
+  private long lastBusyNanos;
+
+  /**
+   * @param name       Name used for the worker threads and in reports.
+   * @param depth      Capacity of the input queue.
+   * @param dropPolicy What to do when the queue is full.
+   * @param numThreads Worker threads serving the queue.
+   * @param worker     Processing of one item.
+   * @param recycler   Receives dropped, failed and abandoned items.
+   */
+  public PipelineStage(
+      final String name,
+      final int depth,
+      final DropPolicy dropPolicy,
+      final int numThreads,
+      final Worker<T> worker,
+      final Recycler<T> recycler) {
+    if (depth < 1 || numThreads < 1) {
+      throw new IllegalArgumentException(
+          name + ": depth and threads must be positive: " + depth + ", " + numThreads);
+    }
+    this.name = name;
+    this.depth = depth;
+    this.dropPolicy = dropPolicy;
+    this.worker = worker;
+    this.recycler = recycler;
+    this.queue = new ArrayBlockingQueue<>(depth);
+    this.threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; ++i) {
+      threads[i] =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  loop();
+                }
+              },
+              numThreads == 1 ? name : name + "-" + i);
+    }
+    lastReportTime = SystemClock.elapsedRealtimeNanos();
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Queues an item. Returns false if the item itself was dropped (it has been recycled) or the
+   * stage is closed.
+   */
+  public boolean offer(final T item) {
+    if (closed) {
+      recycle(item);
+      return false;
+    }
+    switch (dropPolicy) {
+      case BLOCK:
+        try {
+          queue.put(item);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          drop(item);
+          return false;
+        }
+        break;
+      case DROP_NEWEST:
+        if (!queue.offer(item)) {
+          drop(item);
+          return false;
+        }
+        break;
+      default:
+        // 古いものを捨てても他のスレッドに先を越されることがあるので，入るまで繰り返す
+        while (!queue.offer(item)) {
+          final T oldest = queue.poll();
+          if (oldest != null) {
+            drop(oldest);
+          }
+        }
+        break;
+    }
+    updateMaxOccupancy();
+    if (closed) {
+      // close()と競合した場合に取り残さない
+      drain();
+    }
+    return true;
+  }
+
+  /** Items queued or being processed. */
+  public int getOccupancy() {
+    return queue.size() + active.get();
+  }
+
+  /**
+   * Stops the workers and recycles whatever is still queued. Workers busy with an item are
+   * interrupted.
+   */
+  public void close() {
+    closed = true;
+    for (final Thread thread : threads) {
+      thread.interrupt();
+    }
+    drain();
+  }
+
+  /**
+   * One line of statistics since the previous call: occupancy now and at most, throughput, busy
+   * share of the workers, drops and failures. Resets the maximum occupancy.
+   */
+  public synchronized String report() {
+    final long now = SystemClock.elapsedRealtimeNanos();
+    final long elapsed = Math.max(now - lastReportTime, 1);
+    final long processedNow = processed.get();
+    final long droppedNow = dropped.get();
+    final long failedNow = failed.get();
+    final long busyNow = busyNanos.get();
+    final String line =
+        String.format(
+            "%s: %d/%d queued (max %d), %.1f/s, busy %.0f%%, %d dropped, %d failed",
+            name,
+            getOccupancy(),
+            depth + threads.length,
+            maxOccupancy.getAndSet(getOccupancy()),
+            (processedNow - lastProcessed) * 1e9 / elapsed,
+            100.0 * (busyNow - lastBusyNanos) / (elapsed * (double) threads.length),
+            droppedNow - lastDropped,
+            failedNow - lastFailed);
+    lastReportTime = now;
+    lastProcessed = processedNow;
+    lastDropped = droppedNow;
+    lastFailed = failedNow;
+    lastBusyNanos = busyNow;
+    return line;
+  }
+
+  /** Logs the {@link #report()} of each stage. */
+  public static void logReports(final PipelineStage<?>... stages) {
+    for (final PipelineStage<?> stage : stages) {
+      LOGGER.i("%s", stage.report());
+    }
+  }
+
+  private void loop() {
+    while (!closed) {
+      final T item;
+      try {
+        item = queue.take();
+      } catch (final InterruptedException e) {
+        break;
+      }
+      active.incrementAndGet();
+      final long start = SystemClock.elapsedRealtimeNanos();
+      try {
+        worker.process(item);
+        processed.incrementAndGet();
+      } catch (final InterruptedException e) {
+        // 閉じるときの割り込み
+        recycle(item);
+      } catch (final Exception e) {
+        LOGGER.e(e, "%s failed", name);
+        failed.incrementAndGet();
+        recycle(item);
+      } finally {
+        busyNanos.addAndGet(SystemClock.elapsedRealtimeNanos() - start);
+        active.decrementAndGet();
+      }
+    }
+  }
+
+  private void drop(final T item) {
+    dropped.incrementAndGet();
+    recycle(item);
+  }
+
+  private void drain() {
+    T item;
+    while ((item = queue.poll()) != null) {
+      recycle(item);
+    }
+  }
+
+  private void recycle(final T item) {
+    try {
+      recycler.recycle(item);
+    } catch (final RuntimeException e) {
+      LOGGER.e(e, "%s could not recycle an item", name);
+    }
+  }
+
+  private void updateMaxOccupancy() {
+    final int occupancy = getOccupancy();
+    int max;
+    while (occupancy > (max = maxOccupancy.get())
+        && !maxOccupancy.compareAndSet(max, occupancy)) {
+      // 他のスレッドが更新したので読み直す
+    }
+  }
+}
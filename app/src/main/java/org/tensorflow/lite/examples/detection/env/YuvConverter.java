@@ -0,0 +1,318 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Multi-threaded version of {@link ImageUtils#convertYUV420SPToARGB8888} and {@link
+ * ImageUtils#convertYUV420ToARGB8888}, with identical output.
+ *
+ * <p>The frame is split into horizontal stripes of whole row pairs, and the stripes are converted
+ * on a fixed pool of worker threads. Both rows of a pair share one chroma row, so every U/V sample
+ * is read once for the four pixels it covers instead of four times.
+ *
+ * <p>The per-pixel conversion is selected with {@link #setKernel}; all kernels give the same output.
+ *
+ * <p>Not thread-safe: one frame is converted at a time.
+ */
+public class YuvConverter {
+  /** How each pixel is converted. */
+  public enum Kernel {
+    /** The integer formula of {@link ImageUtils#YUV2RGB}. */
+    FORMULA,
+    /** Precomputed per-component terms and a clamping table, see {@link YuvLookupTable}. */
+    LOOKUP_TABLE
+  }
+
+  // Stripes per thread, so that a thread that is descheduled does not hold up the whole frame.
+  private static final int STRIPES_PER_THREAD = 2;
+
+  // Parallel mode, null while converting on the calling thread.
+  private ForkJoinPool pool;
+  private ConvertAllTask convertAll;
+
+  private volatile Kernel kernel = Kernel.FORMULA;
+
+  // Frame being converted in parallel.
+  private Kernel frameKernel;
+  private boolean semiPlanar;
+  private byte[] yData;
+  private byte[] uData;
+  private byte[] vData;
+  private int width;
+  private int height;
+  private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
+  private int[] out;
+
+  /** @param numThreads Worker threads; one or less converts on the calling thread. */
+  public YuvConverter(final int numThreads) {
+    setNumThreads(numThreads);
+  }
+
+  public void setNumThreads(final int numThreads) {
+    if (Math.max(numThreads, 1) == getNumThreads()) {
+      return;
+    }
+    close();
+    if (numThreads > 1) {
+      pool = new ForkJoinPool(numThreads);
+      convertAll = new ConvertAllTask(numThreads * STRIPES_PER_THREAD);
+    }
+  }
+
+  public void setKernel(final Kernel kernel) {
+    this.kernel = kernel;
+  }
+
+  public Kernel getKernel() {
+    return kernel;
+  }
+
+  public int getNumThreads() {
+    return pool == null ? 1 : pool.getParallelism();
+  }
+
+  /** Shuts down the worker threads, if any. The converter keeps working on the calling thread. */
+  public void close() {
+    if (pool != null) {
+      pool.shutdown();
+      pool = null;
+      convertAll = null;
+    }
+  }
+
+  /** Same as {@link ImageUtils#convertYUV420SPToARGB8888}: NV21, V before U. */
+  public void convertYUV420SPToARGB8888(
+      final byte[] input, final int width, final int height, final int[] output) {
+    if (pool == null) {
+      convertYUV420SPRows(kernel, input, width, height, output, 0, height);
+      return;
+    }
+    this.semiPlanar = true;
+    this.yData = input;
+    this.width = width;
+    this.height = height;
+    this.out = output;
+    run();
+  }
+
+  /** Same as {@link ImageUtils#convertYUV420ToARGB8888}. */
+  public void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    if (pool == null) {
+      convertYUV420Rows(
+          kernel, yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, 0, height);
+      return;
+    }
+    this.semiPlanar = false;
+    this.yData = yData;
+    this.uData = uData;
+    this.vData = vData;
+    this.width = width;
+    this.height = height;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+    this.out = out;
+    run();
+  }
+
+  private void run() {
+    frameKernel = kernel;
+    try {
+      convertAll.reinitialize();
+      pool.invoke(convertAll);
+    } finally {
+      // フレームの配列を持ち続けない
+      yData = null;
+      uData = null;
+      vData = null;
+      out = null;
+    }
+  }
+
+  private static void convertYUV420SPRows(
+      final Kernel kernel,
+      final byte[] input,
+      final int width,
+      final int height,
+      final int[] output,
+      final int fromRow,
+      final int toRow) {
+    if (kernel == Kernel.LOOKUP_TABLE) {
+      YuvLookupTable.convertYUV420SPRows(input, width, height, output, fromRow, toRow);
+    } else {
+      convertYUV420SPRows(input, width, height, output, fromRow, toRow);
+    }
+  }
+
+  private static void convertYUV420Rows(
+      final Kernel kernel,
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final int fromRow,
+      final int toRow) {
+    if (kernel == Kernel.LOOKUP_TABLE) {
+      YuvLookupTable.convertYUV420Rows(
+          yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, fromRow, toRow);
+    } else {
+      convertYUV420Rows(
+          yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, fromRow, toRow);
+    }
+  }
+
+  /**
+   * Converts rows {@code [fromRow, toRow)} of an NV21 frame. {@code fromRow} must be even so that
+   * the range starts at a row pair.
+   */
+  static void convertYUV420SPRows(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int[] output,
+      final int fromRow,
+      final int toRow) {
+    final int frameSize = width * height;
+    for (int j = fromRow; j < toRow; j += 2) {
+      final int uvp = frameSize + (j >> 1) * width;
+      final int yp0 = j * width;
+      final int yp1 = yp0 + width;
+      final boolean pair = j + 1 < toRow;
+      for (int i = 0; i < width; i += 2) {
+        // 2x2の画素で同じ色差を使う
+        final int v = 0xff & input[uvp + i];
+        final int u = 0xff & input[uvp + i + 1];
+        output[yp0 + i] = ImageUtils.YUV2RGB(0xff & input[yp0 + i], u, v);
+        if (i + 1 < width) {
+          output[yp0 + i + 1] = ImageUtils.YUV2RGB(0xff & input[yp0 + i + 1], u, v);
+        }
+        if (pair) {
+          output[yp1 + i] = ImageUtils.YUV2RGB(0xff & input[yp1 + i], u, v);
+          if (i + 1 < width) {
+            output[yp1 + i + 1] = ImageUtils.YUV2RGB(0xff & input[yp1 + i + 1], u, v);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Converts rows {@code [fromRow, toRow)} of a YUV_420_888 frame. {@code fromRow} must be even so
+   * that the range starts at a row pair.
+   */
+  static void convertYUV420Rows(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final int fromRow,
+      final int toRow) {
+    for (int j = fromRow; j < toRow; j += 2) {
+      final int pY0 = yRowStride * j;
+      final int pY1 = pY0 + yRowStride;
+      final int pUV = uvRowStride * (j >> 1);
+      final int op0 = j * width;
+      final int op1 = op0 + width;
+      final boolean pair = j + 1 < toRow;
+      for (int i = 0; i < width; i += 2) {
+        final int uvOffset = pUV + (i >> 1) * uvPixelStride;
+        final int u = 0xff & uData[uvOffset];
+        final int v = 0xff & vData[uvOffset];
+        out[op0 + i] = ImageUtils.YUV2RGB(0xff & yData[pY0 + i], u, v);
+        if (i + 1 < width) {
+          out[op0 + i + 1] = ImageUtils.YUV2RGB(0xff & yData[pY0 + i + 1], u, v);
+        }
+        if (pair) {
+          out[op1 + i] = ImageUtils.YUV2RGB(0xff & yData[pY1 + i], u, v);
+          if (i + 1 < width) {
+            out[op1 + i + 1] = ImageUtils.YUV2RGB(0xff & yData[pY1 + i + 1], u, v);
+          }
+        }
+      }
+    }
+  }
+
+  /** Forks one task per stripe and waits for all of them. */
+  private final class ConvertAllTask extends RecursiveAction {
+    private final StripeTask[] stripes;
+
+    ConvertAllTask(final int numStripes) {
+      stripes = new StripeTask[numStripes];
+      for (int i = 0; i < numStripes; ++i) {
+        stripes[i] = new StripeTask(i, numStripes);
+      }
+    }
+
+    @Override
+    protected void compute() {
+      for (final StripeTask stripe : stripes) {
+        stripe.reinitialize();
+      }
+      invokeAll(stripes);
+    }
+  }
+
+  /** Converts one stripe of row pairs of the current frame. */
+  private final class StripeTask extends RecursiveAction {
+    private final int index;
+    private final int numStripes;
+
+    StripeTask(final int index, final int numStripes) {
+      this.index = index;
+      this.numStripes = numStripes;
+    }
+
+    @Override
+    protected void compute() {
+      // 行のペアを均等に分ける
+      final int pairs = (height + 1) / 2;
+      final int fromRow = 2 * (int) ((long) pairs * index / numStripes);
+      final int toRow = Math.min(height, 2 * (int) ((long) pairs * (index + 1) / numStripes));
+      if (fromRow >= toRow) {
+        return;
+      }
+      if (semiPlanar) {
+        convertYUV420SPRows(frameKernel, yData, width, height, out, fromRow, toRow);
+      } else {
+        convertYUV420Rows(
+            frameKernel,
+            yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, fromRow, toRow);
+      }
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The Y, U and V planes of one camera frame, for reading single pixels without converting the
+ * whole frame.
+ *
+ * <p>Both camera formats are described the same way. An NV21 frame from {@code
+ * android.hardware.Camera} is one array whose U and V "planes" start one byte apart inside the
+ * interleaved chroma block. A YUV_420_888 frame from {@code Image} has three planes with their own
+ * strides.
+ *
+ * <p>Offsets split into a row part and a column part, e.g. {@code lumaRow(y) + lumaColumn(x)}, so a
+ * caller walking a fixed grid can precompute both. {@link #argb(int, int)} converts exactly like
+ * {@link ImageUtils#YUV2RGB}, so sampling a frame gives the same pixels as converting it in full
+ * first.
+ *
+ * <p>A frame only refers to the arrays it is given, so it is valid until they are reused. It is
+ * pointed at new arrays with {@link #setNV21} or {@link #setPlanes}, so one instance can describe
+ * every frame that passes through a buffer without allocating. Nothing here is synchronized; the
+ * owner of the arrays orders rebinding before the reads.
+ */
+public final class YuvFrame {
+  private int width;
+  private int height;
+  private byte[] yData;
+  private byte[] uData;
+  private byte[] vData;
+  private int uOffset;
+  private int vOffset;
+  private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
+  // NV21 frames are converted from the single array they came in.
+  private boolean semiPlanar;
+
+  /** Points this frame at an NV21 frame as delivered by {@code Camera.PreviewCallback}. */
+  public YuvFrame setNV21(final byte[] data, final int width, final int height) {
+    final int frameSize = width * height;
+    if (data.length < frameSize + ((height + 1) / 2) * width) {
+      throw new IllegalArgumentException(
+          "NV21 frame of " + width + "x" + height + " has only " + data.length + " bytes");
+    }
+    // VUVU... の順なので，Vは偶数番目，Uは奇数番目
+    return set(width, height, data, data, data, frameSize + 1, frameSize, width, width, 2, true);
+  }
+
+  /**
+   * Points this frame at a YUV_420_888 frame whose planes have been copied into arrays, e.g. by
+   * {@code fillBytes}.
+   */
+  public YuvFrame setPlanes(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    return set(
+        width, height, yData, uData, vData, 0, 0, yRowStride, uvRowStride, uvPixelStride, false);
+  }
+
+  private YuvFrame set(
+      final int width,
+      final int height,
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int uOffset,
+      final int vOffset,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final boolean semiPlanar) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Empty frame: " + width + "x" + height);
+    }
+    this.width = width;
+    this.height = height;
+    this.yData = yData;
+    this.uData = uData;
+    this.vData = vData;
+    this.uOffset = uOffset;
+    this.vOffset = vOffset;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+    this.semiPlanar = semiPlanar;
+    return this;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /** Luma bytes; the row stride is {@link #lumaRow(int) lumaRow(1)}. */
+  public byte[] getLuminance() {
+    return yData;
+  }
+
+  public int lumaRow(final int y) {
+    return y * yRowStride;
+  }
+
+  public int lumaColumn(final int x) {
+    return x;
+  }
+
+  public int chromaRow(final int y) {
+    return (y >> 1) * uvRowStride;
+  }
+
+  public int chromaColumn(final int x) {
+    return (x >> 1) * uvPixelStride;
+  }
+
+  /** The ARGB pixel whose luma and chroma samples are at the given offsets. */
+  public int argb(final int lumaOffset, final int chromaOffset) {
+    return YuvLookupTable.YUV2RGB(
+        0xff & yData[lumaOffset],
+        0xff & uData[uOffset + chromaOffset],
+        0xff & vData[vOffset + chromaOffset]);
+  }
+
+  /**
+   * Writes the luma plane, {@code width x height} bytes without row padding, at the position of
+   * {@code dst}.
+   */
+  public void writeLuminance(final ByteBuffer dst) {
+    if (yRowStride == width) {
+      dst.put(yData, 0, width * height);
+      return;
+    }
+    for (int j = 0; j < height; ++j) {
+      dst.put(yData, j * yRowStride, width);
+    }
+  }
+
+  /**
+   * Writes the chroma of the frame as the interleaved VU block of an NV21 image, {@code width x
+   * height / 2} bytes, at the position of {@code dst}. Width and height must be even.
+   *
+   * @param row Scratch of at least {@code width} bytes, used for planar frames.
+   */
+  public void writeChromaNV21(final ByteBuffer dst, final byte[] row) {
+    final int chromaRows = height / 2;
+    if (semiPlanar) {
+      // NV21のフレームはそのままコピーできる
+      dst.put(vData, vOffset, chromaRows * width);
+      return;
+    }
+    final int chromaColumns = width / 2;
+    for (int j = 0; j < chromaRows; ++j) {
+      int c = j * uvRowStride;
+      for (int i = 0; i < chromaColumns; ++i, c += uvPixelStride) {
+        row[2 * i] = vData[vOffset + c];
+        row[2 * i + 1] = uData[uOffset + c];
+      }
+      dst.put(row, 0, width);
+    }
+  }
+
+  /** Converts the whole frame, for the consumers that do need full RGB. */
+  public void toArgb(final YuvConverter converter, final int[] out) {
+    if (semiPlanar) {
+      converter.convertYUV420SPToARGB8888(yData, width, height, out);
+    } else {
+      converter.convertYUV420ToARGB8888(
+          yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, out);
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * Table-driven version of {@link ImageUtils#YUV2RGB}, bit-exact with it.
+ *
+ * <p>The integer formula is a sum of one term per component, so each term is tabulated: the luma
+ * term per Y, and the chroma terms per U and V. A pixel then costs one lookup for Y, a chroma sum
+ * that is shared by the 2x2 pixels of a chroma sample, and three lookups in a clamping table.
+ *
+ * <p>The clamping table is indexed by the channel sum shifted right by 10. Clamping to
+ * [0, kMaxChannelValue] and then keeping the top 8 of the 18 bits gives the same result as
+ * shifting first: negative sums shift to negative indices, which map to 0, and sums above
+ * kMaxChannelValue shift to 256 or more, which map to 255.
+ */
+final class YuvLookupTable {
+  // 1192 * max(y - 16, 0)
+  private static final int[] Y_TERM = new int[256];
+  // 1634 * (v - 128)
+  private static final int[] R_V = new int[256];
+  // -833 * (v - 128)
+  private static final int[] G_V = new int[256];
+  // -400 * (u - 128)
+  private static final int[] G_U = new int[256];
+  // 2066 * (u - 128)
+  private static final int[] B_U = new int[256];
+
+  // Range of (sum >> 10) over all inputs: the smallest sum is B_U[0], the largest Y_TERM[255] +
+  // B_U[255].
+  private static final int CLAMP_OFFSET;
+  private static final int[] CLAMP;
+
+  static {
+    for (int i = 0; i < 256; ++i) {
+      Y_TERM[i] = 1192 * Math.max(i - 16, 0);
+      R_V[i] = 1634 * (i - 128);
+      G_V[i] = -833 * (i - 128);
+      G_U[i] = -400 * (i - 128);
+      B_U[i] = 2066 * (i - 128);
+    }
+    final int min = Math.min(Math.min(R_V[0], G_V[255] + G_U[255]), B_U[0]) >> 10;
+    final int max = (Y_TERM[255] + Math.max(Math.max(R_V[255], G_V[0] + G_U[0]), B_U[255])) >> 10;
+    CLAMP_OFFSET = -min;
+    CLAMP = new int[max - min + 1];
+    for (int i = min; i <= max; ++i) {
+      CLAMP[i + CLAMP_OFFSET] = i < 0 ? 0 : Math.min(i, 255);
+    }
+  }
+
+  private YuvLookupTable() {}
+
+  /** Same as {@link ImageUtils#YUV2RGB}. */
+  static int YUV2RGB(final int y, final int u, final int v) {
+    return argb(Y_TERM[y], R_V[v], G_V[v] + G_U[u], B_U[u]);
+  }
+
+  private static int argb(final int yTerm, final int rTerm, final int gTerm, final int bTerm) {
+    return 0xff000000
+        | (CLAMP[((yTerm + rTerm) >> 10) + CLAMP_OFFSET] << 16)
+        | (CLAMP[((yTerm + gTerm) >> 10) + CLAMP_OFFSET] << 8)
+        | CLAMP[((yTerm + bTerm) >> 10) + CLAMP_OFFSET];
+  }
+
+  /** Table-driven {@link YuvConverter#convertYUV420SPRows}. */
+  static void convertYUV420SPRows(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int[] output,
+      final int fromRow,
+      final int toRow) {
+    final int frameSize = width * height;
+    for (int j = fromRow; j < toRow; j += 2) {
+      final int uvp = frameSize + (j >> 1) * width;
+      final int yp0 = j * width;
+      final int yp1 = yp0 + width;
+      final boolean pair = j + 1 < toRow;
+      for (int i = 0; i < width; i += 2) {
+        final int v = 0xff & input[uvp + i];
+        final int u = 0xff & input[uvp + i + 1];
+        // 色差の項は2x2の画素で共通
+        final int r = R_V[v];
+        final int g = G_V[v] + G_U[u];
+        final int b = B_U[u];
+        output[yp0 + i] = argb(Y_TERM[0xff & input[yp0 + i]], r, g, b);
+        if (i + 1 < width) {
+          output[yp0 + i + 1] = argb(Y_TERM[0xff & input[yp0 + i + 1]], r, g, b);
+        }
+        if (pair) {
+          output[yp1 + i] = argb(Y_TERM[0xff & input[yp1 + i]], r, g, b);
+          if (i + 1 < width) {
+            output[yp1 + i + 1] = argb(Y_TERM[0xff & input[yp1 + i + 1]], r, g, b);
+          }
+        }
+      }
+    }
+  }
+
+  /** Table-driven {@link YuvConverter#convertYUV420Rows}. */
+  static void convertYUV420Rows(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final int fromRow,
+      final int toRow) {
+    for (int j = fromRow; j < toRow; j += 2) {
+      final int pY0 = yRowStride * j;
+      final int pY1 = pY0 + yRowStride;
+      final int pUV = uvRowStride * (j >> 1);
+      final int op0 = j * width;
+      final int op1 = op0 + width;
+      final boolean pair = j + 1 < toRow;
+      for (int i = 0; i < width; i += 2) {
+        final int uvOffset = pUV + (i >> 1) * uvPixelStride;
+        final int u = 0xff & uData[uvOffset];
+        final int v = 0xff & vData[uvOffset];
+        final int r = R_V[v];
+        final int g = G_V[v] + G_U[u];
+        final int b = B_U[u];
+        out[op0 + i] = argb(Y_TERM[0xff & yData[pY0 + i]], r, g, b);
+        if (i + 1 < width) {
+          out[op0 + i + 1] = argb(Y_TERM[0xff & yData[pY0 + i + 1]], r, g, b);
+        }
+        if (pair) {
+          out[op1 + i] = argb(Y_TERM[0xff & yData[pY1 + i]], r, g, b);
+          if (i + 1 < width) {
+            out[op1 + i + 1] = argb(Y_TERM[0xff & yData[pY1 + i + 1]], r, g, b);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.face;
+
+/**
+ * One face found by a {@link FaceDetectorProvider}, in the coordinates of the upright detection
+ * image: the bounding box, the eye landmarks and the eye contours, whichever the detector reports.
+ *
+ * <p>Plain values only, so recorded faces can be replayed without any detector or Android class.
+ */
+public final class DetectedFace {
+    /** Tracking ID of a face the detector does not track. */
+    public static final int INVALID_ID = -1;
+
+    private static final float[] NO_CONTOUR = new float[0];
+
+    private final int trackingId;
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+    private final float rightEyeX;
+    private final float rightEyeY;
+    private final float leftEyeX;
+    private final float leftEyeY;
+    private final float[] rightEyeContour;
+    private final float[] leftEyeContour;
+
+    /**
+     * @param trackingId      Stable ID across frames, or {@link #INVALID_ID}.
+     * @param left            Bounding box.
+     * @param top             Bounding box.
+     * @param right           Bounding box.
+     * @param bottom          Bounding box.
+     * @param rightEyeX       Right eye landmark, NaN if not detected.
+     * @param rightEyeY       Right eye landmark, NaN if not detected.
+     * @param leftEyeX        Left eye landmark, NaN if not detected.
+     * @param leftEyeY        Left eye landmark, NaN if not detected.
+     * @param rightEyeContour Right eye contour as x0, y0, x1, y1, ..., or null.
+     * @param leftEyeContour  Left eye contour as x0, y0, x1, y1, ..., or null.
+     */
+    public DetectedFace(
+            final int trackingId,
+            final int left,
+            final int top,
+            final int right,
+            final int bottom,
+            final float rightEyeX,
+            final float rightEyeY,
+            final float leftEyeX,
+            final float leftEyeY,
+            final float[] rightEyeContour,
+            final float[] leftEyeContour) {
+        this.trackingId = trackingId;
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        this.rightEyeX = rightEyeX;
+        this.rightEyeY = rightEyeY;
+        this.leftEyeX = leftEyeX;
+        this.leftEyeY = leftEyeY;
+        this.rightEyeContour = rightEyeContour != null ? rightEyeContour : NO_CONTOUR;
+        this.leftEyeContour = leftEyeContour != null ? leftEyeContour : NO_CONTOUR;
+    }
+
+    public int getTrackingId() {
+        return trackingId;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    public int getWidth() {
+        return right - left;
+    }
+
+    /** Whether both eye landmarks were detected. */
+    public boolean hasEyeLandmarks() {
+        return !Float.isNaN(rightEyeX) && !Float.isNaN(rightEyeY)
+                && !Float.isNaN(leftEyeX) && !Float.isNaN(leftEyeY);
+    }
+
+    /** Whether both eye contours were detected. */
+    public boolean hasEyeContours() {
+        return rightEyeContour.length >= 2 && leftEyeContour.length >= 2;
+    }
+
+    public float getRightEyeX() {
+        return rightEyeX;
+    }
+
+    public float getRightEyeY() {
+        return rightEyeY;
+    }
+
+    public float getLeftEyeX() {
+        return leftEyeX;
+    }
+
+    public float getLeftEyeY() {
+        return leftEyeY;
+    }
+
+    /** Right eye contour as x0, y0, x1, y1, ...; empty if not detected. Must not be modified. */
+    public float[] getRightEyeContour() {
+        return rightEyeContour;
+    }
+
+    /** Left eye contour as x0, y0, x1, y1, ...; empty if not detected. Must not be modified. */
+    public float[] getLeftEyeContour() {
+        return leftEyeContour;
+    }
+}
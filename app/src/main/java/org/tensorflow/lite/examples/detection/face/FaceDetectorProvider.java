@@ -0,0 +1,46 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.face;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A face detector session: one long-lived detector for one option set, opened and closed with the
+ * activity so its native resources and warm state outlive single frames.
+ *
+ * <p>Results are delivered through the returned future, completed on the executor the provider was
+ * created with, never on the main thread unless that is the executor given.
+ *
+ * <p>{@link #open()} and {@link #close()} may be called repeatedly, e.g. from {@code onResume} and
+ * {@code onPause}. A detection started while the session is closed fails with an {@link
+ * IllegalStateException}; one in progress when it is closed may fail too.
+ */
+public interface FaceDetectorProvider {
+    /** Creates the detector if the session is not open yet. */
+    void open();
+
+    /** Releases the detector. The session can be opened again later. */
+    void close();
+
+    boolean isOpen();
+
+    /**
+     * Starts detecting the faces in an image. The image must not change until the returned future
+     * is complete.
+     */
+    CompletableFuture<List<DetectedFace>> detect(FaceImage image);
+}
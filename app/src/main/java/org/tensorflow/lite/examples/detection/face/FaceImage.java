@@ -0,0 +1,89 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.face;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The input of one face detection: either an upright bitmap, or NV21 camera bytes with the
+ * rotation that makes them upright. Reused from frame to frame; the data it refers to must stay
+ * untouched until the detection is complete.
+ */
+public final class FaceImage {
+    private Bitmap bitmap;
+    private ByteBuffer nv21;
+    private int width;
+    private int height;
+    private int rotationDegrees;
+
+    /** An upright ARGB_8888 bitmap. */
+    public void setBitmap(final Bitmap bitmap) {
+        clear();
+        this.bitmap = bitmap;
+        this.width = bitmap.getWidth();
+        this.height = bitmap.getHeight();
+    }
+
+    /**
+     * NV21 bytes as delivered by the camera.
+     *
+     * @param rotationDegrees Clockwise rotation making the image upright: 0, 90, 180 or 270.
+     */
+    public void setNV21(final ByteBuffer nv21, final int width, final int height, final int rotationDegrees) {
+        clear();
+        this.nv21 = nv21;
+        this.width = width;
+        this.height = height;
+        this.rotationDegrees = rotationDegrees;
+    }
+
+    /** Drops the references to the image data. */
+    public void clear() {
+        bitmap = null;
+        nv21 = null;
+        width = 0;
+        height = 0;
+        rotationDegrees = 0;
+    }
+
+    public boolean isEmpty() {
+        return bitmap == null && nv21 == null;
+    }
+
+    /** The bitmap, or null if the image is NV21. */
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /** The NV21 bytes, or null if the image is a bitmap. */
+    public ByteBuffer getNV21() {
+        return nv21;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRotationDegrees() {
+        return rotationDegrees;
+    }
+}
@@ -0,0 +1,183 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.face;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.ml.vision.FirebaseVision;
+import com.google.firebase.ml.vision.common.FirebaseVisionImage;
+import com.google.firebase.ml.vision.common.FirebaseVisionImageMetadata;
+import com.google.firebase.ml.vision.common.FirebaseVisionPoint;
+import com.google.firebase.ml.vision.face.FirebaseVisionFace;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetector;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetectorOptions;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceLandmark;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/** A {@link FaceDetectorProvider} backed by one Firebase ML Kit face detector. */
+public final class FirebaseFaceDetectorProvider implements FaceDetectorProvider {
+    private static final Logger LOGGER = new Logger();
+
+    private final FirebaseVisionFaceDetectorOptions options;
+    private final Executor executor;
+    private FirebaseVisionFaceDetector detector;
+
+    // NV21のメタデータは大きさと回転が変わらない限り使い回す
+    private FirebaseVisionImageMetadata metadata;
+
+    /**
+     * @param options  Options of the detector.
+     * @param executor Executor completing the results, e.g. a pipeline thread. A direct executor
+     *                 completes them on the detector's worker thread.
+     */
+    public FirebaseFaceDetectorProvider(final FirebaseVisionFaceDetectorOptions options, final Executor executor) {
+        this.options = options;
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void open() {
+        if (detector == null) {
+            detector = FirebaseVision.getInstance().getVisionFaceDetector(options);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (detector == null) {
+            return;
+        }
+        try {
+            detector.close();
+        } catch (final IOException e) {
+            LOGGER.e(e, "Could not close the face detector");
+        }
+        detector = null;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return detector != null;
+    }
+
+    @Override
+    public synchronized CompletableFuture<List<DetectedFace>> detect(final FaceImage image) {
+        final CompletableFuture<List<DetectedFace>> result = new CompletableFuture<>();
+        if (detector == null) {
+            result.completeExceptionally(new IllegalStateException("Face detector is closed"));
+            return result;
+        }
+        detector.detectInImage(toVisionImage(image))
+                .addOnSuccessListener(
+                        executor,
+                        new OnSuccessListener<List<FirebaseVisionFace>>() {
+                            // 認識結果がゼロの場合でも呼ばれる
+                            @Override
+                            public void onSuccess(final List<FirebaseVisionFace> faces) {
+                                final List<DetectedFace> detected = new ArrayList<>(faces.size());
+                                for (final FirebaseVisionFace face : faces) {
+                                    detected.add(toDetectedFace(face));
+                                }
+                                result.complete(detected);
+                            }
+                        })
+                .addOnFailureListener(
+                        executor,
+                        new OnFailureListener() {
+                            @Override
+                            public void onFailure(@NonNull final Exception e) {
+                                result.completeExceptionally(e);
+                            }
+                        });
+        return result;
+    }
+
+    private FirebaseVisionImage toVisionImage(final FaceImage image) {
+        if (image.getBitmap() != null) {
+            return FirebaseVisionImage.fromBitmap(image.getBitmap());
+        }
+        final int rotation = toFirebaseRotation(image.getRotationDegrees());
+        if (metadata == null
+                || metadata.getWidth() != image.getWidth()
+                || metadata.getHeight() != image.getHeight()
+                || metadata.getRotation() != rotation) {
+            metadata =
+                    new FirebaseVisionImageMetadata.Builder()
+                            .setWidth(image.getWidth())
+                            .setHeight(image.getHeight())
+                            .setFormat(FirebaseVisionImageMetadata.IMAGE_FORMAT_NV21)
+                            .setRotation(rotation)
+                            .build();
+        }
+        return FirebaseVisionImage.fromByteBuffer(image.getNV21(), metadata);
+    }
+
+    private static int toFirebaseRotation(final int degrees) {
+        switch (degrees) {
+            case 90:
+                return FirebaseVisionImageMetadata.ROTATION_90;
+            case 180:
+                return FirebaseVisionImageMetadata.ROTATION_180;
+            case 270:
+                return FirebaseVisionImageMetadata.ROTATION_270;
+            default:
+                return FirebaseVisionImageMetadata.ROTATION_0;
+        }
+    }
+
+    private static DetectedFace toDetectedFace(final FirebaseVisionFace face) {
+        final Rect bounds = face.getBoundingBox();
+        final FirebaseVisionFaceLandmark rightEye = face.getLandmark(FirebaseVisionFaceLandmark.RIGHT_EYE);
+        final FirebaseVisionFaceLandmark leftEye = face.getLandmark(FirebaseVisionFaceLandmark.LEFT_EYE);
+        return new DetectedFace(
+                face.getTrackingId(),
+                bounds.left,
+                bounds.top,
+                bounds.right,
+                bounds.bottom,
+                rightEye != null ? rightEye.getPosition().getX() : Float.NaN,
+                rightEye != null ? rightEye.getPosition().getY() : Float.NaN,
+                leftEye != null ? leftEye.getPosition().getX() : Float.NaN,
+                leftEye != null ? leftEye.getPosition().getY() : Float.NaN,
+                toPoints(face.getContour(FirebaseVisionFaceContour.RIGHT_EYE)),
+                toPoints(face.getContour(FirebaseVisionFaceContour.LEFT_EYE)));
+    }
+
+    private static float[] toPoints(final FirebaseVisionFaceContour contour) {
+        if (contour == null) {
+            return null;
+        }
+        final List<FirebaseVisionPoint> points = contour.getPoints();
+        final float[] xy = new float[2 * points.size()];
+        for (int i = 0; i < points.size(); ++i) {
+            xy[2 * i] = points.get(i).getX();
+            xy[2 * i + 1] = points.get(i).getY();
+        }
+        return xy;
+    }
+}
@@ -0,0 +1,190 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.face;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link FaceDetectorProvider} that ignores the image and replays recorded faces, one recorded
+ * frame per detection, starting over after the last one. Needs no detector, so the pipeline can be
+ * exercised on the JVM or on a device without Play services.
+ *
+ * <p>A recording has one line per face: {@code frame,id,left,top,right,bottom,rightEyeX,rightEyeY,
+ * leftEyeX,leftEyeY,rightEyeContour,leftEyeContour}. Frames are numbered from 0; a frame without
+ * faces is a line with only its number. Missing landmarks are {@code NaN}, and a contour is its
+ * coordinates separated by spaces, or empty. Blank lines and lines starting with {@code #} are
+ * skipped. {@link #format} writes faces in this form.
+ */
+public final class ReplayFaceDetectorProvider implements FaceDetectorProvider {
+    private final List<List<DetectedFace>> frames;
+    private final Executor executor;
+    private final AtomicInteger cursor = new AtomicInteger();
+    private volatile boolean open;
+
+    /**
+     * @param frames   Faces of each recorded frame.
+     * @param executor Executor completing the results.
+     */
+    public ReplayFaceDetectorProvider(final List<List<DetectedFace>> frames, final Executor executor) {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to replay");
+        }
+        this.frames = frames;
+        this.executor = executor;
+    }
+
+    /** Reads a recording in the format described above. */
+    public static List<List<DetectedFace>> load(final Reader reader) throws IOException {
+        final List<List<DetectedFace>> frames = new ArrayList<>();
+        final BufferedReader in = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            ++lineNumber;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = line.split(",", -1);
+            final int frame;
+            try {
+                frame = Integer.parseInt(fields[0].trim());
+            } catch (final NumberFormatException e) {
+                throw new IOException("Bad frame number on line " + lineNumber + ": " + line, e);
+            }
+            if (frame < 0) {
+                throw new IOException("Negative frame number on line " + lineNumber);
+            }
+            while (frames.size() <= frame) {
+                frames.add(new ArrayList<DetectedFace>());
+            }
+            if (fields.length == 1) {
+                continue;
+            }
+            if (fields.length != 12) {
+                throw new IOException("Expected 12 fields on line " + lineNumber + ", got " + fields.length);
+            }
+            try {
+                frames.get(frame).add(
+                        new DetectedFace(
+                                Integer.parseInt(fields[1].trim()),
+                                Integer.parseInt(fields[2].trim()),
+                                Integer.parseInt(fields[3].trim()),
+                                Integer.parseInt(fields[4].trim()),
+                                Integer.parseInt(fields[5].trim()),
+                                Float.parseFloat(fields[6].trim()),
+                                Float.parseFloat(fields[7].trim()),
+                                Float.parseFloat(fields[8].trim()),
+                                Float.parseFloat(fields[9].trim()),
+                                parseContour(fields[10]),
+                                parseContour(fields[11])));
+            } catch (final NumberFormatException e) {
+                throw new IOException("Bad number on line " + lineNumber + ": " + line, e);
+            }
+        }
+        return frames;
+    }
+
+    /** One line of a recording for a face of the given frame. */
+    public static String format(final int frame, final DetectedFace face) {
+        return String.format(
+                Locale.US,
+                "%d,%d,%d,%d,%d,%d,%s,%s,%s,%s,%s,%s",
+                frame,
+                face.getTrackingId(),
+                face.getLeft(),
+                face.getTop(),
+                face.getRight(),
+                face.getBottom(),
+                Float.toString(face.getRightEyeX()),
+                Float.toString(face.getRightEyeY()),
+                Float.toString(face.getLeftEyeX()),
+                Float.toString(face.getLeftEyeY()),
+                formatContour(face.getRightEyeContour()),
+                formatContour(face.getLeftEyeContour()));
+    }
+
+    private static float[] parseContour(final String field) {
+        final String trimmed = field.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        final String[] values = trimmed.split("\\s+");
+        if (values.length % 2 != 0) {
+            throw new NumberFormatException("Odd number of contour coordinates: " + trimmed);
+        }
+        final float[] xy = new float[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            xy[i] = Float.parseFloat(values[i]);
+        }
+        return xy;
+    }
+
+    private static String formatContour(final float[] xy) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < xy.length; ++i) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(xy[i]);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void open() {
+        open = true;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public CompletableFuture<List<DetectedFace>> detect(final FaceImage image) {
+        final CompletableFuture<List<DetectedFace>> result = new CompletableFuture<>();
+        if (!open) {
+            result.completeExceptionally(new IllegalStateException("Face detector is closed"));
+            return result;
+        }
+        final List<DetectedFace> faces =
+                Collections.unmodifiableList(
+                        frames.get(Math.floorMod(cursor.getAndIncrement(), frames.size())));
+        executor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        result.complete(faces);
+                    }
+                });
+        return result;
+    }
+}
@@ -18,14 +18,32 @@ package org.tensorflow.lite.examples.detection.tflite;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
 
-import org.jetbrains.bio.npy.NpyArray;
-
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /** Generic interface for interacting with different recognition engines. */
 public interface Classifier {
   List<Recognition> recognizeImage(Bitmap bitmap);
-  float[][] recognizeImageEye(Bitmap face, Bitmap right_eye, Bitmap left_eye, float[] face_grid, NpyArray face_mean, NpyArray right_mean, NpyArray left_mean);
+  float[][] recognizeImageEye(Bitmap face, Bitmap right_eye, Bitmap left_eye, float[] face_grid, MeanImage face_mean, MeanImage right_mean, MeanImage left_mean);
+
+  /**
+   * Allocation-free variant of {@link #recognizeImageEye(Bitmap, Bitmap, Bitmap, float[], MeanImage,
+   * MeanImage, MeanImage)}: the gaze point is written into {@code gaze[0]} and {@code gaze[1]}.
+   */
+  void recognizeImageEye(Bitmap face, Bitmap right_eye, Bitmap left_eye, float[] face_grid, MeanImage face_mean, MeanImage right_mean, MeanImage left_mean, float[] gaze);
+
+  /**
+   * Estimates the gaze of {@code count} face/eye/grid samples with a single interpreter run over a
+   * batch of that size. Sample i's gaze point is written into {@code gaze[i][0]} and {@code
+   * gaze[i][1]}.
+   */
+  void recognizeImageEyeBatch(Bitmap[] faces, Bitmap[] right_eyes, Bitmap[] left_eyes, float[][] face_grids, int count, MeanImage face_mean, MeanImage right_mean, MeanImage left_mean, float[][] gaze);
+
+  /**
+   * Runs {@code iterations} gaze inferences on synthetic inputs so that later calls do not pay for
+   * tensor allocation and kernel preparation, and reports the cold and warm latencies.
+   */
+  WarmUpResult warmUp(int iterations);
 
   void enableStatLogging(final boolean debug);
 
@@ -37,6 +55,9 @@ public interface Classifier {
 
   void setUseNNAPI(boolean isChecked);
 
+  /** Shared pool the gaze crops are preprocessed on, independent of the interpreter threads. */
+  void setPreprocessPool(ForkJoinPool pool);
+
   /** An immutable result returned by a Classifier describing what was recognized. */
   public class Recognition {
     /**
@@ -0,0 +1,86 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+/**
+ * The 25x25 face grid input of the gaze model, computed from the face bounds.
+ *
+ * <p>Follows {@code faceGridFromFaceRect.m} of GazeCapture: the face rectangle is scaled to grid
+ * units, its origin and size are rounded (half away from zero, as MATLAB does), the covered cells
+ * are clamped to the grid and set to 1, and the grid is flattened row by row.
+ */
+public final class FaceGrid {
+    private FaceGrid() {
+    }
+
+    /** Same as {@link #fill(int, int, int, int, int, int, float[])} with a {@link Rect}. */
+    public static void fill(final int frameWidth, final int frameHeight, final Rect face, final float[] grid) {
+        fill(frameWidth, frameHeight, face.left, face.top, face.width(), face.height(), grid);
+    }
+
+    /**
+     * Writes the occupancy of a face into {@code grid}.
+     *
+     * @param frameWidth  Width of the frame the face was detected in.
+     * @param frameHeight Height of that frame.
+     * @param faceX       Left edge of the face in frame pixels.
+     * @param faceY       Top edge of the face.
+     * @param faceWidth   Width of the face.
+     * @param faceHeight  Height of the face.
+     * @param grid        {@link GazeTensorPacker#GRID_CELLS} values, row-major; overwritten.
+     */
+    public static void fill(
+            final int frameWidth,
+            final int frameHeight,
+            final int faceX,
+            final int faceY,
+            final int faceWidth,
+            final int faceHeight,
+            final float[] grid) {
+        final int size = GazeTensorPacker.GRID_SIZE;
+        final double scaleX = size / (double) frameWidth;
+        final double scaleY = size / (double) frameHeight;
+
+        // MATLABと同じく1始まりの座標で計算する
+        int xLo = round(faceX * scaleX) + 1;
+        int yLo = round(faceY * scaleY) + 1;
+        final int w = round(faceWidth * scaleX);
+        final int h = round(faceHeight * scaleY);
+        int xHi = xLo + w - 1;
+        int yHi = yLo + h - 1;
+
+        // グリッドの範囲に収める
+        xLo = Math.min(size, Math.max(1, xLo));
+        xHi = Math.min(size, Math.max(1, xHi));
+        yLo = Math.min(size, Math.max(1, yLo));
+        yHi = Math.min(size, Math.max(1, yHi));
+
+        Arrays.fill(grid, 0, GazeTensorPacker.GRID_CELLS, 0.0f);
+        for (int y = yLo; y <= yHi; ++y) {
+            final int row = (y - 1) * size;
+            Arrays.fill(grid, row + xLo - 1, row + xHi, 1.0f);
+        }
+    }
+
+    /** MATLAB's round: half away from zero. */
+    private static int round(final double value) {
+        return (int) (value < 0 ? -Math.floor(-value + 0.5) : Math.floor(value + 0.5));
+    }
+}
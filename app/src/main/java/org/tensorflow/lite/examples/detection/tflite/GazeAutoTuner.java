@@ -0,0 +1,278 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.SharedPreferences;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Finds the interpreter thread count and NNAPI setting with the lowest gaze latency on this device.
+ *
+ * <p>Every combination of 1..maxThreads threads and NNAPI off/on is applied to the pool, and {@link
+ * GazeEstimator#estimate(int[], int[], int[], float[], float[])} is timed end to end, preprocessing
+ * included, on synthetic crops.
+ * All interpreters of the pool run at the same time while they are timed, as they do on camera
+ * frames, so a thread count that oversubscribes the cores shows up as a slower configuration.
+ * The combination with the lowest p95 over all interpreters wins, ties going to the lower p50. The result is stored per
+ * device model, model file and input size so that later launches only have to {@link #load} it.
+ */
+public final class GazeAutoTuner {
+    private static final Logger LOGGER = new Logger();
+
+    private static final String KEY_THREADS = "/threads";
+    private static final String KEY_NNAPI = "/nnapi";
+    private static final String KEY_P50 = "/p50";
+    private static final String KEY_P95 = "/p95";
+
+    /** One tuned configuration and the latencies it was measured at. */
+    public static final class Config {
+        public final int numThreads;
+        public final boolean useNNAPI;
+        public final int inputSize;
+        public final float p50Ms;
+        public final float p95Ms;
+
+        public Config(final int numThreads, final boolean useNNAPI, final int inputSize, final float p50Ms, final float p95Ms) {
+            this.numThreads = numThreads;
+            this.useNNAPI = useNNAPI;
+            this.inputSize = inputSize;
+            this.p50Ms = p50Ms;
+            this.p95Ms = p95Ms;
+        }
+
+        boolean isBetterThan(final Config other) {
+            return other == null || p95Ms < other.p95Ms || (p95Ms == other.p95Ms && p50Ms < other.p50Ms);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.US,
+                    "%d threads, %s, input %d: p50 %.1fms, p95 %.1fms",
+                    numThreads, useNNAPI ? "NNAPI" : "CPU", inputSize, p50Ms, p95Ms);
+        }
+    }
+
+    private final int maxThreads;
+    private final int warmUpIterations;
+    private final int iterations;
+
+    /**
+     * @param maxThreads       Largest thread count tried, usually the number of cores.
+     * @param warmUpIterations Untimed runs after every change of configuration.
+     * @param iterations       Timed runs per configuration.
+     */
+    public GazeAutoTuner(final int maxThreads, final int warmUpIterations, final int iterations) {
+        if (maxThreads < 1 || iterations < 1 || warmUpIterations < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid sweep: " + maxThreads + " threads, " + warmUpIterations + "+" + iterations + " runs");
+        }
+        this.maxThreads = maxThreads;
+        this.warmUpIterations = warmUpIterations;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Sweeps the pool's interpreters over every configuration and leaves the best one applied. Every
+     * interpreter is checked out and run on its own thread for each configuration, so frames should
+     * not be submitted to the pool meanwhile; they would wait until the sweep is over.
+     *
+     * @param pool      Interpreters of one model.
+     * @param inputSize The size of image input of that model.
+     */
+    public Config tune(final GazeInterpreterPool pool, final int inputSize) throws InterruptedException {
+        // 推論時間は画素の値によらないので，黒い画像を使う
+        final int[] face = new int[inputSize * inputSize];
+        final int[] right = new int[inputSize * inputSize];
+        final int[] left = new int[inputSize * inputSize];
+        final float[] grid = new float[GazeTensorPacker.GRID_CELLS];
+        final int numInterpreters = pool.size();
+        final GazeEstimator[] estimators = new GazeEstimator[numInterpreters];
+        // 全インタプリタの計測値をまとめて百分位数を求める（インタプリタiはi * iterationsから書く）
+        final long[] samples = new long[numInterpreters * iterations];
+        final ExecutorService runners = Executors.newFixedThreadPool(numInterpreters);
+
+        Config best = null;
+        try {
+            for (int n = 0; n < 2; ++n) {
+                final boolean nnapi = n == 1;
+                for (int threads = 1; threads <= maxThreads; ++threads) {
+                    pool.setNumThreads(threads);
+                    pool.setUseNNAPI(nnapi);
+                    // 全インタプリタのウォームアップが終わるまで計測を始めない．失敗したものも数える
+                    final CountDownLatch warm = new CountDownLatch(numInterpreters);
+                    final AtomicBoolean failed = new AtomicBoolean();
+                    final List<Future<Void>> runs = new ArrayList<>(numInterpreters);
+                    int acquired = 0;
+                    try {
+                        for (; acquired < numInterpreters; ++acquired) {
+                            estimators[acquired] = pool.acquireEstimator();
+                        }
+                        for (int i = 0; i < numInterpreters; ++i) {
+                            final GazeEstimator estimator = estimators[i];
+                            final int offset = i * iterations;
+                            runs.add(
+                                    runners.submit(
+                                            new Callable<Void>() {
+                                                @Override
+                                                public Void call() throws Exception {
+                                                    measure(estimator, warm, failed, face, right, left, grid, samples, offset);
+                                                    return null;
+                                                }
+                                            }));
+                        }
+                        for (final Future<Void> run : runs) {
+                            run.get();
+                        }
+                    } catch (final ExecutionException e) {
+                        // NNAPIが使えない端末ではこの組み合わせを飛ばす
+                        LOGGER.w("Skipping %d threads, NNAPI %b: %s", threads, nnapi, e.getCause());
+                        for (final Future<Void> run : runs) {
+                            waitFor(run);
+                        }
+                        continue;
+                    } finally {
+                        for (int i = 0; i < acquired; ++i) {
+                            pool.release(estimators[i]);
+                        }
+                    }
+                    final Config measured =
+                            new Config(threads, nnapi, inputSize, percentile(samples, 50), percentile(samples, 95));
+                    LOGGER.i("Gaze tuning with %d interpreters: %s", numInterpreters, measured);
+                    if (measured.isBetterThan(best)) {
+                        best = measured;
+                    }
+                }
+            }
+        } finally {
+            runners.shutdownNow();
+        }
+        if (best == null) {
+            throw new IllegalStateException("No configuration could run the gaze model");
+        }
+        pool.setNumThreads(best.numThreads);
+        pool.setUseNNAPI(best.useNNAPI);
+        return best;
+    }
+
+    /**
+     * Runs the untimed iterations on one interpreter, waits until every interpreter is warm, then
+     * times {@code iterations} runs into {@code samples} starting at {@code offset}. If any
+     * interpreter failed to warm up, returns without timing; the configuration is skipped anyway.
+     */
+    private void measure(
+            final GazeEstimator estimator,
+            final CountDownLatch warm,
+            final AtomicBoolean failed,
+            final int[] face,
+            final int[] right,
+            final int[] left,
+            final float[] grid,
+            final long[] samples,
+            final int offset)
+            throws InterruptedException {
+        final float[] gaze = new float[2];
+        try {
+            for (int i = 0; i < warmUpIterations; ++i) {
+                estimator.estimate(face, right, left, grid, gaze);
+            }
+        } catch (final RuntimeException e) {
+            failed.set(true);
+            throw e;
+        } finally {
+            // 失敗しても数えるので，他のインタプリタが待ち続けることはない
+            warm.countDown();
+        }
+        warm.await();
+        if (failed.get()) {
+            return;
+        }
+        for (int i = 0; i < iterations; ++i) {
+            final long begin = System.nanoTime();
+            estimator.estimate(face, right, left, grid, gaze);
+            samples[offset + i] = System.nanoTime() - begin;
+        }
+    }
+
+    /** Waits for a run that may have failed, so its interpreter is idle before it is released. */
+    private static void waitFor(final Future<Void> run) throws InterruptedException {
+        try {
+            run.get();
+        } catch (final ExecutionException ignored) {
+            // 失敗は既に記録している
+        }
+    }
+
+    /** Picks the best of configurations tuned for different input sizes. */
+    public static Config best(final Config... configs) {
+        Config best = null;
+        for (final Config c : configs) {
+            if (c != null && c.isBetterThan(best)) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Reads the configuration stored for a device, or returns null if it has not been tuned yet.
+     *
+     * @param key Identifies the device and model, e.g. {@code Build.MODEL + "/" + modelFile}.
+     */
+    public static Config load(final SharedPreferences prefs, final String key, final int inputSize) {
+        final String prefix = key + "/" + inputSize;
+        if (!prefs.contains(prefix + KEY_THREADS)) {
+            return null;
+        }
+        return new Config(
+                prefs.getInt(prefix + KEY_THREADS, 1),
+                prefs.getBoolean(prefix + KEY_NNAPI, false),
+                inputSize,
+                prefs.getFloat(prefix + KEY_P50, 0),
+                prefs.getFloat(prefix + KEY_P95, 0));
+    }
+
+    /** Stores a configuration under the same key {@link #load} reads. */
+    public static void save(final SharedPreferences prefs, final String key, final Config config) {
+        final String prefix = key + "/" + config.inputSize;
+        prefs.edit()
+                .putInt(prefix + KEY_THREADS, config.numThreads)
+                .putBoolean(prefix + KEY_NNAPI, config.useNNAPI)
+                .putFloat(prefix + KEY_P50, config.p50Ms)
+                .putFloat(prefix + KEY_P95, config.p95Ms)
+                .apply();
+    }
+
+    /** Nearest-rank percentile of the samples in nanoseconds, in milliseconds. Sorts the samples. */
+    private static float percentile(final long[] samples, final int percent) {
+        Arrays.sort(samples);
+        final int rank = (int) Math.ceil(percent / 100.0 * samples.length);
+        return samples[Math.max(0, rank - 1)] / 1e6f;
+    }
+}
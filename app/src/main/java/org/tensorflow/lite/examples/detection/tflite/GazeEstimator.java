@@ -0,0 +1,85 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Gaze estimation on primitive inputs.
+ *
+ * <p>Image inputs are ARGB pixels of an {@code inputSize x inputSize} crop, row-major, as returned
+ * by {@code Bitmap.getPixels}; the face grid is 25x25 occupancy values. The estimator owns its mean
+ * images, so callers pass raw pixels. Results are written into caller-owned arrays: {@code gaze[0]}
+ * and {@code gaze[1]} are the gaze point relative to the camera in centimeters.
+ *
+ * <p>An estimator is not thread-safe; use one per thread, e.g. from a {@link GazeInterpreterPool}.
+ */
+public interface GazeEstimator {
+    /** Side of the square face and eye crops the model takes. */
+    int getInputSize();
+
+    /** Estimates the gaze of one face from ARGB crops. */
+    void estimate(int[] face, int[] rightEye, int[] leftEye, float[] faceGrid, float[] gaze);
+
+    /**
+     * Estimates the gaze of one face from ARGB crops held in buffers. Each buffer is read from its
+     * position and must have {@code inputSize * inputSize} pixels remaining; positions are not moved.
+     */
+    void estimate(IntBuffer face, IntBuffer rightEye, IntBuffer leftEye, float[] faceGrid, float[] gaze);
+
+    /**
+     * Estimates the gaze of one face from regions of the camera frame. The crops are resampled
+     * straight into the input tensors; each resampler must produce {@link #getInputSize()} pixels
+     * per side.
+     */
+    void estimate(RoiResampler face, RoiResampler rightEye, RoiResampler leftEye, float[] faceGrid, float[] gaze);
+
+    /**
+     * Estimates the gaze of one face from inputs that are already normalized, HWC in model channel
+     * order. Only float models accept this; each buffer must have exactly the tensor's element count
+     * remaining.
+     */
+    void estimatePreprocessed(FloatBuffer face, FloatBuffer rightEye, FloatBuffer leftEye, FloatBuffer faceGrid, float[] gaze);
+
+    /**
+     * Estimates the gaze of {@code count} faces with a single interpreter run. Sample i's gaze is
+     * written into {@code gaze[i]}.
+     */
+    void estimateBatch(int[][] faces, int[][] rightEyes, int[][] leftEyes, float[][] faceGrids, int count, float[][] gaze);
+
+    /** Batched variant of {@link #estimate(RoiResampler, RoiResampler, RoiResampler, float[], float[])}. */
+    void estimateBatch(RoiResampler[] faces, RoiResampler[] rightEyes, RoiResampler[] leftEyes, float[][] faceGrids, int count, float[][] gaze);
+
+    /**
+     * Runs {@code iterations} inferences on synthetic inputs so that later calls do not pay for
+     * tensor allocation, and reports the cold and warm latencies.
+     */
+    WarmUpResult warmUp(int iterations);
+
+    void setNumThreads(int numThreads);
+
+    void setUseNNAPI(boolean useNNAPI);
+
+    /**
+     * Pool the crops are preprocessed on, independent of the interpreter threads; null preprocesses
+     * on the calling thread. The pool is shared and stays owned by the caller.
+     */
+    void setPreprocessPool(ForkJoinPool pool);
+
+    void close();
+}
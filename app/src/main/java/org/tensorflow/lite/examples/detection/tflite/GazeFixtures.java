@@ -0,0 +1,184 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GazeCapture-style samples replayed in place of the camera crops.
+ *
+ * <p>A sample {@code NAME} in the asset directory consists of {@code NAME_face.jpg}, {@code
+ * NAME_right.jpg} and {@code NAME_left.jpg}, plus a face grid of 625 values, one per line, in
+ * {@code NAME_grid.txt} or, if that is missing, in the directory's shared {@code grid.txt}. All
+ * samples are decoded, scaled to the model input size and parsed once by {@link #load}; {@link
+ * #next} then only hands out the cached arrays, so replaying costs no I/O per frame.
+ *
+ * <p>{@link #next} is thread-safe. The cached arrays are shared and must not be modified.
+ */
+public final class GazeFixtures {
+    private static final String FACE_SUFFIX = "_face.jpg";
+    private static final String RIGHT_SUFFIX = "_right.jpg";
+    private static final String LEFT_SUFFIX = "_left.jpg";
+    private static final String GRID_SUFFIX = "_grid.txt";
+    private static final String SHARED_GRID = "grid.txt";
+
+    /** One decoded sample. */
+    public static final class Sample {
+        public final String name;
+        /** ARGB pixels, {@code inputSize x inputSize}. */
+        public final int[] face;
+        public final int[] rightEye;
+        public final int[] leftEye;
+        /** {@link GazeTensorPacker#GRID_CELLS} occupancy values. */
+        public final float[] faceGrid;
+
+        Sample(final String name, final int[] face, final int[] rightEye, final int[] leftEye, final float[] faceGrid) {
+            this.name = name;
+            this.face = face;
+            this.rightEye = rightEye;
+            this.leftEye = leftEye;
+            this.faceGrid = faceGrid;
+        }
+    }
+
+    private final Sample[] samples;
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    private GazeFixtures(final Sample[] samples) {
+        this.samples = samples;
+    }
+
+    /**
+     * Decodes every sample of an asset directory, in name order.
+     *
+     * @param assetManager The asset manager to be used to load assets.
+     * @param directory    Asset directory of the samples; "" for the asset root.
+     * @param inputSize    The size of image input of the model.
+     */
+    public static GazeFixtures load(final AssetManager assetManager, final String directory, final int inputSize)
+            throws IOException {
+        final String prefix = directory.isEmpty() ? "" : directory + "/";
+        final String[] files = assetManager.list(directory);
+        if (files == null) {
+            throw new IOException("No such asset directory: " + directory);
+        }
+        Arrays.sort(files);
+        final List<String> names = Arrays.asList(files);
+
+        float[] sharedGrid = null;
+        final List<Sample> samples = new ArrayList<>();
+        for (final String file : files) {
+            if (!file.endsWith(FACE_SUFFIX)) {
+                continue;
+            }
+            final String name = file.substring(0, file.length() - FACE_SUFFIX.length());
+            if (!names.contains(name + RIGHT_SUFFIX) || !names.contains(name + LEFT_SUFFIX)) {
+                throw new IOException("Sample " + prefix + name + " is missing an eye crop");
+            }
+            final float[] grid;
+            if (names.contains(name + GRID_SUFFIX)) {
+                grid = readGrid(assetManager, prefix + name + GRID_SUFFIX);
+            } else if (names.contains(SHARED_GRID)) {
+                if (sharedGrid == null) {
+                    sharedGrid = readGrid(assetManager, prefix + SHARED_GRID);
+                }
+                grid = sharedGrid;
+            } else {
+                throw new IOException("Sample " + prefix + name + " has no face grid");
+            }
+            samples.add(
+                    new Sample(
+                            name,
+                            readCrop(assetManager, prefix + name + FACE_SUFFIX, inputSize),
+                            readCrop(assetManager, prefix + name + RIGHT_SUFFIX, inputSize),
+                            readCrop(assetManager, prefix + name + LEFT_SUFFIX, inputSize),
+                            grid));
+        }
+        if (samples.isEmpty()) {
+            throw new IOException("No samples in asset directory: " + directory);
+        }
+        return new GazeFixtures(samples.toArray(new Sample[0]));
+    }
+
+    public int size() {
+        return samples.length;
+    }
+
+    public Sample get(final int index) {
+        return samples[index];
+    }
+
+    /** Returns the samples one after another, starting over after the last one. */
+    public Sample next() {
+        return samples[Math.floorMod(cursor.getAndIncrement(), samples.length)];
+    }
+
+    private static int[] readCrop(final AssetManager assetManager, final String path, final int inputSize)
+            throws IOException {
+        Bitmap bitmap;
+        try (InputStream is = assetManager.open(path)) {
+            bitmap = BitmapFactory.decodeStream(is);
+        }
+        if (bitmap == null) {
+            throw new IOException("Could not decode " + path);
+        }
+        final Bitmap scaled = Bitmap.createScaledBitmap(bitmap, inputSize, inputSize, true);
+        final int[] pixels = new int[inputSize * inputSize];
+        scaled.getPixels(pixels, 0, inputSize, 0, 0, inputSize, inputSize);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+        bitmap.recycle();
+        return pixels;
+    }
+
+    /** Reads a face grid written with {@code numpy.savetxt}: one value per line, first column used. */
+    private static float[] readGrid(final AssetManager assetManager, final String path) throws IOException {
+        final float[] grid = new float[GazeTensorPacker.GRID_CELLS];
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(assetManager.open(path)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (count == grid.length) {
+                    throw new IOException(path + " has more than " + grid.length + " values");
+                }
+                final int comma = line.indexOf(',');
+                grid[count++] = Float.parseFloat(comma < 0 ? line : line.substring(0, comma));
+            }
+        } catch (final NumberFormatException e) {
+            throw new IOException("Malformed face grid " + path, e);
+        }
+        if (count != grid.length) {
+            throw new IOException(path + " has " + count + " values, expected " + grid.length);
+        }
+        return grid;
+    }
+}
@@ -0,0 +1,295 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.res.AssetManager;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of interpreters over one memory-mapped model, so several frames can be preprocessed
+ * and inferred at the same time.
+ *
+ * <p>Every pooled {@link GazeEstimator} owns its interpreter and input buffers, and shares the
+ * model buffer and normalization plan with the others. An estimator is checked out with {@link
+ * #acquireEstimator()}, used by one thread, and handed back with {@link #release(GazeEstimator)}.
+ *
+ * <p>Interpreter settings are applied to each estimator as it is checked out, never while another
+ * thread is running it. Once the pool is closed, checking out fails and every estimator is closed
+ * exactly once, whether it was idle or is released later.
+ */
+public final class GazeInterpreterPool {
+    private static final Logger LOGGER = new Logger();
+
+    private final Map<GazeEstimator, Slot> slots = new IdentityHashMap<>();
+    // Guarded by this, as is closed.
+    private final ArrayDeque<Slot> idle;
+
+    private volatile int numThreads;
+    private volatile boolean useNNAPI;
+    private volatile ForkJoinPool preprocessPool;
+    private boolean closed;
+
+    private static final class Slot {
+        final GazeEstimator estimator;
+        int appliedThreads;
+        boolean appliedNNAPI;
+        ForkJoinPool appliedPreprocessPool;
+
+        Slot(final GazeEstimator estimator, final int threads) {
+            this.estimator = estimator;
+            this.appliedThreads = threads;
+        }
+    }
+
+    /**
+     * Pools estimators that were built with {@code numThreads} threads each.
+     *
+     * @param estimators At least one estimator; the pool takes ownership and closes them.
+     */
+    GazeInterpreterPool(final List<? extends GazeEstimator> estimators, final int numThreads) {
+        if (estimators.isEmpty()) {
+            throw new IllegalArgumentException("Pool size must be at least one");
+        }
+        this.idle = new ArrayDeque<>(estimators.size());
+        this.numThreads = numThreads;
+        for (final GazeEstimator estimator : estimators) {
+            final Slot slot = new Slot(estimator, numThreads);
+            slots.put(estimator, slot);
+            idle.add(slot);
+        }
+    }
+
+    /**
+     * Maps the model once and builds {@code poolSize} interpreters over it. No label file is read.
+     *
+     * @param assetManager          The asset manager to be used to load assets.
+     * @param modelFilename         The filepath of the model in the assets.
+     * @param inputSize             The size of image input
+     * @param isQuantized           Boolean representing model is quantized or not
+     * @param faceMean              Mean face image, shape (inputSize, inputSize, 3)
+     * @param rightMean             Mean right eye image, shape (inputSize, inputSize, 3)
+     * @param leftMean              Mean left eye image, shape (inputSize, inputSize, 3)
+     * @param poolSize              Number of interpreters, at least one.
+     * @param threadsPerInterpreter Threads used by each interpreter.
+     */
+    public static GazeInterpreterPool create(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final int inputSize,
+            final boolean isQuantized,
+            final MeanImage faceMean,
+            final MeanImage rightMean,
+            final MeanImage leftMean,
+            final int poolSize,
+            final int threadsPerInterpreter)
+            throws IOException {
+        return create(
+                loadModelFile(assetManager, modelFilename),
+                inputSize,
+                isQuantized,
+                faceMean,
+                rightMean,
+                leftMean,
+                poolSize,
+                threadsPerInterpreter);
+    }
+
+    /**
+     * Same as {@link #create(AssetManager, String, int, boolean, MeanImage, MeanImage, MeanImage,
+     * int, int)} with the model already mapped, e.g. in parallel with the mean images by the caller.
+     *
+     * @param model Model mapped with {@link #loadModelFile}.
+     */
+    public static GazeInterpreterPool create(
+            final MappedByteBuffer model,
+            final int inputSize,
+            final boolean isQuantized,
+            final MeanImage faceMean,
+            final MeanImage rightMean,
+            final MeanImage leftMean,
+            final int poolSize,
+            final int threadsPerInterpreter) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least one: " + poolSize);
+        }
+        final GazeNormalization normalization = GazeNormalization.create(faceMean, rightMean, leftMean, inputSize);
+
+        final List<TFLiteGazeEstimator> estimators = new ArrayList<>(poolSize);
+        for (int i = 0; i < poolSize; ++i) {
+            final TFLiteGazeEstimator estimator =
+                    TFLiteGazeEstimator.create(model, inputSize, isQuantized, normalization);
+            estimator.setNumThreads(threadsPerInterpreter);
+            estimators.add(estimator);
+        }
+        return new GazeInterpreterPool(estimators, threadsPerInterpreter);
+    }
+
+    /** Memory-maps a model file in the assets. */
+    public static MappedByteBuffer loadModelFile(final AssetManager assetManager, final String modelFilename)
+            throws IOException {
+        return TFLiteObjectDetectionAPIModel.loadModelFile(assetManager, modelFilename);
+    }
+
+    /** Number of interpreters in the pool. */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Checks out an estimator, waiting until one is free.
+     *
+     * @throws IllegalStateException if the pool is closed, also while waiting.
+     */
+    public GazeEstimator acquireEstimator() throws InterruptedException {
+        final Slot slot;
+        synchronized (this) {
+            while (idle.isEmpty() && !closed) {
+                wait();
+            }
+            if (closed) {
+                throw new IllegalStateException("Gaze interpreter pool is closed");
+            }
+            slot = idle.poll();
+        }
+        return checkOut(slot);
+    }
+
+    /** Hands an estimator obtained from {@link #acquireEstimator()} back to the pool. */
+    public void release(final GazeEstimator estimator) {
+        final Slot slot = slots.get(estimator);
+        if (slot == null) {
+            throw new IllegalArgumentException("Not checked out from this pool: " + estimator);
+        }
+        synchronized (this) {
+            if (!closed) {
+                idle.add(slot);
+                notify();
+                return;
+            }
+        }
+        slot.estimator.close();
+    }
+
+    /**
+     * Warms up every interpreter on {@code executor}, one task per interpreter, and calls {@code
+     * listener} from the last task to finish. Interpreters are taken out of the pool for the
+     * duration, so {@link #acquireEstimator()} blocks until they are warm; callers that must not block
+     * should wait for the listener instead.
+     *
+     * @param iterations Synthetic inferences per interpreter, at least one.
+     * @param executor   Runs the warm-up, typically the inference threads; never the UI thread.
+     * @param listener   Called once with the slowest cold and the mean warm latency.
+     */
+    public void warmUp(final int iterations, final Executor executor, final WarmUpResult.Listener listener) {
+        final List<Slot> warming = new ArrayList<>(size());
+        synchronized (this) {
+            warming.addAll(idle);
+            idle.clear();
+        }
+        if (warming.isEmpty()) {
+            listener.onWarmedUp(new WarmUpResult(0, 0, 0));
+            return;
+        }
+        final WarmUpResult[] results = new WarmUpResult[warming.size()];
+        final AtomicInteger remaining = new AtomicInteger(warming.size());
+        for (int i = 0; i < warming.size(); ++i) {
+            final int index = i;
+            final Slot slot = warming.get(i);
+            executor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                results[index] = checkOut(slot).warmUp(iterations);
+                            } catch (final RuntimeException e) {
+                                LOGGER.e(e, "Gaze warm-up failed");
+                            } finally {
+                                release(slot.estimator);
+                            }
+                            if (remaining.decrementAndGet() == 0) {
+                                listener.onWarmedUp(WarmUpResult.combine(results));
+                            }
+                        }
+                    });
+        }
+    }
+
+    /** Sets the threads of every interpreter; applied as each one is next checked out. */
+    public void setNumThreads(final int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /** Turns NNAPI on or off for every interpreter; applied as each one is next checked out. */
+    public void setUseNNAPI(final boolean useNNAPI) {
+        this.useNNAPI = useNNAPI;
+    }
+
+    /**
+     * Sets the pool every classifier preprocesses its crops on; applied as each one is next checked
+     * out. All interpreters share it, so it bounds the preprocessing threads of the whole pool. The
+     * caller keeps owning it and must not shut it down while classifiers may still use it.
+     */
+    public void setPreprocessPool(final ForkJoinPool pool) {
+        this.preprocessPool = pool;
+    }
+
+    /** Closes the idle estimators now and the checked out ones as they are released. */
+    public void close() {
+        final List<Slot> closing;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closing = new ArrayList<>(idle);
+            idle.clear();
+            // Waiting callers wake up and fail.
+            notifyAll();
+        }
+        for (final Slot slot : closing) {
+            slot.estimator.close();
+        }
+    }
+
+    private GazeEstimator checkOut(final Slot slot) {
+        if (slot.appliedThreads != numThreads) {
+            slot.appliedThreads = numThreads;
+            slot.estimator.setNumThreads(numThreads);
+        }
+        if (slot.appliedNNAPI != useNNAPI) {
+            slot.appliedNNAPI = useNNAPI;
+            slot.estimator.setUseNNAPI(useNNAPI);
+        }
+        final ForkJoinPool preprocess = preprocessPool;
+        if (slot.appliedPreprocessPool != preprocess) {
+            slot.appliedPreprocessPool = preprocess;
+            slot.estimator.setPreprocessPool(preprocess);
+        }
+        return slot.estimator;
+    }
+}
@@ -0,0 +1,136 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Normalization plan for the gaze model inputs, built once per set of mean images.
+ *
+ * <p>The gaze model takes every channel as {@code value / 255 - mean / 255}. The mean images are
+ * stored HWC in RGB order, while the model consumes BGR, so the plan keeps the scaled means
+ * already reordered per pixel. Normalizing a frame is then one pass over the pixels with two array
+ * reads and one subtraction per channel.
+ */
+public final class GazeNormalization {
+    // 画像の最大値
+    private static final float IMAGE_MAX = 255.0f;
+
+    // Number of channels of every image input.
+    public static final int CHANNELS = 3;
+
+    // value / 255 for every 8-bit channel value.
+    private static final float[] SCALED_CHANNEL = new float[256];
+
+    static {
+        for (int i = 0; i < SCALED_CHANNEL.length; ++i) {
+            SCALED_CHANNEL[i] = i / IMAGE_MAX;
+        }
+    }
+
+    private final int inputSize;
+
+    // mean / 255 in model channel order (B, G, R), HWC.
+    private final float[] faceMean;
+    private final float[] rightMean;
+    private final float[] leftMean;
+
+    // The arrays this plan was built from, used to detect a change of mean images.
+    private final MeanImage faceSource;
+    private final MeanImage rightSource;
+    private final MeanImage leftSource;
+
+    private GazeNormalization(
+            final int inputSize, final MeanImage faceSource, final MeanImage rightSource, final MeanImage leftSource) {
+        this.inputSize = inputSize;
+        this.faceSource = faceSource;
+        this.rightSource = rightSource;
+        this.leftSource = leftSource;
+        this.faceMean = scaleMean(faceSource, inputSize);
+        this.rightMean = scaleMean(rightSource, inputSize);
+        this.leftMean = scaleMean(leftSource, inputSize);
+    }
+
+    /**
+     * Builds the plan for the given mean images.
+     *
+     * @param faceMean  Mean face image, shape (inputSize, inputSize, 3), RGB.
+     * @param rightMean Mean right eye image, shape (inputSize, inputSize, 3), RGB.
+     * @param leftMean  Mean left eye image, shape (inputSize, inputSize, 3), RGB.
+     * @param inputSize The size of image input
+     */
+    public static GazeNormalization create(
+            final MeanImage faceMean, final MeanImage rightMean, final MeanImage leftMean, final int inputSize) {
+        return new GazeNormalization(inputSize, faceMean, rightMean, leftMean);
+    }
+
+    /** Returns true if this plan was built from exactly these mean images. */
+    public boolean isBuiltFrom(final MeanImage face, final MeanImage right, final MeanImage left) {
+        return face == faceSource && right == rightSource && left == leftSource;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /** Scaled face mean, BGR per pixel. */
+    float[] faceMean() {
+        return faceMean;
+    }
+
+    /** Scaled right eye mean, BGR per pixel. */
+    float[] rightMean() {
+        return rightMean;
+    }
+
+    /** Scaled left eye mean, BGR per pixel. */
+    float[] leftMean() {
+        return leftMean;
+    }
+
+    /**
+     * Normalizes pixels {@code [fromPixel, toPixel)} of an ARGB crop into {@code dst}, three floats
+     * per pixel in model channel order.
+     */
+    static void normalize(
+            final int[] argb,
+            final float[] mean,
+            final int fromPixel,
+            final int toPixel,
+            final float[] dst,
+            final int dstOffset) {
+        for (int p = fromPixel, k = fromPixel * CHANNELS, d = dstOffset; p < toPixel; ++p, k += CHANNELS) {
+            final int pixelValue = argb[p];
+            dst[d++] = SCALED_CHANNEL[pixelValue & 0xFF] - mean[k];
+            dst[d++] = SCALED_CHANNEL[(pixelValue >> 8) & 0xFF] - mean[k + 1];
+            dst[d++] = SCALED_CHANNEL[(pixelValue >> 16) & 0xFF] - mean[k + 2];
+        }
+    }
+
+    /** Scales an HWC RGB mean image by 1/255 and reorders each pixel to BGR. */
+    private static float[] scaleMean(final MeanImage rgbMean, final int inputSize) {
+        final int numPixels = inputSize * inputSize;
+        if (rgbMean.size() != numPixels * CHANNELS) {
+            throw new IllegalArgumentException(
+                    "Mean image " + rgbMean + " has " + rgbMean.size() + " values, expected " + numPixels * CHANNELS);
+        }
+        final float[] bgr = new float[rgbMean.size()];
+        for (int k = 0; k < bgr.length; k += CHANNELS) {
+            bgr[k] = rgbMean.get(k + 2) / IMAGE_MAX;
+            bgr[k + 1] = rgbMean.get(k + 1) / IMAGE_MAX;
+            bgr[k + 2] = rgbMean.get(k) / IMAGE_MAX;
+        }
+        return bgr;
+    }
+}
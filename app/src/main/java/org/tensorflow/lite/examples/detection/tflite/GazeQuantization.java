@@ -0,0 +1,207 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Quantization plan for a uint8/int8 gaze model.
+ *
+ * <p>A normalized channel {@code x = value / 255 - mean / 255} is stored as {@code
+ * q = round(x / scale) + zeroPoint}. Both terms are folded into 16.16 fixed point: a 256-entry table
+ * for {@code value / (255 * scale)} shared by all pixels, and one integer offset per pixel and
+ * channel for {@code zeroPoint - mean / (255 * scale)} with the rounding bias included. Quantizing a
+ * channel is then one add, one shift and a clamp. Values that land within 2^-16 of a rounding tie
+ * may come out one step off {@code Math.round}.
+ */
+public final class GazeQuantization {
+    private static final int FRACTION_BITS = 16;
+    private static final float ONE = 1 << FRACTION_BITS;
+    private static final int HALF = 1 << (FRACTION_BITS - 1);
+
+    // 画像の最大値
+    private static final float IMAGE_MAX = 255.0f;
+
+    /** Quantization parameters of one tensor: {@code real = scale * (q - zeroPoint)}. */
+    public static final class Params {
+        public final float scale;
+        public final int zeroPoint;
+        public final boolean signed;
+
+        /**
+         * @param scale     Tensor scale, greater than zero.
+         * @param zeroPoint Tensor zero point.
+         * @param signed    True for int8, false for uint8.
+         */
+        public Params(final float scale, final int zeroPoint, final boolean signed) {
+            if (!(scale > 0)) {
+                throw new IllegalArgumentException("Quantization scale must be positive: " + scale);
+            }
+            this.scale = scale;
+            this.zeroPoint = zeroPoint;
+            this.signed = signed;
+        }
+
+        int min() {
+            return signed ? Byte.MIN_VALUE : 0;
+        }
+
+        int max() {
+            return signed ? Byte.MAX_VALUE : 255;
+        }
+
+        /** Quantizes one real value. */
+        public byte quantize(final float value) {
+            final int q = Math.round(value / scale) + zeroPoint;
+            return (byte) Math.max(min(), Math.min(max(), q));
+        }
+
+        /** Dequantizes one stored byte. */
+        public float dequantize(final byte stored) {
+            final int q = signed ? stored : stored & 0xFF;
+            return scale * (q - zeroPoint);
+        }
+    }
+
+    private final Params face;
+    private final Params right;
+    private final Params left;
+    private final Params grid;
+
+    // value / (255 * scale), 16.16 fixed point, per input.
+    private final int[] faceChannel;
+    private final int[] rightChannel;
+    private final int[] leftChannel;
+
+    // zeroPoint - mean / (255 * scale) + 0.5, 16.16 fixed point, HWC in model channel order.
+    private final int[] faceOffset;
+    private final int[] rightOffset;
+    private final int[] leftOffset;
+
+    private final GazeNormalization normalization;
+
+    private GazeQuantization(
+            final GazeNormalization normalization,
+            final Params face,
+            final Params right,
+            final Params left,
+            final Params grid) {
+        this.normalization = normalization;
+        this.face = face;
+        this.right = right;
+        this.left = left;
+        this.grid = grid;
+        this.faceChannel = channelTable(face);
+        this.rightChannel = channelTable(right);
+        this.leftChannel = channelTable(left);
+        this.faceOffset = offsets(normalization.faceMean(), face);
+        this.rightOffset = offsets(normalization.rightMean(), right);
+        this.leftOffset = offsets(normalization.leftMean(), left);
+    }
+
+    /**
+     * Builds the plan for the given mean images and input tensor parameters.
+     *
+     * @param normalization Plan holding the scaled mean images.
+     * @param face          Face input parameters.
+     * @param right         Right eye input parameters.
+     * @param left          Left eye input parameters.
+     * @param grid          Face grid input parameters.
+     */
+    public static GazeQuantization create(
+            final GazeNormalization normalization,
+            final Params face,
+            final Params right,
+            final Params left,
+            final Params grid) {
+        return new GazeQuantization(normalization, face, right, left, grid);
+    }
+
+    /** Returns a plan with the same tensor parameters for other mean images. */
+    public GazeQuantization withNormalization(final GazeNormalization other) {
+        return other == normalization ? this : new GazeQuantization(other, face, right, left, grid);
+    }
+
+    public GazeNormalization getNormalization() {
+        return normalization;
+    }
+
+    void quantizeFace(final int[] argb, final int fromPixel, final int toPixel, final byte[] dst, final int dstOffset) {
+        quantize(argb, faceChannel, faceOffset, face, fromPixel, toPixel, dst, dstOffset);
+    }
+
+    void quantizeRight(final int[] argb, final int fromPixel, final int toPixel, final byte[] dst, final int dstOffset) {
+        quantize(argb, rightChannel, rightOffset, right, fromPixel, toPixel, dst, dstOffset);
+    }
+
+    void quantizeLeft(final int[] argb, final int fromPixel, final int toPixel, final byte[] dst, final int dstOffset) {
+        quantize(argb, leftChannel, leftOffset, left, fromPixel, toPixel, dst, dstOffset);
+    }
+
+    /** Quantizes {@code count} grid cells into {@code dst}. */
+    void quantizeGrid(final float[] cells, final int count, final byte[] dst) {
+        for (int i = 0; i < count; ++i) {
+            dst[i] = grid.quantize(cells[i]);
+        }
+    }
+
+    private static void quantize(
+            final int[] argb,
+            final int[] channel,
+            final int[] offset,
+            final Params params,
+            final int fromPixel,
+            final int toPixel,
+            final byte[] dst,
+            final int dstOffset) {
+        final int min = params.min();
+        final int max = params.max();
+        for (int p = fromPixel, k = fromPixel * GazeNormalization.CHANNELS, d = dstOffset;
+                p < toPixel;
+                ++p, k += GazeNormalization.CHANNELS) {
+            final int pixelValue = argb[p];
+            dst[d++] = clamp((channel[pixelValue & 0xFF] + offset[k]) >> FRACTION_BITS, min, max);
+            dst[d++] = clamp((channel[(pixelValue >> 8) & 0xFF] + offset[k + 1]) >> FRACTION_BITS, min, max);
+            dst[d++] = clamp((channel[(pixelValue >> 16) & 0xFF] + offset[k + 2]) >> FRACTION_BITS, min, max);
+        }
+    }
+
+    private static byte clamp(final int q, final int min, final int max) {
+        return (byte) (q < min ? min : (q > max ? max : q));
+    }
+
+    private static int[] channelTable(final Params params) {
+        final int[] table = new int[256];
+        for (int i = 0; i < table.length; ++i) {
+            table[i] = toFixed(i / (IMAGE_MAX * params.scale));
+        }
+        return table;
+    }
+
+    private static int[] offsets(final float[] scaledMean, final Params params) {
+        final int[] offsets = new int[scaledMean.length];
+        for (int k = 0; k < scaledMean.length; ++k) {
+            offsets[k] = toFixed(params.zeroPoint - scaledMean[k] / params.scale) + HALF;
+        }
+        return offsets;
+    }
+
+    private static int toFixed(final float value) {
+        // The sum of a table entry and an offset must not overflow 32 bits.
+        if (Math.abs(value) >= (1 << (30 - FRACTION_BITS))) {
+            throw new IllegalArgumentException("Quantization scale too small for 8-bit input: " + value);
+        }
+        return Math.round(value * ONE);
+    }
+}
@@ -0,0 +1,67 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * A float32 array loaded by {@link MeanImageStore}, e.g. the mean face image of the gaze model.
+ *
+ * <p>The values stay in the memory-mapped file and are only read through absolute accessors, so one
+ * instance can be shared by any number of threads.
+ */
+public final class MeanImage {
+    private final String name;
+    private final int[] shape;
+    private final FloatBuffer data;
+
+    MeanImage(final String name, final int[] shape, final FloatBuffer data) {
+        this.name = name;
+        this.shape = shape;
+        this.data = data;
+    }
+
+    /** The file this array was loaded from. */
+    public String getName() {
+        return name;
+    }
+
+    /** Shape in C order, e.g. (224, 224, 3) for a mean image. */
+    public int[] getShape() {
+        return shape.clone();
+    }
+
+    /** Number of values. */
+    public int size() {
+        return data.capacity();
+    }
+
+    /** Value at a flat C-order index. */
+    public float get(final int index) {
+        return data.get(index);
+    }
+
+    /** A read-only view of the values with its own position, starting at 0. */
+    public FloatBuffer asFloatBuffer() {
+        return data.duplicate();
+    }
+
+    @Override
+    public String toString() {
+        return name + Arrays.toString(shape);
+    }
+}
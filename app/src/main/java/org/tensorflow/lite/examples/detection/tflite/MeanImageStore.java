@@ -0,0 +1,264 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads float32 {@code .npy} assets, each exactly once, as memory-mapped {@link MeanImage}s.
+ *
+ * <p>An asset stored uncompressed in the APK ({@code noCompress "npy"}) is mapped in place, the same
+ * way the model file is. A compressed one is copied to the cache directory first and the copy is
+ * mapped. The header is checked: only little- or big-endian float32 in C order is accepted, and the
+ * data must be exactly as long as the shape says.
+ *
+ * <p>{@link #get} is thread-safe. Concurrent requests for the same asset wait for a single load;
+ * different assets load in parallel. Every later request returns the same instance.
+ */
+public final class MeanImageStore {
+    private static final Logger LOGGER = new Logger();
+
+    private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+    private static final int FLOAT_BYTES = 4;
+
+    private final AssetManager assetManager;
+    private final File cacheDir;
+    private final ConcurrentHashMap<String, FutureTask<MeanImage>> images = new ConcurrentHashMap<>();
+
+    /**
+     * @param assetManager The asset manager to be used to load assets.
+     * @param cacheDir     Where compressed assets are copied to before mapping.
+     */
+    public MeanImageStore(final AssetManager assetManager, final File cacheDir) {
+        this.assetManager = assetManager;
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Returns the array stored in an asset, loading it on first use.
+     *
+     * @param assetName     File name of the asset, e.g. {@code face_mean.npy}.
+     * @param expectedShape Shape the array must have; empty to accept any shape.
+     */
+    public MeanImage get(final String assetName, final int... expectedShape) throws IOException {
+        FutureTask<MeanImage> task = images.get(assetName);
+        if (task == null) {
+            final FutureTask<MeanImage> created =
+                    new FutureTask<>(
+                            new Callable<MeanImage>() {
+                                @Override
+                                public MeanImage call() throws IOException {
+                                    return load(assetName);
+                                }
+                            });
+            task = images.putIfAbsent(assetName, created);
+            if (task == null) {
+                task = created;
+                created.run();
+            }
+        }
+
+        final MeanImage image;
+        try {
+            image = task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + assetName, e);
+        } catch (final ExecutionException e) {
+            // 失敗した読み込みは残さず，次の呼び出しで再試行する
+            images.remove(assetName, task);
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not load " + assetName, cause);
+        }
+
+        if (expectedShape.length > 0 && !Arrays.equals(image.getShape(), expectedShape)) {
+            throw new IOException(
+                    assetName + " has shape " + Arrays.toString(image.getShape())
+                            + ", expected " + Arrays.toString(expectedShape));
+        }
+        return image;
+    }
+
+    private MeanImage load(final String assetName) throws IOException {
+        final MappedByteBuffer mapped = map(assetName);
+        final MeanImage image = parse(assetName, mapped);
+        LOGGER.i("Mapped %s", image);
+        return image;
+    }
+
+    /** Maps the asset in place if it is stored uncompressed, otherwise maps a copy in the cache. */
+    private MappedByteBuffer map(final String assetName) throws IOException {
+        final AssetFileDescriptor fileDescriptor;
+        try {
+            fileDescriptor = assetManager.openFd(assetName);
+        } catch (final FileNotFoundException e) {
+            // 圧縮されているassetはopenFdできないのでキャッシュにコピーしてから使う
+            return mapCopy(assetName);
+        }
+        try (FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor())) {
+            final FileChannel fileChannel = inputStream.getChannel();
+            return fileChannel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    fileDescriptor.getStartOffset(),
+                    fileDescriptor.getDeclaredLength());
+        } finally {
+            fileDescriptor.close();
+        }
+    }
+
+    private MappedByteBuffer mapCopy(final String assetName) throws IOException {
+        final File file = new File(cacheDir, assetName);
+        // 途中で落ちても壊れたファイルが残らないよう，一時ファイルに書いてから置き換える
+        final File temp = new File(cacheDir, assetName + ".tmp");
+        try (InputStream in = assetManager.open(assetName);
+             OutputStream out = new FileOutputStream(temp)) {
+            final byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not move " + temp + " to " + file);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+    }
+
+    /** Checks the {@code .npy} header and wraps the data that follows it. */
+    static MeanImage parse(final String name, final ByteBuffer file) throws IOException {
+        final ByteBuffer buffer = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < MAGIC.length + 4) {
+            throw new IOException(name + " is too short for an .npy file");
+        }
+        for (final byte b : MAGIC) {
+            if (buffer.get() != b) {
+                throw new IOException(name + " is not an .npy file");
+            }
+        }
+        final int major = buffer.get() & 0xFF;
+        buffer.get();
+        final int headerLength;
+        if (major == 1) {
+            headerLength = buffer.getShort() & 0xFFFF;
+        } else if (major == 2 || major == 3) {
+            headerLength = buffer.getInt();
+        } else {
+            throw new IOException(name + " has unsupported .npy version " + major);
+        }
+        if (headerLength < 0 || headerLength > buffer.remaining()) {
+            throw new IOException(name + " has a truncated header");
+        }
+        final byte[] headerBytes = new byte[headerLength];
+        buffer.get(headerBytes);
+        final String header = new String(headerBytes, StandardCharsets.ISO_8859_1);
+
+        final String descr = stringField(name, header, "descr");
+        final ByteOrder order;
+        if (descr.equals("<f4")) {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (descr.equals(">f4")) {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IOException(name + " has dtype " + descr + ", expected float32");
+        }
+        if (!rawField(name, header, "fortran_order").startsWith("False")) {
+            throw new IOException(name + " is in Fortran order, expected C order");
+        }
+        final int[] shape = shapeField(name, header);
+
+        long count = 1;
+        for (final int dim : shape) {
+            count *= dim;
+        }
+        if (count * FLOAT_BYTES != buffer.remaining()) {
+            throw new IOException(
+                    name + " has " + buffer.remaining() + " data bytes, shape " + Arrays.toString(shape)
+                            + " needs " + count * FLOAT_BYTES);
+        }
+        return new MeanImage(name, shape, buffer.slice().order(order).asFloatBuffer().asReadOnlyBuffer());
+    }
+
+    /** The text after {@code 'key':} in the header dictionary. */
+    private static String rawField(final String name, final String header, final String key) throws IOException {
+        final String quoted = "'" + key + "'";
+        final int at = header.indexOf(quoted);
+        final int colon = at < 0 ? -1 : header.indexOf(':', at + quoted.length());
+        if (colon < 0) {
+            throw new IOException(name + " has no " + key + " in its header");
+        }
+        return header.substring(colon + 1).trim();
+    }
+
+    private static String stringField(final String name, final String header, final String key) throws IOException {
+        final String raw = rawField(name, header, key);
+        final int end = raw.indexOf('\'', 1);
+        if (!raw.startsWith("'") || end < 0) {
+            throw new IOException(name + " has a malformed " + key);
+        }
+        return raw.substring(1, end);
+    }
+
+    private static int[] shapeField(final String name, final String header) throws IOException {
+        final String raw = rawField(name, header, "shape");
+        final int end = raw.indexOf(')');
+        if (!raw.startsWith("(") || end < 0) {
+            throw new IOException(name + " has a malformed shape");
+        }
+        final String[] parts = raw.substring(1, end).split(",");
+        int count = 0;
+        final int[] dims = new int[parts.length];
+        for (final String part : parts) {
+            final String trimmed = part.trim();
+            // (625,) のような末尾のカンマは無視する
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            try {
+                dims[count++] = Integer.parseInt(trimmed);
+            } catch (final NumberFormatException e) {
+                throw new IOException(name + " has a malformed shape", e);
+            }
+        }
+        return Arrays.copyOf(dims, count);
+    }
+}
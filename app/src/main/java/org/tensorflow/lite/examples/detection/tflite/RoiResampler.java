@@ -0,0 +1,347 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Rect;
+
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+
+/**
+ * Crops a region of an ARGB frame, rotates it by a multiple of 90 degrees and resamples it to an
+ * {@code outSize x outSize} square, without going through {@code Bitmap}.
+ *
+ * <p>The frame may also be a {@link YuvFrame}. Only the source pixels the output reads are then
+ * converted to ARGB, so a face and two eyes cost a few hundred thousand conversions instead of the
+ * whole frame's, and the result is the same as resampling the fully converted frame.
+ *
+ * <p>{@link #setRoi} precomputes, for every output column and row, the source coordinate it reads
+ * and its 8-bit bilinear weight. {@link #resampleRows} then produces any range of output rows, so a
+ * {@link GazeTensorPacker} can resample a few rows at a time and normalize them while they are
+ * still in cache. Samples outside the frame repeat the edge pixels.
+ *
+ * <p>Not thread-safe; the frame arrays must not change until the crop has been packed.
+ */
+public final class RoiResampler {
+    /** How output pixels are computed from the source. */
+    public enum Mode {
+        /** The source pixel nearest to the sample point, like {@code createScaledBitmap(.., false)}. */
+        NEAREST,
+        /** Bilinear interpolation of the four source pixels around the sample point. */
+        BILINEAR
+    }
+
+    // Fraction bits of the bilinear weights.
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    private final int outSize;
+    private final Mode mode;
+
+    // Per output column and row: first source index, second source index and weight of the second.
+    private final int[] colIndex0;
+    private final int[] colIndex1;
+    private final int[] colWeight;
+    private final int[] rowIndex0;
+    private final int[] rowIndex1;
+    private final int[] rowWeight;
+    // Chroma offsets matching the index tables, used for YUV frames only.
+    private final int[] colChroma0;
+    private final int[] colChroma1;
+    private final int[] rowChroma0;
+    private final int[] rowChroma1;
+
+    // Either an ARGB frame or a YUV frame is set.
+    private int[] frame;
+    private int frameWidth;
+    private YuvFrame yuv;
+    // Output columns walk source rows (and output rows walk source columns) at 90 and 270 degrees.
+    private boolean transposed;
+
+    /**
+     * @param outSize Side of the square output, e.g. the model input size.
+     * @param mode    Sampling mode.
+     */
+    public RoiResampler(final int outSize, final Mode mode) {
+        if (outSize < 1) {
+            throw new IllegalArgumentException("Output size must be positive: " + outSize);
+        }
+        this.outSize = outSize;
+        this.mode = mode;
+        colIndex0 = new int[outSize];
+        colIndex1 = new int[outSize];
+        colWeight = new int[outSize];
+        rowIndex0 = new int[outSize];
+        rowIndex1 = new int[outSize];
+        rowWeight = new int[outSize];
+        colChroma0 = new int[outSize];
+        colChroma1 = new int[outSize];
+        rowChroma0 = new int[outSize];
+        rowChroma1 = new int[outSize];
+    }
+
+    public int getOutSize() {
+        return outSize;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** Same as {@link #setRoi(int[], int, int, int, int, int, int, int)} with a {@link Rect}. */
+    public void setRoi(final int[] frame, final int frameWidth, final int frameHeight, final Rect roi, final int rotation) {
+        setRoi(frame, frameWidth, frameHeight, roi.left, roi.top, roi.right, roi.bottom, rotation);
+    }
+
+    /**
+     * Selects the region to resample.
+     *
+     * @param frame       ARGB pixels of the frame, row-major.
+     * @param frameWidth  Width of the frame.
+     * @param frameHeight Height of the frame.
+     * @param left        Left edge of the region in frame pixels, inclusive.
+     * @param top         Top edge of the region, inclusive.
+     * @param right       Right edge of the region, exclusive.
+     * @param bottom      Bottom edge of the region, exclusive.
+     * @param rotation    Clockwise rotation applied to the region, a multiple of 90 degrees; may be
+     *                    negative.
+     */
+    public void setRoi(
+            final int[] frame,
+            final int frameWidth,
+            final int frameHeight,
+            final int left,
+            final int top,
+            final int right,
+            final int bottom,
+            final int rotation) {
+        if (frame.length < frameWidth * frameHeight) {
+            throw new IllegalArgumentException("Frame has " + frame.length + " pixels, expected " + frameWidth * frameHeight);
+        }
+        this.frame = frame;
+        this.frameWidth = frameWidth;
+        this.yuv = null;
+        setRegion(frameWidth, frameHeight, left, top, right, bottom, rotation);
+    }
+
+    /** Same as {@link #setRoi(YuvFrame, int, int, int, int, int)} with a {@link Rect}. */
+    public void setRoi(final YuvFrame frame, final Rect roi, final int rotation) {
+        setRoi(frame, roi.left, roi.top, roi.right, roi.bottom, rotation);
+    }
+
+    /**
+     * Selects a region of a YUV frame to resample; see {@link #setRoi(int[], int, int, int, int,
+     * int, int, int)} for the parameters.
+     */
+    public void setRoi(
+            final YuvFrame frame,
+            final int left,
+            final int top,
+            final int right,
+            final int bottom,
+            final int rotation) {
+        this.frame = null;
+        this.frameWidth = frame.getWidth();
+        this.yuv = frame;
+        setRegion(frame.getWidth(), frame.getHeight(), left, top, right, bottom, rotation);
+    }
+
+    private void setRegion(
+            final int frameWidth,
+            final int frameHeight,
+            final int left,
+            final int top,
+            final int right,
+            final int bottom,
+            final int rotation) {
+        if (right <= left || bottom <= top) {
+            throw new IllegalArgumentException("Empty region: " + left + "," + top + " - " + right + "," + bottom);
+        }
+        final int degrees = ((rotation % 360) + 360) % 360;
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees: " + rotation);
+        }
+        this.transposed = degrees == 90 || degrees == 270;
+
+        // 出力の列がたどる元画像の軸と向き
+        //   0: 列→x,  行→y
+        //  90: 列→-y, 行→x
+        // 180: 列→-x, 行→-y
+        // 270: 列→y,  行→-x
+        final boolean colReversed = degrees == 90 || degrees == 180;
+        final boolean rowReversed = degrees == 180 || degrees == 270;
+        if (transposed) {
+            axis(top, bottom, frameHeight, colReversed, colIndex0, colIndex1, colWeight);
+            axis(left, right, frameWidth, rowReversed, rowIndex0, rowIndex1, rowWeight);
+        } else {
+            axis(left, right, frameWidth, colReversed, colIndex0, colIndex1, colWeight);
+            axis(top, bottom, frameHeight, rowReversed, rowIndex0, rowIndex1, rowWeight);
+        }
+        toOffsets(colIndex0, colChroma0, transposed);
+        toOffsets(colIndex1, colChroma1, transposed);
+        toOffsets(rowIndex0, rowChroma0, !transposed);
+        toOffsets(rowIndex1, rowChroma1, !transposed);
+    }
+
+    /**
+     * Writes output rows {@code [fromRow, toRow)} as ARGB into {@code dst}, row-major, starting at
+     * {@code dstOffset}.
+     */
+    public void resampleRows(final int fromRow, final int toRow, final int[] dst, final int dstOffset) {
+        if (yuv != null) {
+            resampleYuvRows(fromRow, toRow, dst, dstOffset);
+            return;
+        }
+        if (frame == null) {
+            throw new IllegalStateException("No region set");
+        }
+        int d = dstOffset;
+        for (int r = fromRow; r < toRow; ++r) {
+            // 行と列の添字はどちらも元画像の配列上のオフセットになっている
+            final int r0 = rowIndex0[r];
+            if (mode == Mode.NEAREST) {
+                for (int c = 0; c < outSize; ++c) {
+                    dst[d++] = frame[r0 + colIndex0[c]];
+                }
+            } else {
+                final int r1 = rowIndex1[r];
+                final int wr = rowWeight[r];
+                for (int c = 0; c < outSize; ++c) {
+                    final int c0 = colIndex0[c];
+                    final int c1 = colIndex1[c];
+                    final int wc = colWeight[c];
+                    dst[d++] = blend(frame[r0 + c0], frame[r0 + c1], frame[r1 + c0], frame[r1 + c1], wc, wr);
+                }
+            }
+        }
+    }
+
+    /** {@link #resampleRows} for a YUV frame, converting each source pixel as it is read. */
+    private void resampleYuvRows(final int fromRow, final int toRow, final int[] dst, final int dstOffset) {
+        final YuvFrame src = yuv;
+        int d = dstOffset;
+        for (int r = fromRow; r < toRow; ++r) {
+            final int r0 = rowIndex0[r];
+            final int rc0 = rowChroma0[r];
+            if (mode == Mode.NEAREST) {
+                for (int c = 0; c < outSize; ++c) {
+                    dst[d++] = src.argb(r0 + colIndex0[c], rc0 + colChroma0[c]);
+                }
+            } else {
+                final int r1 = rowIndex1[r];
+                final int rc1 = rowChroma1[r];
+                final int wr = rowWeight[r];
+                for (int c = 0; c < outSize; ++c) {
+                    final int c0 = colIndex0[c];
+                    final int c1 = colIndex1[c];
+                    final int cc0 = colChroma0[c];
+                    final int cc1 = colChroma1[c];
+                    final int wc = colWeight[c];
+                    dst[d++] =
+                            blend(
+                                    src.argb(r0 + c0, rc0 + cc0),
+                                    src.argb(r0 + c1, rc0 + cc1),
+                                    src.argb(r1 + c0, rc1 + cc0),
+                                    src.argb(r1 + c1, rc1 + cc1),
+                                    wc,
+                                    wr);
+                }
+            }
+        }
+    }
+
+    /** Writes the whole {@code outSize x outSize} output into {@code dst}. */
+    public void resample(final int[] dst) {
+        resampleRows(0, outSize, dst, 0);
+    }
+
+    /**
+     * Fills the source coordinates of one output axis. The axis spans {@code [from, to)} along a
+     * source axis of {@code length} pixels.
+     */
+    private void axis(
+            final int from,
+            final int to,
+            final int length,
+            final boolean reversed,
+            final int[] index0,
+            final int[] index1,
+            final int[] weight) {
+        final float scale = (to - from) / (float) outSize;
+        for (int i = 0; i < outSize; ++i) {
+            final int step = reversed ? outSize - 1 - i : i;
+            // 画素の中心で標本化する
+            final float src = from + (step + 0.5f) * scale - 0.5f;
+            if (mode == Mode.NEAREST) {
+                final int nearest = clamp((int) Math.floor(src + 0.5f), length);
+                index0[i] = nearest;
+                index1[i] = nearest;
+                weight[i] = 0;
+            } else {
+                final int base = (int) Math.floor(src);
+                final int w = Math.round((src - base) * WEIGHT_ONE);
+                index0[i] = clamp(base, length);
+                index1[i] = clamp(base + 1, length);
+                weight[i] = w;
+            }
+        }
+    }
+
+    /**
+     * Turns the source coordinates of one axis into offsets in the frame arrays, along source rows
+     * if {@code vertical} and along source columns otherwise. In transposed mode the column tables
+     * hold row offsets and vice versa, so a pixel is always {@code frame[row table + column table]},
+     * or {@code argb(row table + column table, row chroma + column chroma)} for a YUV frame.
+     */
+    private void toOffsets(final int[] index, final int[] chroma, final boolean vertical) {
+        for (int i = 0; i < outSize; ++i) {
+            final int coordinate = index[i];
+            if (yuv == null) {
+                index[i] = vertical ? coordinate * frameWidth : coordinate;
+            } else if (vertical) {
+                index[i] = yuv.lumaRow(coordinate);
+                chroma[i] = yuv.chromaRow(coordinate);
+            } else {
+                index[i] = yuv.lumaColumn(coordinate);
+                chroma[i] = yuv.chromaColumn(coordinate);
+            }
+        }
+    }
+
+    private static int clamp(final int i, final int length) {
+        return i < 0 ? 0 : (i >= length ? length - 1 : i);
+    }
+
+    /** Bilinear blend of four ARGB pixels, with 8-bit weights of the right column and bottom row. */
+    private static int blend(final int p00, final int p01, final int p10, final int p11, final int wc, final int wr) {
+        final int w00 = (WEIGHT_ONE - wc) * (WEIGHT_ONE - wr);
+        final int w01 = wc * (WEIGHT_ONE - wr);
+        final int w10 = (WEIGHT_ONE - wc) * wr;
+        final int w11 = wc * wr;
+        final int half = 1 << (2 * WEIGHT_BITS - 1);
+        int argb = 0xFF000000;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            final int v =
+                    (((p00 >> shift) & 0xFF) * w00
+                                    + ((p01 >> shift) & 0xFF) * w01
+                                    + ((p10 >> shift) & 0xFF) * w10
+                                    + ((p11 >> shift) & 0xFF) * w11
+                                    + half)
+                            >> (2 * WEIGHT_BITS);
+            argb |= v << shift;
+        }
+        return argb;
+    }
+}
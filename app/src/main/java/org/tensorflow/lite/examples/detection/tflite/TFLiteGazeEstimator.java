@@ -0,0 +1,512 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.res.AssetManager;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * {@link GazeEstimator} over a TFLite gaze model with inputs right eye, left eye, face and face
+ * grid, and one [N][2] output. Owns the interpreter, its input buffers and the mean images.
+ */
+public class TFLiteGazeEstimator implements GazeEstimator {
+    // Input tensor order of the gaze model.
+    private static final int GAZE_INPUT_RIGHT = 0;
+    private static final int GAZE_INPUT_LEFT = 1;
+    private static final int GAZE_INPUT_FACE = 2;
+    private static final int GAZE_INPUT_GRID = 3;
+
+    // Number of threads in the java app
+    // Javaのスレッドの数
+    private static final int NUM_THREADS = 4;
+
+    // 量子化モードかどうか決定
+    private final boolean isModelQuantized;
+
+    // 画像のサイズ
+    private final int inputSize;
+
+    // 推論を行う関数
+    private Interpreter tfLite;
+
+    //バイトバッファー
+    private final ByteBuffer imgData_face;
+    private final ByteBuffer imgData_right;
+    private final ByteBuffer imgData_left;
+    private final ByteBuffer imgData_grid;
+
+    // IntBufferで渡された画素を配列に移すための領域
+    private final int[] intValues_face;
+    private final int[] intValues_right;
+    private final int[] intValues_left;
+
+    // 前処理済みの入力を書き込むためのビュー（floatモデルのみ）
+    private FloatBuffer floatFace;
+    private FloatBuffer floatRight;
+    private FloatBuffer floatLeft;
+    private FloatBuffer floatGrid;
+
+    // 平均画像による正規化の計画
+    private GazeNormalization normalization;
+
+    // 視線推定の入力を詰めるクラス
+    private GazeTensorPacker packer;
+
+    // 前処理に使う共有のスレッドプール（nullなら呼び出し元のスレッドで行う．TFLiteのスレッドとは別）
+    private ForkJoinPool preprocessPool;
+
+    // Input and output containers reused by every call.
+    private final Object[] gazeInputs;
+    private final Map<Integer, Object> gazeOutputs;
+    // 視線推定の出力 [1][2]
+    private final float[][] gazeValues;
+
+    // 量子化モデルの出力とその量子化パラメータ
+    private byte[][] quantizedGaze;
+    private GazeQuantization.Params gazeOutputParams;
+    private GazeQuantization gazeQuantization;
+
+    // バッチ推論用のバッファ（必要に応じて大きくする）
+    private int batchCapacity;
+    private ByteBuffer batchFace;
+    private ByteBuffer batchRight;
+    private ByteBuffer batchLeft;
+    private ByteBuffer batchGrid;
+    private GazeTensorPacker batchPacker;
+    // バッチサイズNごとの入出力，添字がN
+    private Object[][] batchInputs;
+    private List<Map<Integer, Object>> batchOutputs;
+
+    // インタプリタに設定している視線推定のバッチサイズと，バッチ1のときの入力の形
+    private int gazeBatch = 1;
+    private int[][] gazeInputShapes;
+
+    /**
+     * Wraps an interpreter of the gaze model. The estimator takes ownership of the interpreter and
+     * closes it in {@link #close()}.
+     *
+     * @param tfLite        Interpreter of the gaze model.
+     * @param inputSize     The size of image input
+     * @param isQuantized   Boolean representing model is quantized or not
+     * @param normalization Normalization plan for the mean images, or null until {@link
+     *                      #setNormalization} is called.
+     */
+    TFLiteGazeEstimator(
+            final Interpreter tfLite,
+            final int inputSize,
+            final boolean isQuantized,
+            final GazeNormalization normalization) {
+        this.tfLite = tfLite;
+        this.inputSize = inputSize;
+        this.isModelQuantized = isQuantized;
+        this.normalization = normalization;
+
+        final int numBytesPerChannel = isQuantized ? 1 : 4;
+        final int imageBytes = inputSize * inputSize * GazeNormalization.CHANNELS * numBytesPerChannel;
+        imgData_face = ByteBuffer.allocateDirect(imageBytes).order(ByteOrder.nativeOrder());
+        imgData_right = ByteBuffer.allocateDirect(imageBytes).order(ByteOrder.nativeOrder());
+        imgData_left = ByteBuffer.allocateDirect(imageBytes).order(ByteOrder.nativeOrder());
+        imgData_grid =
+                ByteBuffer.allocateDirect(GazeTensorPacker.GRID_CELLS * numBytesPerChannel).order(ByteOrder.nativeOrder());
+        intValues_face = new int[inputSize * inputSize];
+        intValues_right = new int[inputSize * inputSize];
+        intValues_left = new int[inputSize * inputSize];
+
+        gazeValues = new float[1][2];
+        gazeInputs = new Object[] {imgData_right, imgData_left, imgData_face, imgData_grid};
+        gazeOutputs = new HashMap<>();
+        gazeOutputs.put(0, gazeValues);
+        if (isQuantized) {
+            // 量子化モデルは1byteで出力される
+            quantizedGaze = new byte[1][2];
+            gazeOutputs.put(0, quantizedGaze);
+        }
+    }
+
+    /**
+     * Builds an estimator with its own interpreter over an already mapped model.
+     *
+     * @param model         The memory-mapped gaze model.
+     * @param inputSize     The size of image input
+     * @param isQuantized   Boolean representing model is quantized or not
+     * @param normalization Normalization plan for the mean images.
+     */
+    static TFLiteGazeEstimator create(
+            final MappedByteBuffer model,
+            final int inputSize,
+            final boolean isQuantized,
+            final GazeNormalization normalization) {
+        final Interpreter tfLite;
+        try {
+            tfLite = new Interpreter(model);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        tfLite.setNumThreads(NUM_THREADS);
+        return new TFLiteGazeEstimator(tfLite, inputSize, isQuantized, normalization);
+    }
+
+    /**
+     * Loads the gaze model from the assets. No label file is read.
+     *
+     * @param assetManager  The asset manager to be used to load assets.
+     * @param modelFilename The filepath of the model in the assets.
+     * @param inputSize     The size of image input
+     * @param isQuantized   Boolean representing model is quantized or not
+     * @param faceMean      Mean face image, shape (inputSize, inputSize, 3)
+     * @param rightMean     Mean right eye image, shape (inputSize, inputSize, 3)
+     * @param leftMean      Mean left eye image, shape (inputSize, inputSize, 3)
+     */
+    public static TFLiteGazeEstimator create(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final int inputSize,
+            final boolean isQuantized,
+            final MeanImage faceMean,
+            final MeanImage rightMean,
+            final MeanImage leftMean)
+            throws IOException {
+        return create(
+                TFLiteObjectDetectionAPIModel.loadModelFile(assetManager, modelFilename),
+                inputSize,
+                isQuantized,
+                GazeNormalization.create(faceMean, rightMean, leftMean, inputSize));
+    }
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    GazeNormalization getNormalization() {
+        return normalization;
+    }
+
+    /** Switches to another set of mean images of the same size. */
+    void setNormalization(final GazeNormalization normalization) {
+        this.normalization = normalization;
+    }
+
+    @Override
+    public void estimate(int[] face, int[] rightEye, int[] leftEye, float[] faceGrid, float[] gaze) {
+        checkPixels(face, "face");
+        checkPixels(rightEye, "right eye");
+        checkPixels(leftEye, "left eye");
+
+        // 4つの入力をまとめて詰める
+        getPacker().pack(face, rightEye, leftEye, faceGrid);
+        run(gaze);
+    }
+
+    @Override
+    public void estimate(IntBuffer face, IntBuffer rightEye, IntBuffer leftEye, float[] faceGrid, float[] gaze) {
+        estimate(pixelsOf(face, intValues_face), pixelsOf(rightEye, intValues_right), pixelsOf(leftEye, intValues_left), faceGrid, gaze);
+    }
+
+    @Override
+    public void estimate(RoiResampler face, RoiResampler rightEye, RoiResampler leftEye, float[] faceGrid, float[] gaze) {
+        // 切り出しと縮小を入力テンソルへの書き込みと同時に行う
+        getPacker().pack(face, rightEye, leftEye, faceGrid);
+        run(gaze);
+    }
+
+    @Override
+    public void estimatePreprocessed(FloatBuffer face, FloatBuffer rightEye, FloatBuffer leftEye, FloatBuffer faceGrid, float[] gaze) {
+        if (isModelQuantized) {
+            throw new IllegalStateException("Preprocessed float inputs need a float model");
+        }
+        if (floatFace == null) {
+            floatFace = imgData_face.asFloatBuffer();
+            floatRight = imgData_right.asFloatBuffer();
+            floatLeft = imgData_left.asFloatBuffer();
+            floatGrid = imgData_grid.asFloatBuffer();
+        }
+        copyExactly(face, floatFace, "face");
+        copyExactly(rightEye, floatRight, "right eye");
+        copyExactly(leftEye, floatLeft, "left eye");
+        copyExactly(faceGrid, floatGrid, "face grid");
+        run(gaze);
+    }
+
+    @Override
+    public void estimateBatch(int[][] faces, int[][] rightEyes, int[][] leftEyes, float[][] faceGrids, int count, float[][] gaze) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Batch must hold at least one sample: " + count);
+        }
+        final GazeTensorPacker batch = getBatchPacker(count);
+
+        // サンプルごとにバッファの連続した位置に詰める
+        for (int i = 0; i < count; ++i) {
+            checkPixels(faces[i], "face");
+            checkPixels(rightEyes[i], "right eye");
+            checkPixels(leftEyes[i], "left eye");
+            batch.packSample(i, faces[i], rightEyes[i], leftEyes[i], faceGrids[i]);
+        }
+
+        runBatch(count, gaze);
+    }
+
+    @Override
+    public void estimateBatch(RoiResampler[] faces, RoiResampler[] rightEyes, RoiResampler[] leftEyes, float[][] faceGrids, int count, float[][] gaze) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Batch must hold at least one sample: " + count);
+        }
+        final GazeTensorPacker batch = getBatchPacker(count);
+        for (int i = 0; i < count; ++i) {
+            batch.packSample(i, faces[i], rightEyes[i], leftEyes[i], faceGrids[i]);
+        }
+        runBatch(count, gaze);
+    }
+
+    /** Runs a packed batch of {@code count} samples and writes their gaze points. */
+    private void runBatch(int count, float[][] gaze) {
+        // 入力をバッチサイズNに変更し，一度だけ推論する
+        resizeGazeInputs(count);
+        tfLite.runForMultipleInputsOutputs(batchInputs[count], batchOutputs.get(count));
+
+        final Object holder = batchOutputs.get(count).get(0);
+        for (int i = 0; i < count; ++i) {
+            if (isModelQuantized) {
+                final byte[][] values = (byte[][]) holder;
+                gaze[i][0] = gazeOutputParams.dequantize(values[i][0]);
+                gaze[i][1] = gazeOutputParams.dequantize(values[i][1]);
+            } else {
+                final float[][] values = (float[][]) holder;
+                gaze[i][0] = values[i][0];
+                gaze[i][1] = values[i][1];
+            }
+        }
+    }
+
+    @Override
+    public WarmUpResult warmUp(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Warm-up needs at least one iteration: " + iterations);
+        }
+        // 入力バッファの中身をそのままダミーの入力として使う（作成直後はゼロ）．
+        // 推論時間は入力の値によらない
+        resizeGazeInputs(1);
+
+        long cold = 0;
+        long warm = 0;
+        for (int i = 0; i < iterations; ++i) {
+            final long start = System.nanoTime();
+            tfLite.runForMultipleInputsOutputs(gazeInputs, gazeOutputs);
+            final long elapsed = System.nanoTime() - start;
+            if (i == 0) {
+                cold = elapsed;
+            } else {
+                warm += elapsed;
+            }
+        }
+        final float coldMs = cold / 1e6f;
+        return new WarmUpResult(iterations, coldMs, iterations == 1 ? coldMs : warm / 1e6f / (iterations - 1));
+    }
+
+    /** Runs the single-sample inputs and writes the gaze point. */
+    private void run(float[] gaze) {
+        // 入出力のコンテナは作成時に用意したものを使い回す
+        resizeGazeInputs(1);
+        tfLite.runForMultipleInputsOutputs(gazeInputs, gazeOutputs);
+
+        if (isModelQuantized) {
+            // 量子化モデルは1byteで出力されるので元に戻す
+            gaze[0] = gazeOutputParams.dequantize(quantizedGaze[0][0]);
+            gaze[1] = gazeOutputParams.dequantize(quantizedGaze[0][1]);
+        } else {
+            gaze[0] = gazeValues[0][0];
+            gaze[1] = gazeValues[0][1];
+        }
+    }
+
+    private void checkPixels(int[] argb, String name) {
+        if (argb.length < inputSize * inputSize) {
+            throw new IllegalArgumentException(
+                    "The " + name + " crop has " + argb.length + " pixels, expected " + inputSize * inputSize);
+        }
+    }
+
+    /** The buffer's backing array if it starts at the buffer's position, otherwise a copy into scratch. */
+    private int[] pixelsOf(IntBuffer buffer, int[] scratch) {
+        if (buffer.remaining() < scratch.length) {
+            throw new IllegalArgumentException(
+                    "Crop has " + buffer.remaining() + " pixels, expected " + scratch.length);
+        }
+        if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0) {
+            return buffer.array();
+        }
+        buffer.duplicate().get(scratch);
+        return scratch;
+    }
+
+    private static void copyExactly(FloatBuffer src, FloatBuffer dst, String name) {
+        if (src.remaining() != dst.capacity()) {
+            throw new IllegalArgumentException(
+                    "The " + name + " input has " + src.remaining() + " values, expected " + dst.capacity());
+        }
+        dst.clear();
+        dst.put(src.duplicate());
+    }
+
+    /** Returns the packer for the gaze inputs, bound to the current normalization plan. */
+    private GazeTensorPacker getPacker() {
+        if (packer == null) {
+            packer = newPacker(imgData_face, imgData_right, imgData_left, imgData_grid);
+        } else if (packer.getNormalization() != normalization) {
+            packer.setNormalization(normalization);
+        }
+        return packer;
+    }
+
+    /**
+     * Returns the packer over the batch buffers, growing them to hold {@code count} samples. The
+     * interpreter inputs for a batch of N are slices of those buffers, built once per N.
+     */
+    private GazeTensorPacker getBatchPacker(int count) {
+        if (count > batchCapacity) {
+            final int numBytesPerChannel = isModelQuantized ? 1 : 4;
+            final int imageBytes = inputSize * inputSize * 3 * numBytesPerChannel;
+            final int gridBytes = GazeTensorPacker.GRID_CELLS * numBytesPerChannel;
+            batchFace = ByteBuffer.allocateDirect(count * imageBytes).order(ByteOrder.nativeOrder());
+            batchRight = ByteBuffer.allocateDirect(count * imageBytes).order(ByteOrder.nativeOrder());
+            batchLeft = ByteBuffer.allocateDirect(count * imageBytes).order(ByteOrder.nativeOrder());
+            batchGrid = ByteBuffer.allocateDirect(count * gridBytes).order(ByteOrder.nativeOrder());
+            batchPacker = newPacker(batchFace, batchRight, batchLeft, batchGrid);
+            batchCapacity = count;
+
+            batchInputs = new Object[count + 1][];
+            batchOutputs = new ArrayList<>(count + 1);
+            batchOutputs.add(null);
+            for (int n = 1; n <= count; ++n) {
+                batchInputs[n] =
+                        new Object[] {
+                                slice(batchRight, n * imageBytes),
+                                slice(batchLeft, n * imageBytes),
+                                slice(batchFace, n * imageBytes),
+                                slice(batchGrid, n * gridBytes)
+                        };
+                final Map<Integer, Object> outputs = new HashMap<>();
+                outputs.put(0, isModelQuantized ? new byte[n][2] : new float[n][2]);
+                batchOutputs.add(outputs);
+            }
+        } else if (batchPacker.getNormalization() != normalization) {
+            batchPacker.setNormalization(normalization);
+        }
+        return batchPacker;
+    }
+
+    /** The first {@code bytes} of a buffer, as a native-order buffer of exactly that capacity. */
+    private static ByteBuffer slice(ByteBuffer buffer, int bytes) {
+        final ByteBuffer head = buffer.duplicate();
+        head.position(0);
+        head.limit(bytes);
+        return head.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /** Creates a float or quantized packer over the given input buffers. */
+    private GazeTensorPacker newPacker(ByteBuffer face, ByteBuffer right, ByteBuffer left, ByteBuffer grid) {
+        if (normalization == null) {
+            throw new IllegalStateException("No mean images set for the gaze model");
+        }
+        final GazeTensorPacker created;
+        if (isModelQuantized) {
+            if (gazeQuantization == null) {
+                gazeQuantization =
+                        GazeQuantization.create(
+                                normalization,
+                                quantizationOf(tfLite.getInputTensor(GAZE_INPUT_FACE)),
+                                quantizationOf(tfLite.getInputTensor(GAZE_INPUT_RIGHT)),
+                                quantizationOf(tfLite.getInputTensor(GAZE_INPUT_LEFT)),
+                                quantizationOf(tfLite.getInputTensor(GAZE_INPUT_GRID)));
+                gazeOutputParams = quantizationOf(tfLite.getOutputTensor(0));
+            }
+            gazeQuantization = gazeQuantization.withNormalization(normalization);
+            created = new GazeTensorPacker(gazeQuantization, face, right, left, grid);
+        } else {
+            created = new GazeTensorPacker(normalization, face, right, left, grid);
+        }
+        created.setPool(preprocessPool);
+        return created;
+    }
+
+    /** Sets the batch dimension of the four gaze inputs, keeping the rest of their shapes. */
+    private void resizeGazeInputs(int batch) {
+        if (batch == gazeBatch) {
+            return;
+        }
+        if (gazeInputShapes == null) {
+            // 最初はバッチサイズ1の形を覚えておく
+            gazeInputShapes = new int[4][];
+            for (int i = 0; i < gazeInputShapes.length; ++i) {
+                gazeInputShapes[i] = tfLite.getInputTensor(i).shape();
+            }
+        }
+        for (int i = 0; i < gazeInputShapes.length; ++i) {
+            final int[] shape = gazeInputShapes[i].clone();
+            shape[0] = batch;
+            tfLite.resizeInput(i, shape);
+        }
+        gazeBatch = batch;
+    }
+
+    /** Reads the scale and zero point of a uint8/int8 tensor. */
+    private static GazeQuantization.Params quantizationOf(final Tensor tensor) {
+        final DataType type = tensor.dataType();
+        if (type != DataType.UINT8 && type != DataType.INT8) {
+            throw new IllegalArgumentException("Expected a quantized tensor but found " + type);
+        }
+        final Tensor.QuantizationParams params = tensor.quantizationParams();
+        return new GazeQuantization.Params(params.getScale(), params.getZeroPoint(), type == DataType.INT8);
+    }
+
+    @Override
+    public void setNumThreads(int numThreads) {
+        if (tfLite != null) tfLite.setNumThreads(numThreads);
+    }
+
+    @Override
+    public void setUseNNAPI(boolean useNNAPI) {
+        if (tfLite != null) tfLite.setUseNNAPI(useNNAPI);
+    }
+
+    @Override
+    public void setPreprocessPool(ForkJoinPool pool) {
+        preprocessPool = pool;
+        if (packer != null) packer.setPool(pool);
+        if (batchPacker != null) batchPacker.setPool(pool);
+    }
+
+    @Override
+    public void close() {
+        if (tfLite != null) tfLite.close();
+        tfLite = null;
+    }
+}
@@ -21,7 +21,6 @@ import android.graphics.Bitmap;
 import android.graphics.RectF;
 import android.os.Trace;
 
-import org.jetbrains.bio.npy.NpyArray;
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.examples.detection.env.Logger;
 
@@ -39,6 +38,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Wrapper for frozen detection models trained using the Tensorflow Object Detection API:
@@ -72,7 +72,7 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     private int inputSize;
 
     // Pre-allocated buffers.
-    private Vector<String> labels = new Vector<String>();
+    private Vector<String> labels;
     private int[] intValues;
     // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
     // contains the location of detected boxes
@@ -94,13 +94,18 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     private int[] intValues_face;
     private int[] intValues_right;
     private int[] intValues_left;
-    private int[] intValues_grid;
 
-    //バイトバッファー
-    private ByteBuffer imgData_face;
-    private ByteBuffer imgData_right;
-    private ByteBuffer imgData_left;
-    private ByteBuffer imgData_grid;
+    // バッチ推論用の画素（必要に応じて大きくする）
+    private int[][] batchValues_face = new int[0][];
+    private int[][] batchValues_right = new int[0][];
+    private int[][] batchValues_left = new int[0][];
+
+    // Input and output containers reused by every call.
+    private Object[] detectionInputs;
+    private Map<Integer, Object> detectionOutputs;
+
+    // 視線推定（インタプリタを共有する）
+    private TFLiteGazeEstimator gazeEstimator;
 
     // 推論を行う関数
     private Interpreter tfLite;
@@ -111,7 +116,7 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     /**
      * Memory-map the model file in Assets.
      */
-    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
+    static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
             throws IOException {
         AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
         FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
@@ -137,7 +142,18 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
             final int inputSize,
             final boolean isQuantized)
             throws IOException {
-        final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
+        return create(
+                loadModelFile(assetManager, modelFilename),
+                loadLabels(assetManager, labelFilename),
+                inputSize,
+                isQuantized,
+                null);
+    }
+
+    /** Reads the label file, one label per line. */
+    static Vector<String> loadLabels(final AssetManager assetManager, final String labelFilename)
+            throws IOException {
+        final Vector<String> labels = new Vector<String>();
 
         //ラベルのバイトを読み込む
         InputStream labelsInput = null;
@@ -148,15 +164,36 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         String line;
         while ((line = br.readLine()) != null) {
             LOGGER.w(line);
-            d.labels.add(line);
+            labels.add(line);
         }
         br.close();
+        return labels;
+    }
+
+    /**
+     * Builds an interpreter and its own input buffers over an already mapped model. Several
+     * instances may share the same model buffer, labels and normalization plan.
+     *
+     * @param model         The memory-mapped model.
+     * @param labels        Labels for classes, not modified.
+     * @param inputSize     The size of image input
+     * @param isQuantized   Boolean representing model is quantized or not
+     * @param normalization Normalization plan for the gaze inputs, or null to build it on first use.
+     */
+    static TFLiteObjectDetectionAPIModel create(
+            final MappedByteBuffer model,
+            final Vector<String> labels,
+            final int inputSize,
+            final boolean isQuantized,
+            final GazeNormalization normalization) {
+        final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
+        d.labels = labels;
 
         //画像のサイズを入力
         d.inputSize = inputSize;
 
         try {
-            d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename));
+            d.tfLite = new Interpreter(model);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -178,41 +215,84 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         // 画像の数
         d.intValues = new int[d.inputSize * d.inputSize];
 
-        // imgDataに新しいダイレクトbyteバッファーを割り当てる
-        d.imgData_face = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
-        // 効率を良くするためにbyte順序を変更
-        d.imgData_face.order(ByteOrder.nativeOrder());
         // 画像の数
         d.intValues_face = new int[d.inputSize * d.inputSize];
-
-        // imgDataに新しいダイレクトbyteバッファーを割り当てる
-        d.imgData_right = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
-        // 効率を良くするためにbyte順序を変更
-        d.imgData_right.order(ByteOrder.nativeOrder());
-        // 画像の数
         d.intValues_right = new int[d.inputSize * d.inputSize];
-
-        // imgDataに新しいダイレクトbyteバッファーを割り当てる
-        d.imgData_left = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
-        // 効率を良くするためにbyte順序を変更
-        d.imgData_left.order(ByteOrder.nativeOrder());
-        // 画像の数
         d.intValues_left = new int[d.inputSize * d.inputSize];
 
-        // imgDataに新しいダイレクトbyteバッファーを割り当てる
-        d.imgData_grid = ByteBuffer.allocateDirect(1 * 25 * 25 * 1 * numBytesPerChannel);
-        // 効率を良くするためにbyte順序を変更
-        d.imgData_grid.order(ByteOrder.nativeOrder());
-        // 画像の数
-        d.intValues_grid = new int[25 * 25];
-
         // スレッドの数を指定
         d.tfLite.setNumThreads(NUM_THREADS);
+        d.gazeEstimator = new TFLiteGazeEstimator(d.tfLite, inputSize, isQuantized, normalization);
         // 少し不明
         d.outputLocations = new float[1][NUM_DETECTIONS][4];
         d.outputClasses = new float[1][NUM_DETECTIONS];
         d.outputScores = new float[1][NUM_DETECTIONS];
         d.numDetections = new float[1];
+
+        // 入出力のコンテナを用意し，推論ごとに使い回す
+        d.detectionInputs = new Object[] {d.imgData};
+        d.detectionOutputs = new HashMap<>();
+        d.detectionOutputs.put(0, d.outputLocations);
+        d.detectionOutputs.put(1, d.outputClasses);
+        d.detectionOutputs.put(2, d.outputScores);
+        d.detectionOutputs.put(3, d.numDetections);
+        return d;
+    }
+
+    /**
+     * Initializes a native TensorFlow session for gaze estimation, with the normalization plan for
+     * the given mean images built up front so that no frame pays for it.
+     *
+     * @param assetManager  The asset manager to be used to load assets.
+     * @param modelFilename The filepath of the model GraphDef protocol buffer.
+     * @param labelFilename The filepath of label file for classes.
+     * @param inputSize     The size of image input
+     * @param isQuantized   Boolean representing model is quantized or not
+     * @param faceMean      Mean face image, shape (inputSize, inputSize, 3)
+     * @param rightMean     Mean right eye image, shape (inputSize, inputSize, 3)
+     * @param leftMean      Mean left eye image, shape (inputSize, inputSize, 3)
+     */
+    public static Classifier create(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final String labelFilename,
+            final int inputSize,
+            final boolean isQuantized,
+            final MeanImage faceMean,
+            final MeanImage rightMean,
+            final MeanImage leftMean)
+            throws IOException {
+        return create(
+                loadModelFile(assetManager, modelFilename),
+                loadLabels(assetManager, labelFilename),
+                inputSize,
+                isQuantized,
+                GazeNormalization.create(faceMean, rightMean, leftMean, inputSize));
+    }
+
+    /**
+     * Same as {@link #create(AssetManager, String, String, int, boolean, MeanImage, MeanImage,
+     * MeanImage)}, followed by {@code warmUpIterations} synthetic inferences so that the first frame
+     * does not pay for tensor allocation. Call it off the UI thread.
+     *
+     * @param warmUpIterations Number of synthetic inferences, zero to skip the warm-up.
+     */
+    public static Classifier create(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final String labelFilename,
+            final int inputSize,
+            final boolean isQuantized,
+            final MeanImage faceMean,
+            final MeanImage rightMean,
+            final MeanImage leftMean,
+            final int warmUpIterations)
+            throws IOException {
+        final Classifier d =
+                create(assetManager, modelFilename, labelFilename, inputSize, isQuantized, faceMean, rightMean, leftMean);
+        if (warmUpIterations > 0) {
+            LOGGER.i("Gaze warm-up: %s", d.warmUp(warmUpIterations));
+        }
         return d;
     }
 
@@ -256,26 +336,12 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         // Copy the input data into TensorFlow.
         Trace.beginSection("feed");
 
-        // 1 * 10 * 4
-        outputLocations = new float[1][NUM_DETECTIONS][4];
-        outputClasses = new float[1][NUM_DETECTIONS];
-        outputScores = new float[1][NUM_DETECTIONS];
-        numDetections = new float[1];
-
-        // inputArrayにimgDataのBufferを代入（object型）
-        Object[] inputArray = {imgData};
-        // Map型　キーint型 数値Object型
-        Map<Integer, Object> outputMap = new HashMap<>();
-        // 各キーにそれぞれfloat型を代入
-        outputMap.put(0, outputLocations);
-        outputMap.put(1, outputClasses);
-        outputMap.put(2, outputScores);
-        outputMap.put(3, numDetections);
+        // 出力の配列と入出力のコンテナは作成時に用意したものを使い回す
         Trace.endSection();
 
         // Run the inference call.
         Trace.beginSection("run");
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+        tfLite.runForMultipleInputsOutputs(detectionInputs, detectionOutputs);
         Trace.endSection();
 
         // Show the best detections.
@@ -307,12 +373,18 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     }
 
     @Override
-    public float[][] recognizeImageEye(Bitmap face, Bitmap right_eye, Bitmap left_eye, float[] face_grid, NpyArray face_mean, NpyArray rigth_mean, NpyArray left_mean) {
-
-        //Bitmap2Mat(face);
+    public float[][] recognizeImageEye(Bitmap face, Bitmap right_eye, Bitmap left_eye, float[] face_grid, MeanImage face_mean, MeanImage rigth_mean, MeanImage left_mean) {
 
         // 推定値
         float[][] recognizedValues = new float[1][2];
+        recognizeImageEye(face, right_eye, left_eye, face_grid, face_mean, rigth_mean, left_mean, recognizedValues[0]);
+        return recognizedValues;
+    }
+
+    @Override
+    public void recognizeImageEye(Bitmap face, Bitmap right_eye, Bitmap left_eye, float[] face_grid, MeanImage face_mean, MeanImage rigth_mean, MeanImage left_mean, float[] gaze) {
+
+        //Bitmap2Mat(face);
 
         // 画像を配列に変換する
         face.getPixels(intValues_face, 0, face.getWidth(), 0, 0, face.getWidth(), face.getHeight());
@@ -320,61 +392,8 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         left_eye.getPixels(intValues_left, 0, left_eye.getWidth(), 0, 0, left_eye.getWidth(), left_eye.getHeight());
 //        face_grid.getPixels(intValues_grid, 0, face_grid.getWidth(), 0, 0, face_grid.getWidth(), face_grid.getHeight());
 
-        // マーク位置を0に戻す
-        imgData_face.rewind();
-        imgData_right.rewind();
-        imgData_left.rewind();
-        imgData_grid.rewind();
-
-        for (int i = 0; i < inputSize; ++i) {
-            for (int j = 0; j < inputSize; ++j) {
-                // 一つずつピクセルを取り出す
-                int pixelValue = intValues_face[i * inputSize + j];
-
-                float b = ((pixelValue & 0xFF) / IMAGE_MAX);
-                float g = (((pixelValue >> 8) & 0xFF) / IMAGE_MAX);
-                float r = (((pixelValue >> 16) & 0xFF) / IMAGE_MAX);
-
-                float mean_r = (face_mean.asFloatArray()[i * inputSize + j + 0] / IMAGE_MAX);
-                float mean_g = (face_mean.asFloatArray()[i * inputSize + j + 1] / IMAGE_MAX);
-                float mean_b = (face_mean.asFloatArray()[i * inputSize + j + 2] / IMAGE_MAX);
-
-                // 画像をfloat型に変換
-                imgData_face.putFloat(((pixelValue & 0xFF) / IMAGE_MAX) - (face_mean.asFloatArray()[i * inputSize + j + 2] / IMAGE_MAX));
-                imgData_face.putFloat((((pixelValue >> 8) & 0xFF) / IMAGE_MAX) - (face_mean.asFloatArray()[i * inputSize + j + 1] / IMAGE_MAX));
-                imgData_face.putFloat((((pixelValue >> 16) & 0xFF) / IMAGE_MAX) - (face_mean.asFloatArray()[i * inputSize + j + 0] / IMAGE_MAX));
-
-            }
-        }
-
-        for (int i = 0; i < inputSize; ++i) {
-            for (int j = 0; j < inputSize; ++j) {
-                // 一つずつピクセルを取り出す
-                int pixelValue = intValues_right[i * inputSize + j];
-
-                // 画像をfloat型に変換
-                imgData_right.putFloat(((pixelValue & 0xFF) / IMAGE_MAX) - (rigth_mean.asFloatArray()[i * inputSize + j + 2] / IMAGE_MAX));
-                imgData_right.putFloat((((pixelValue >> 8) & 0xFF) / IMAGE_MAX) - (rigth_mean.asFloatArray()[i * inputSize + j + 1] / IMAGE_MAX));
-                imgData_right.putFloat((((pixelValue >> 16) & 0xFF) / IMAGE_MAX) - (rigth_mean.asFloatArray()[i * inputSize + j + 0] / IMAGE_MAX));
-
-            }
-        }
-
-        for (int i = 0; i < inputSize; ++i) {
-            for (int j = 0; j < inputSize; ++j) {
-                // 一つずつピクセルを取り出す
-                int pixelValue = intValues_left[i * inputSize + j];
-
-                // 画像をfloat型に変換
-                imgData_left.putFloat(((pixelValue & 0xFF) / IMAGE_MAX) - (left_mean.asFloatArray()[i * inputSize + j + 2] / IMAGE_MAX));
-                imgData_left.putFloat((((pixelValue >> 8) & 0xFF) / IMAGE_MAX) - (left_mean.asFloatArray()[i * inputSize + j + 1] / IMAGE_MAX));
-                imgData_left.putFloat((((pixelValue >> 16) & 0xFF) / IMAGE_MAX) - (left_mean.asFloatArray()[i * inputSize + j + 0] / IMAGE_MAX));
-
-            }
-        }
-
-
-
+        // 平均画像の差分は作成時に用意した計画を使う
+        ensureNormalization(face_mean, rigth_mean, left_mean);
 
         //　昔の手法の前処理
 /*        int count = 0;
@@ -458,23 +477,52 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
             }
         }*/
 
-        for (int i = 0; i < 625; ++i) {
-            // 一つずつピクセルを取り出す
-            imgData_grid.putFloat(face_grid[i]);
-        }
+        gazeEstimator.estimate(intValues_face, intValues_right, intValues_left, face_grid, gaze);
+    }
 
-        // inputArrayにimgDataのBufferを代入（object型）
-        Object[] inputArray = {imgData_right, imgData_left, imgData_face, imgData_grid};
+    @Override
+    public void recognizeImageEyeBatch(
+            Bitmap[] faces,
+            Bitmap[] right_eyes,
+            Bitmap[] left_eyes,
+            float[][] face_grids,
+            int count,
+            MeanImage face_mean,
+            MeanImage right_mean,
+            MeanImage left_mean,
+            float[][] gaze) {
+        ensureNormalization(face_mean, right_mean, left_mean);
+        if (count > batchValues_face.length) {
+            batchValues_face = new int[count][inputSize * inputSize];
+            batchValues_right = new int[count][inputSize * inputSize];
+            batchValues_left = new int[count][inputSize * inputSize];
+        }
 
-        // Map型　キーint型 数値Object型
-        Map<Integer, Object> outputMap = new HashMap<>();
+        // サンプルごとに画素を取り出す
+        for (int i = 0; i < count; ++i) {
+            faces[i].getPixels(batchValues_face[i], 0, faces[i].getWidth(), 0, 0, faces[i].getWidth(), faces[i].getHeight());
+            right_eyes[i].getPixels(batchValues_right[i], 0, right_eyes[i].getWidth(), 0, 0, right_eyes[i].getWidth(), right_eyes[i].getHeight());
+            left_eyes[i].getPixels(batchValues_left[i], 0, left_eyes[i].getWidth(), 0, 0, left_eyes[i].getWidth(), left_eyes[i].getHeight());
+        }
+        gazeEstimator.estimateBatch(batchValues_face, batchValues_right, batchValues_left, face_grids, count, gaze);
+    }
 
-        // 各キーにそれぞれfloat型を代入
-        outputMap.put(0, recognizedValues);
+    @Override
+    public WarmUpResult warmUp(int iterations) {
+        return gazeEstimator.warmUp(iterations);
+    }
 
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+    /** The gaze path of this model, sharing its interpreter. */
+    GazeEstimator getGazeEstimator() {
+        return gazeEstimator;
+    }
 
-        return recognizedValues;
+    /** Rebuilds the normalization plan if the caller switched mean images. */
+    private void ensureNormalization(MeanImage face_mean, MeanImage right_mean, MeanImage left_mean) {
+        final GazeNormalization normalization = gazeEstimator.getNormalization();
+        if (normalization == null || !normalization.isBuiltFrom(face_mean, right_mean, left_mean)) {
+            gazeEstimator.setNormalization(GazeNormalization.create(face_mean, right_mean, left_mean, inputSize));
+        }
     }
 
     @Override
@@ -488,6 +536,9 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
 
     @Override
     public void close() {
+        // 視線推定がインタプリタも閉じる
+        gazeEstimator.close();
+        tfLite = null;
     }
 
     public void setNumThreads(int num_threads) {
@@ -498,4 +549,9 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     public void setUseNNAPI(boolean isChecked) {
         if (tfLite != null) tfLite.setUseNNAPI(isChecked);
     }
+
+    @Override
+    public void setPreprocessPool(ForkJoinPool pool) {
+        gazeEstimator.setPreprocessPool(pool);
+    }
 }
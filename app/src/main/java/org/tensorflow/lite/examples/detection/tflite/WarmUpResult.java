@@ -0,0 +1,64 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Locale;
+
+/** Latencies measured while warming up a gaze interpreter with synthetic inputs. */
+public final class WarmUpResult {
+    /** Called once warm-up has finished and the interpreters are ready for frames. */
+    public interface Listener {
+        void onWarmedUp(WarmUpResult result);
+    }
+
+    /** Number of synthetic inferences run per interpreter. */
+    public final int iterations;
+
+    /** Latency of the first inference, which pays for tensor allocation and kernel preparation. */
+    public final float coldMs;
+
+    /** Mean latency of the following inferences, or {@link #coldMs} if only one was run. */
+    public final float warmMs;
+
+    public WarmUpResult(final int iterations, final float coldMs, final float warmMs) {
+        this.iterations = iterations;
+        this.coldMs = coldMs;
+        this.warmMs = warmMs;
+    }
+
+    /** Combines the results of several interpreters: the slowest cold start and the mean warm latency. */
+    static WarmUpResult combine(final WarmUpResult[] results) {
+        int iterations = 0;
+        float cold = 0;
+        float warm = 0;
+        int count = 0;
+        for (final WarmUpResult r : results) {
+            if (r == null) {
+                continue;
+            }
+            iterations = Math.max(iterations, r.iterations);
+            cold = Math.max(cold, r.coldMs);
+            warm += r.warmMs;
+            count++;
+        }
+        return new WarmUpResult(iterations, cold, count == 0 ? 0 : warm / count);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "cold %.1fms, warm %.1fms (%d runs)", coldMs, warmMs, iterations);
+    }
+}
@@ -0,0 +1,40 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * Smooths the stream of gaze points of one face. Each sample is filtered as soon as it arrives,
+ * using only the samples before it, so no frame is held back.
+ *
+ * <p>Implementations keep their state in primitive fields and allocate nothing per sample.
+ * Parameters may be changed from another thread while samples are filtered; a change applies from
+ * the next sample on. {@link #filter} itself must be called from one thread at a time.
+ */
+public interface GazeFilter {
+    /**
+     * Filters one sample.
+     *
+     * @param timestampNanos When the sample was taken, e.g. {@code SystemClock.elapsedRealtimeNanos}.
+     *                       Samples must come in increasing order; an older one is passed through.
+     * @param x              Raw horizontal gaze.
+     * @param y              Raw vertical gaze.
+     * @param out            Receives the filtered x and y; may be the array the raw values came from.
+     */
+    void filter(long timestampNanos, float x, float y, float[] out);
+
+    /** Forgets all samples, e.g. when the face changes; the next sample passes through unchanged. */
+    void reset();
+}
@@ -0,0 +1,113 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * A constant-velocity Kalman filter, run independently on each axis. The state is position and
+ * velocity; only the position is measured. The output is the corrected position of the current
+ * sample, so the velocity term lets the estimate keep up with smooth gaze movement instead of
+ * trailing behind it.
+ *
+ * <p>{@code processNoise} is the spectral density of the random acceleration (units²/s³): higher
+ * follows quick changes sooner. {@code measurementNoise} is the variance of a raw sample (units²):
+ * higher smooths more.
+ */
+public final class KalmanGazeFilter implements GazeFilter {
+    private volatile float processNoise;
+    private volatile float measurementNoise;
+
+    private boolean initialized;
+    private long lastTimestamp;
+    private final Axis axisX = new Axis();
+    private final Axis axisY = new Axis();
+
+    public KalmanGazeFilter(final float processNoise, final float measurementNoise) {
+        setParameters(processNoise, measurementNoise);
+    }
+
+    public void setParameters(final float processNoise, final float measurementNoise) {
+        if (processNoise <= 0 || measurementNoise <= 0) {
+            throw new IllegalArgumentException("Bad Kalman noise: " + processNoise + ", " + measurementNoise);
+        }
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+    }
+
+    @Override
+    public void filter(final long timestampNanos, final float x, final float y, final float[] out) {
+        if (!initialized || timestampNanos <= lastTimestamp) {
+            if (!initialized) {
+                axisX.start(x, measurementNoise);
+                axisY.start(y, measurementNoise);
+                lastTimestamp = timestampNanos;
+                initialized = true;
+            }
+            out[0] = x;
+            out[1] = y;
+            return;
+        }
+        final float dt = (timestampNanos - lastTimestamp) * 1e-9f;
+        lastTimestamp = timestampNanos;
+        final float q = processNoise;
+        final float r = measurementNoise;
+        out[0] = axisX.update(x, dt, q, r);
+        out[1] = axisY.update(y, dt, q, r);
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+
+    /** Position, velocity and their 2x2 covariance along one axis. */
+    private static final class Axis {
+        private float position;
+        private float velocity;
+        private float p00;
+        private float p01;
+        private float p11;
+
+        void start(final float measured, final float measurementNoise) {
+            position = measured;
+            velocity = 0;
+            p00 = measurementNoise;
+            p01 = 0;
+            // 初速は分からないので大きめの分散から始める
+            p11 = 100 * measurementNoise;
+        }
+
+        float update(final float measured, final float dt, final float q, final float r) {
+            // 予測: x = F x, P = F P F^T + Q（Qは白色加速度モデル）
+            position += velocity * dt;
+            final float dt2 = dt * dt;
+            final float n00 = p00 + 2 * dt * p01 + dt2 * p11 + q * dt2 * dt / 3;
+            final float n01 = p01 + dt * p11 + q * dt2 / 2;
+            final float n11 = p11 + q * dt;
+
+            // 更新: 位置だけを観測する
+            final float s = n00 + r;
+            final float k0 = n00 / s;
+            final float k1 = n01 / s;
+            final float innovation = measured - position;
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+            p00 = (1 - k0) * n00;
+            p01 = (1 - k0) * n01;
+            p11 = n11 - k1 * n01;
+            return position;
+        }
+    }
+}
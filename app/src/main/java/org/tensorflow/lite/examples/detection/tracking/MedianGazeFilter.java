@@ -0,0 +1,96 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * The median of the last {@code window} samples, per axis. Single outliers, such as a blink, are
+ * removed completely, but a step in the gaze shows up only after half the window, so keep the
+ * window short; the other filters do not have this delay.
+ *
+ * <p>The window can be changed at runtime up to the capacity given at construction.
+ */
+public final class MedianGazeFilter implements GazeFilter {
+    private final float[] historyX;
+    private final float[] historyY;
+    // Scratch for sorting, one per axis.
+    private final float[] sortedX;
+    private final float[] sortedY;
+    private volatile int window;
+
+    private int next;
+    private int size;
+    private long lastTimestamp;
+
+    /**
+     * @param capacity Largest window that can be set.
+     * @param window   Samples the median is taken over.
+     */
+    public MedianGazeFilter(final int capacity, final int window) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        historyX = new float[capacity];
+        historyY = new float[capacity];
+        sortedX = new float[capacity];
+        sortedY = new float[capacity];
+        setWindow(window);
+    }
+
+    public void setWindow(final int window) {
+        if (window < 1 || window > historyX.length) {
+            throw new IllegalArgumentException("Window must be 1.." + historyX.length + ": " + window);
+        }
+        this.window = window;
+    }
+
+    @Override
+    public void filter(final long timestampNanos, final float x, final float y, final float[] out) {
+        if (size > 0 && timestampNanos <= lastTimestamp) {
+            out[0] = x;
+            out[1] = y;
+            return;
+        }
+        lastTimestamp = timestampNanos;
+        historyX[next] = x;
+        historyY[next] = y;
+        next = (next + 1) % historyX.length;
+        size = Math.min(size + 1, historyX.length);
+
+        final int n = Math.min(size, window);
+        out[0] = median(historyX, sortedX, n);
+        out[1] = median(historyY, sortedY, n);
+    }
+
+    @Override
+    public void reset() {
+        size = 0;
+        next = 0;
+    }
+
+    /** Median of the newest n samples, by insertion sort into the scratch array. */
+    private float median(final float[] history, final float[] sorted, final int n) {
+        for (int i = 0; i < n; ++i) {
+            final float v = history[Math.floorMod(next - 1 - i, history.length)];
+            int j = i;
+            while (j > 0 && sorted[j - 1] > v) {
+                sorted[j] = sorted[j - 1];
+                --j;
+            }
+            sorted[j] = v;
+        }
+        return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+    }
+}
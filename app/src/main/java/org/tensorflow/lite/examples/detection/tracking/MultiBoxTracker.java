@@ -25,7 +25,6 @@ import android.graphics.Paint.Join;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.text.TextUtils;
-import android.util.Log;
 import android.util.Pair;
 import android.util.TypedValue;
 
@@ -66,6 +65,8 @@ public class MultiBoxTracker {
     private final Queue<Integer> availableColors = new LinkedList<Integer>();
     private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
     private final Paint boxPaint = new Paint();
+    // 視線の位置を描くペン（描画のたびに作らない）
+    private final Paint eyePaint = new Paint();
     private final float textSizePx;
     private final BorderedText borderedText;
     private Matrix frameToCanvasMatrix;
@@ -73,7 +74,12 @@ public class MultiBoxTracker {
     private int frameHeight;
     private int sensorOrientation;
 
-    private float[] eyePosition = new float[2];
+    private final float[] eyePosition = new float[2];
+
+    // Gaze points of several faces, keyed by face ID. Null until setEyePositions is used.
+    private int[] faceIds;
+    private float[][] eyePositions;
+    private int numEyePositions;
 
     public MultiBoxTracker(final Context context) {
         for (final int color : COLORS) {
@@ -123,8 +129,32 @@ public class MultiBoxTracker {
         processResults(results);
     }
 
+    /** Sets the gaze point of a single face; the values are copied. */
     public synchronized void setEyePosition(float[] eyePosition) {
-        this.eyePosition = eyePosition;
+        this.eyePosition[0] = eyePosition[0];
+        this.eyePosition[1] = eyePosition[1];
+        numEyePositions = 0;
+    }
+
+    /**
+     * Sets the gaze points of several faces, drawn in a color chosen by face ID so each viewer
+     * keeps the same color across frames.
+     *
+     * @param ids       Stable ID of each face.
+     * @param positions Gaze point of each face on the canvas.
+     * @param count     Number of faces.
+     */
+    public synchronized void setEyePositions(final int[] ids, final float[][] positions, final int count) {
+        if (faceIds == null || faceIds.length < count) {
+            faceIds = new int[count];
+            eyePositions = new float[count][2];
+        }
+        for (int i = 0; i < count; i++) {
+            faceIds[i] = ids[i];
+            eyePositions[i][0] = positions[i][0];
+            eyePositions[i][1] = positions[i][1];
+        }
+        numEyePositions = count;
     }
 
     private Matrix getFrameToCanvasMatrix() {
@@ -196,10 +226,16 @@ public class MultiBoxTracker {
                         true);*/
 
         // getFrameToCanvasMatrix().mapPoints(eyePosition);
-        Paint paint = new Paint();
+        final Paint paint = eyePaint;
         paint.setStrokeWidth(12);
         paint.setColor(Color.RED);
-        Log.v("eyePosition", eyePosition[0] +":"+ eyePosition[1]);
+        if (numEyePositions > 0) {
+            for (int i = 0; i < numEyePositions; i++) {
+                paint.setColor(COLORS[Math.abs(faceIds[i]) % COLORS.length]);
+                canvas.drawPoint(eyePositions[i][0], eyePositions[i][1], paint);
+            }
+            return;
+        }
         canvas.drawPoint(eyePosition[0], eyePosition[1], paint);
     }
 
@@ -0,0 +1,93 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * The 1€ filter (Casiez et al., CHI 2012): an exponential smoother whose cutoff frequency rises
+ * with the speed of the signal. While the gaze rests, a low cutoff removes jitter; when it jumps
+ * to a new target, the cutoff opens up and the filtered point follows with little lag.
+ *
+ * <p>{@code minCutoff} (Hz) sets the smoothing at rest, {@code beta} how fast the cutoff grows
+ * with speed (per unit of the input), and {@code derivativeCutoff} (Hz) smooths the speed
+ * estimate itself.
+ */
+public final class OneEuroGazeFilter implements GazeFilter {
+    private volatile float minCutoff;
+    private volatile float beta;
+    private volatile float derivativeCutoff;
+
+    private boolean initialized;
+    private long lastTimestamp;
+    private float x;
+    private float y;
+    private float dx;
+    private float dy;
+
+    public OneEuroGazeFilter(final float minCutoff, final float beta, final float derivativeCutoff) {
+        setParameters(minCutoff, beta, derivativeCutoff);
+    }
+
+    public void setParameters(final float minCutoff, final float beta, final float derivativeCutoff) {
+        if (minCutoff <= 0 || beta < 0 || derivativeCutoff <= 0) {
+            throw new IllegalArgumentException(
+                    "Bad 1€ parameters: " + minCutoff + ", " + beta + ", " + derivativeCutoff);
+        }
+        this.minCutoff = minCutoff;
+        this.beta = beta;
+        this.derivativeCutoff = derivativeCutoff;
+    }
+
+    @Override
+    public void filter(final long timestampNanos, final float rawX, final float rawY, final float[] out) {
+        if (!initialized || timestampNanos <= lastTimestamp) {
+            if (!initialized) {
+                x = rawX;
+                y = rawY;
+                dx = 0;
+                dy = 0;
+                lastTimestamp = timestampNanos;
+                initialized = true;
+            }
+            out[0] = rawX;
+            out[1] = rawY;
+            return;
+        }
+        final float dt = (timestampNanos - lastTimestamp) * 1e-9f;
+        lastTimestamp = timestampNanos;
+
+        // 速度を平滑化し，その大きさに応じてカットオフ周波数を上げる
+        final float derivativeAlpha = alpha(derivativeCutoff, dt);
+        dx += derivativeAlpha * ((rawX - x) / dt - dx);
+        dy += derivativeAlpha * ((rawY - y) / dt - dy);
+        final float speed = (float) Math.sqrt(dx * dx + dy * dy);
+        final float a = alpha(minCutoff + beta * speed, dt);
+        x += a * (rawX - x);
+        y += a * (rawY - y);
+        out[0] = x;
+        out[1] = y;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+
+    /** Smoothing factor of a first-order low-pass filter with the given cutoff, for one step of dt. */
+    private static float alpha(final float cutoff, final float dt) {
+        final float tau = 1 / (2 * (float) Math.PI * cutoff);
+        return 1 / (1 + tau / dt);
+    }
+}
@@ -0,0 +1,251 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * Follows one rectangular region from frame to frame by normalized cross-correlation template
+ * matching on the luma plane, so a detector only has to run now and then.
+ *
+ * <p>{@link #start} samples the region on a grid of at most {@code templateSize x templateSize}
+ * points and keeps that as the template. {@link #track} searches around the current position,
+ * first on the grid spacing and then at finer steps down to one pixel, for the translation whose
+ * samples correlate best with the template. The cost per frame thus depends on the template size,
+ * not on the size of the region.
+ *
+ * <p>Only translation is tracked and the template is never updated, so the tracker does not drift
+ * but loses the region once its scale or appearance changes much. The correlation score of the
+ * last match, from -1 to 1, tells the caller when to detect again.
+ *
+ * <p>Coordinates are luma pixels of the frame. Not thread-safe; {@link #track} allocates nothing.
+ */
+public final class RoiTracker {
+    private final int maxSamples;
+    private final float searchRatio;
+
+    // Sample offsets inside the region, and the template with its mean removed.
+    private final int[] sampleX;
+    private final int[] sampleY;
+    private final float[] template;
+    private int numX;
+    private int numY;
+    private float templateNorm;
+
+    private int startLeft;
+    private int startTop;
+    private int left;
+    private int top;
+    private int width;
+    private int height;
+    private float score;
+    private boolean started;
+
+    // Best candidate of the current search.
+    private int bestLeft;
+    private int bestTop;
+    private float bestScore;
+
+    /**
+     * @param templateSize Samples per side of the template, at most.
+     * @param searchRatio  How far the region may move between two frames, relative to its larger
+     *                     side.
+     */
+    public RoiTracker(final int templateSize, final float searchRatio) {
+        if (templateSize < 2) {
+            throw new IllegalArgumentException("Template needs at least 2x2 samples: " + templateSize);
+        }
+        this.maxSamples = templateSize;
+        this.searchRatio = searchRatio;
+        sampleX = new int[templateSize];
+        sampleY = new int[templateSize];
+        template = new float[templateSize * templateSize];
+    }
+
+    /**
+     * Takes the template from a region of a frame. Returns false, and stops tracking, if the region
+     * is too small or outside the frame, or has no texture to match.
+     */
+    public boolean start(
+            final byte[] luma,
+            final int rowStride,
+            final int frameWidth,
+            final int frameHeight,
+            final int left,
+            final int top,
+            final int right,
+            final int bottom) {
+        started = false;
+        score = 0;
+        width = right - left;
+        height = bottom - top;
+        if (width < 2 || height < 2 || left < 0 || top < 0 || right > frameWidth || bottom > frameHeight) {
+            return false;
+        }
+        numX = Math.min(maxSamples, width);
+        numY = Math.min(maxSamples, height);
+        // 領域を等分した各区間の中央の画素を使う
+        for (int i = 0; i < numX; ++i) {
+            sampleX[i] = (2 * i + 1) * width / (2 * numX);
+        }
+        for (int j = 0; j < numY; ++j) {
+            sampleY[j] = (2 * j + 1) * height / (2 * numY);
+        }
+
+        float sum = 0;
+        for (int j = 0, k = 0; j < numY; ++j) {
+            final int row = (top + sampleY[j]) * rowStride + left;
+            for (int i = 0; i < numX; ++i, ++k) {
+                template[k] = 0xff & luma[row + sampleX[i]];
+                sum += template[k];
+            }
+        }
+        final int n = numX * numY;
+        final float mean = sum / n;
+        float sumSquares = 0;
+        for (int k = 0; k < n; ++k) {
+            template[k] -= mean;
+            sumSquares += template[k] * template[k];
+        }
+        templateNorm = (float) Math.sqrt(sumSquares);
+        if (templateNorm < 1e-3f) {
+            // 平坦な領域は位置が定まらない
+            return false;
+        }
+        this.startLeft = left;
+        this.startTop = top;
+        this.left = left;
+        this.top = top;
+        score = 1;
+        started = true;
+        return true;
+    }
+
+    /**
+     * Finds the region in a new frame of the same size and moves it there. Returns the correlation
+     * of the best match, or 0 if tracking has not been {@link #start started}.
+     */
+    public float track(final byte[] luma, final int rowStride, final int frameWidth, final int frameHeight) {
+        if (!started) {
+            return 0;
+        }
+        final int maxLeft = frameWidth - width;
+        final int maxTop = frameHeight - height;
+        final int radius = Math.max(1, Math.round(searchRatio * Math.max(width, height)));
+        int step = Math.max(1, Math.min(width / numX, height / numY));
+
+        bestLeft = left;
+        bestTop = top;
+        bestScore = -2;
+        // 粗い間隔で探索範囲全体を調べ，最良の位置の周りを間隔を半分にしながら調べ直す
+        search(luma, rowStride, left - radius, left + radius, top - radius, top + radius, step, maxLeft, maxTop);
+        while (step > 1) {
+            step /= 2;
+            final int x = bestLeft;
+            final int y = bestTop;
+            search(luma, rowStride, x - step, x + step, y - step, y + step, step, maxLeft, maxTop);
+        }
+        left = bestLeft;
+        top = bestTop;
+        score = Math.max(bestScore, 0);
+        return score;
+    }
+
+    private void search(
+            final byte[] luma,
+            final int rowStride,
+            final int fromX,
+            final int toX,
+            final int fromY,
+            final int toY,
+            final int step,
+            final int maxLeft,
+            final int maxTop) {
+        for (int y = Math.max(fromY, 0); y <= Math.min(toY, maxTop); y += step) {
+            for (int x = Math.max(fromX, 0); x <= Math.min(toX, maxLeft); x += step) {
+                final float s = correlate(luma, rowStride, x, y);
+                if (s > bestScore) {
+                    bestScore = s;
+                    bestLeft = x;
+                    bestTop = y;
+                }
+            }
+        }
+    }
+
+    /** Normalized cross-correlation of the template with the samples of the region at (x, y). */
+    private float correlate(final byte[] luma, final int rowStride, final int x, final int y) {
+        int sum = 0;
+        long sumSquares = 0;
+        float sumProducts = 0;
+        for (int j = 0, k = 0; j < numY; ++j) {
+            final int row = (y + sampleY[j]) * rowStride + x;
+            for (int i = 0; i < numX; ++i, ++k) {
+                final int v = 0xff & luma[row + sampleX[i]];
+                sum += v;
+                sumSquares += v * v;
+                // テンプレートは平均0なので，候補の平均を引かなくても共分散になる
+                sumProducts += v * template[k];
+            }
+        }
+        final int n = numX * numY;
+        final float variance = sumSquares - (float) sum * sum / n;
+        if (variance <= 0) {
+            return 0;
+        }
+        return sumProducts / ((float) Math.sqrt(variance) * templateNorm);
+    }
+
+    /** Whether a region is being tracked. */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /** Stops tracking until the next {@link #start}. */
+    public void stop() {
+        started = false;
+        score = 0;
+    }
+
+    /** Correlation of the last match. */
+    public float getScore() {
+        return score;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return left + width;
+    }
+
+    public int getBottom() {
+        return top + height;
+    }
+
+    /** Horizontal movement since {@link #start}. */
+    public int getOffsetX() {
+        return left - startLeft;
+    }
+
+    /** Vertical movement since {@link #start}. */
+    public int getOffsetY() {
+        return top - startTop;
+    }
+}
@@ -0,0 +1,205 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FrameRingTest {
+  private static final int WIDTH = 4;
+  private static final int HEIGHT = 2;
+  private static final int FRAME_BYTES = ImageUtils.getYUVByteSize(WIDTH, HEIGHT);
+  private static final int STRESS_FRAMES = 20000;
+  private static final int CONSUMERS = 2;
+
+  @Test
+  public void takesTheLatestFrameAndRecyclesOlderOnes() {
+    final FrameRing ring = new FrameRing(3);
+    publishNV21(ring, (byte) 1);
+    publishNV21(ring, (byte) 2);
+
+    final FrameRing.Frame latest = ring.takeLatest();
+    assertEquals(2, latest.getYuv().getLuminance()[0]);
+    assertNull(ring.takeLatest());
+    assertEquals(1, ring.getStaleCount());
+    latest.release();
+  }
+
+  @Test
+  public void rebindsTheSameYuvFrameForEveryCameraFrame() {
+    final FrameRing ring = new FrameRing(2);
+    YuvFrame first = null;
+    for (int i = 0; i < 4; ++i) {
+      final FrameRing.Frame frame = ring.acquire();
+      // Planes whose strides change between frames.
+      final int yRowStride = WIDTH + i;
+      frame.setPlanes(
+          plane(yRowStride * HEIGHT, (byte) i), plane(WIDTH, (byte) 0), plane(WIDTH, (byte) 0),
+          WIDTH, HEIGHT, yRowStride, WIDTH, 2);
+      ring.publish(frame);
+      final FrameRing.Frame taken = ring.takeLatest();
+      final YuvFrame yuv = taken.getYuv();
+      if (first == null) {
+        first = yuv;
+      }
+      assertSame(first, yuv);
+      assertEquals(yRowStride, yuv.lumaRow(1));
+      assertEquals(i, yuv.getLuminance()[0]);
+      taken.release();
+    }
+  }
+
+  @Test
+  public void overwritesTheOldestWaitingFrameWhenNoSlotIsFree() {
+    final FrameRing ring = new FrameRing(2);
+    publishNV21(ring, (byte) 1);
+    publishNV21(ring, (byte) 2);
+
+    final FrameRing.Frame frame = ring.acquire();
+    assertNotNull(frame);
+    assertEquals(1, ring.getStaleCount());
+    frame.setNV21(new byte[FRAME_BYTES], WIDTH, HEIGHT);
+    ring.publish(frame);
+    final FrameRing.Frame latest = ring.takeLatest();
+    assertSame(frame, latest);
+    // The frame with luma 2 is older than the one just published.
+    assertEquals(2, ring.getStaleCount());
+    assertEquals(0, ring.getDroppedCount());
+    latest.release();
+  }
+
+  @Test
+  public void dropsAFrameWhenEverySlotIsBusy() {
+    final FrameRing ring = new FrameRing(2);
+    publishNV21(ring, (byte) 1);
+    final FrameRing.Frame processing = ring.takeLatest();
+    final FrameRing.Frame writing = ring.acquire();
+    assertNotNull(writing);
+
+    assertNull(ring.acquire());
+    assertNull(ring.acquire());
+    assertEquals(2, ring.getDroppedCount());
+
+    // Once a slot is given back, frames are accepted again.
+    processing.release();
+    assertNotNull(ring.acquire());
+    assertEquals(2, ring.getDroppedCount());
+  }
+
+  /**
+   * One camera thread publishes frames while several pipeline threads take and release them. No
+   * slot may be handed to two owners at once, no frame may be seen half written, each consumer
+   * sees increasing sequence numbers and every published frame is counted once.
+   */
+  @Test(timeout = 60000)
+  public void neverHandsOutASlotTwiceUnderContention() throws InterruptedException {
+    final FrameRing ring = new FrameRing(CONSUMERS + 1);
+    final Set<FrameRing.Frame> owned =
+        Collections.newSetFromMap(new ConcurrentHashMap<FrameRing.Frame, Boolean>());
+    final AtomicReference<String> failure = new AtomicReference<>();
+    final AtomicBoolean done = new AtomicBoolean();
+
+    final Thread[] consumers = new Thread[CONSUMERS];
+    for (int c = 0; c < CONSUMERS; ++c) {
+      consumers[c] =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  long lastSequence = -1;
+                  while (failure.get() == null) {
+                    final boolean finished = done.get();
+                    final FrameRing.Frame frame = ring.takeLatest();
+                    if (frame == null) {
+                      if (finished) {
+                        return;
+                      }
+                      Thread.yield();
+                      continue;
+                    }
+                    if (!owned.add(frame)) {
+                      failure.compareAndSet(null, "Taken while owned elsewhere");
+                    }
+                    final long sequence = frame.getSequence();
+                    if (sequence <= lastSequence) {
+                      failure.compareAndSet(null, "Sequence " + sequence + " after " + lastSequence);
+                    }
+                    lastSequence = sequence;
+                    final byte[] luma = frame.getYuv().getLuminance();
+                    for (int i = 1; i < WIDTH * HEIGHT; ++i) {
+                      if (luma[i] != luma[0]) {
+                        failure.compareAndSet(null, "Torn frame: " + Arrays.toString(luma));
+                      }
+                    }
+                    owned.remove(frame);
+                    frame.release();
+                  }
+                }
+              });
+      consumers[c].start();
+    }
+
+    final byte[] data = new byte[FRAME_BYTES];
+    for (int n = 0; n < STRESS_FRAMES && failure.get() == null; ++n) {
+      final FrameRing.Frame frame = ring.acquire();
+      if (frame == null) {
+        continue;
+      }
+      if (!owned.add(frame)) {
+        failure.compareAndSet(null, "Acquired while owned elsewhere");
+      }
+      Arrays.fill(data, 0, WIDTH * HEIGHT, (byte) n);
+      frame.setNV21(data, WIDTH, HEIGHT);
+      owned.remove(frame);
+      ring.publish(frame);
+    }
+    done.set(true);
+    for (final Thread consumer : consumers) {
+      consumer.join();
+    }
+
+    assertNull(failure.get());
+    assertNull(ring.takeLatest());
+    assertEquals(STRESS_FRAMES, ring.getPublishedCount() + ring.getDroppedCount());
+    assertEquals(ring.getPublishedCount(), ring.getTakenCount() + ring.getStaleCount());
+  }
+
+  private static void publishNV21(final FrameRing ring, final byte luma) {
+    final FrameRing.Frame frame = ring.acquire();
+    final byte[] data = new byte[FRAME_BYTES];
+    data[0] = luma;
+    frame.setNV21(data, WIDTH, HEIGHT);
+    ring.publish(frame);
+  }
+
+  private static ByteBuffer plane(final int size, final byte value) {
+    final byte[] bytes = new byte[size];
+    bytes[0] = value;
+    return ByteBuffer.wrap(bytes);
+  }
+}
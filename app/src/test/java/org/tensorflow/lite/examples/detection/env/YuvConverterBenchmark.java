@@ -0,0 +1,96 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Median time of converting a camera-sized NV21 frame with the original single-threaded loop and
+ * with 1 to {@code availableProcessors()} threads of each kernel, and the speedup over the
+ * original. Ignored by default; remove the {@code @Ignore} to run it, on a machine with the core
+ * count of interest, and read the table from standard output.
+ */
+@Ignore("Benchmark, run by hand")
+public class YuvConverterBenchmark {
+  private static final int WIDTH = 960;
+  private static final int HEIGHT = 1280;
+  private static final int WARM_UP_ITERATIONS = 10;
+  private static final int ITERATIONS = 60;
+
+  @Test
+  public void speedupAgainstThreadCount() {
+    final byte[] frame = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+    new Random(0).nextBytes(frame);
+    final int[] expected = new int[WIDTH * HEIGHT];
+    final int[] actual = new int[WIDTH * HEIGHT];
+    final long[] samples = new long[ITERATIONS];
+    final int maxThreads = Runtime.getRuntime().availableProcessors();
+
+    for (int i = 0; i < WARM_UP_ITERATIONS; ++i) {
+      ImageUtils.convertYUV420SPToARGB8888(frame, WIDTH, HEIGHT, expected);
+    }
+    for (int i = 0; i < ITERATIONS; ++i) {
+      final long start = System.nanoTime();
+      ImageUtils.convertYUV420SPToARGB8888(frame, WIDTH, HEIGHT, expected);
+      samples[i] = System.nanoTime() - start;
+    }
+    final long reference = median(samples);
+    report("original", 1, reference, reference);
+
+    for (final YuvConverter.Kernel kernel : YuvConverter.Kernel.values()) {
+      for (int threads = 1; threads <= maxThreads; ++threads) {
+        final YuvConverter converter = new YuvConverter(threads);
+        converter.setKernel(kernel);
+        try {
+          for (int i = 0; i < WARM_UP_ITERATIONS; ++i) {
+            converter.convertYUV420SPToARGB8888(frame, WIDTH, HEIGHT, actual);
+          }
+          for (int i = 0; i < ITERATIONS; ++i) {
+            Arrays.fill(actual, 0);
+            final long start = System.nanoTime();
+            converter.convertYUV420SPToARGB8888(frame, WIDTH, HEIGHT, actual);
+            samples[i] = System.nanoTime() - start;
+          }
+        } finally {
+          converter.close();
+        }
+        assertArrayEquals(kernel + ", " + threads + " threads", expected, actual);
+        report(kernel.name(), threads, median(samples), reference);
+      }
+    }
+  }
+
+  private static void report(final String name, final int threads, final long time, final long reference) {
+    System.out.println(
+        String.format(
+            Locale.US,
+            "YUV %dx%d, %s, %d threads: %.2fms, %.2fx",
+            WIDTH, HEIGHT, name, threads, time / 1e6f, reference / (float) time));
+  }
+
+  private static long median(final long[] samples) {
+    final long[] sorted = samples.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+}
@@ -0,0 +1,106 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/** Every kernel and thread count must give exactly the output of the single-threaded loops. */
+public class YuvConverterTest {
+  // Odd sizes, so the last row pair and column pair are incomplete.
+  private static final int WIDTH = 37;
+  private static final int HEIGHT = 21;
+  private static final int MAX_THREADS = 4;
+
+  @Test
+  public void semiPlanarMatchesImageUtils() {
+    final byte[] frame = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+    new Random(1).nextBytes(frame);
+    final int[] expected = new int[WIDTH * HEIGHT];
+    ImageUtils.convertYUV420SPToARGB8888(frame, WIDTH, HEIGHT, expected);
+
+    for (final YuvConverter.Kernel kernel : YuvConverter.Kernel.values()) {
+      for (int threads = 1; threads <= MAX_THREADS; ++threads) {
+        final YuvConverter converter = new YuvConverter(threads);
+        converter.setKernel(kernel);
+        try {
+          final int[] actual = new int[WIDTH * HEIGHT];
+          converter.convertYUV420SPToARGB8888(frame, WIDTH, HEIGHT, actual);
+          assertArrayEquals(kernel + ", " + threads + " threads", expected, actual);
+        } finally {
+          converter.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void planarWithStridesMatchesImageUtils() {
+    final Random random = new Random(2);
+    // Padded rows and interleaved chroma, as camera planes usually are.
+    final int yRowStride = WIDTH + 3;
+    final int uvPixelStride = 2;
+    final int uvRowStride = (WIDTH + 1) / 2 * uvPixelStride + 5;
+    final byte[] y = new byte[yRowStride * HEIGHT];
+    final byte[] u = new byte[uvRowStride * ((HEIGHT + 1) / 2)];
+    final byte[] v = new byte[u.length];
+    random.nextBytes(y);
+    random.nextBytes(u);
+    random.nextBytes(v);
+    final int[] expected = new int[WIDTH * HEIGHT];
+    ImageUtils.convertYUV420ToARGB8888(
+        y, u, v, WIDTH, HEIGHT, yRowStride, uvRowStride, uvPixelStride, expected);
+
+    for (final YuvConverter.Kernel kernel : YuvConverter.Kernel.values()) {
+      for (int threads = 1; threads <= MAX_THREADS; ++threads) {
+        final YuvConverter converter = new YuvConverter(threads);
+        converter.setKernel(kernel);
+        try {
+          final int[] actual = new int[WIDTH * HEIGHT];
+          converter.convertYUV420ToARGB8888(
+              y, u, v, WIDTH, HEIGHT, yRowStride, uvRowStride, uvPixelStride, actual);
+          assertArrayEquals(kernel + ", " + threads + " threads", expected, actual);
+        } finally {
+          converter.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void keepsConvertingAfterTheThreadCountChanges() {
+    final byte[] frame = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+    new Random(3).nextBytes(frame);
+    final int[] expected = new int[WIDTH * HEIGHT];
+    ImageUtils.convertYUV420SPToARGB8888(frame, WIDTH, HEIGHT, expected);
+
+    final YuvConverter converter = new YuvConverter(3);
+    try {
+      final int[] actual = new int[WIDTH * HEIGHT];
+      converter.setNumThreads(1);
+      converter.convertYUV420SPToARGB8888(frame, WIDTH, HEIGHT, actual);
+      assertArrayEquals(expected, actual);
+      converter.setNumThreads(2);
+      converter.convertYUV420SPToARGB8888(frame, WIDTH, HEIGHT, actual);
+      assertArrayEquals(expected, actual);
+    } finally {
+      converter.close();
+    }
+  }
+}
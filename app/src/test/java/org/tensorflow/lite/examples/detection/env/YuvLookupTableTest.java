@@ -0,0 +1,37 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class YuvLookupTableTest {
+  @Test
+  public void matchesTheIntegerFormulaForEveryYuvTriple() {
+    for (int y = 0; y < 256; ++y) {
+      for (int u = 0; u < 256; ++u) {
+        for (int v = 0; v < 256; ++v) {
+          final int expected = ImageUtils.YUV2RGB(y, u, v);
+          final int actual = YuvLookupTable.YUV2RGB(y, u, v);
+          if (actual != expected) {
+            assertEquals("Y " + y + ", U " + u + ", V " + v, expected, actual);
+          }
+        }
+      }
+    }
+  }
+}
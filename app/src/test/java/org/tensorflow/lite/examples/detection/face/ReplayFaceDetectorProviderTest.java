@@ -0,0 +1,128 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.face;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+public class ReplayFaceDetectorProviderTest {
+    private static final Executor DIRECT =
+            new Executor() {
+                @Override
+                public void execute(final Runnable command) {
+                    command.run();
+                }
+            };
+
+    private static final DetectedFace WITH_CONTOURS =
+            new DetectedFace(3, 10, 20, 110, 140, 40.5f, 60.25f, 80.0f, 61.0f,
+                    new float[] {30, 60, 50, 58.5f}, new float[] {70, 61, 90, 62});
+    private static final DetectedFace WITHOUT_LANDMARKS =
+            new DetectedFace(DetectedFace.INVALID_ID, 0, 0, 5, 5, Float.NaN, Float.NaN, Float.NaN, Float.NaN, null, null);
+
+    @Test
+    public void loadsWhatFormatWrites() throws IOException {
+        final String recording =
+                "# frame,id,left,top,right,bottom,...\n"
+                        + ReplayFaceDetectorProvider.format(0, WITH_CONTOURS) + "\n"
+                        + ReplayFaceDetectorProvider.format(0, WITHOUT_LANDMARKS) + "\n"
+                        + "\n"
+                        + "1\n"
+                        + ReplayFaceDetectorProvider.format(2, WITH_CONTOURS) + "\n";
+
+        final List<List<DetectedFace>> frames = ReplayFaceDetectorProvider.load(new StringReader(recording));
+
+        assertEquals(3, frames.size());
+        assertEquals(2, frames.get(0).size());
+        assertSameFace(WITH_CONTOURS, frames.get(0).get(0));
+        assertSameFace(WITHOUT_LANDMARKS, frames.get(0).get(1));
+        assertEquals(0, frames.get(1).size());
+        assertEquals(1, frames.get(2).size());
+        assertSameFace(WITH_CONTOURS, frames.get(2).get(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsLinesWithMissingFields() throws IOException {
+        ReplayFaceDetectorProvider.load(new StringReader("0,1,2,3,4,5\n"));
+    }
+
+    @Test
+    public void replaysOneFramePerDetectionAndStartsOver() throws Exception {
+        final String recording =
+                ReplayFaceDetectorProvider.format(0, WITH_CONTOURS) + "\n"
+                        + "1\n"
+                        + ReplayFaceDetectorProvider.format(2, WITHOUT_LANDMARKS) + "\n";
+        final ReplayFaceDetectorProvider provider =
+                new ReplayFaceDetectorProvider(ReplayFaceDetectorProvider.load(new StringReader(recording)), DIRECT);
+        provider.open();
+        final FaceImage image = new FaceImage();
+
+        assertEquals(3, provider.detect(image).get().get(0).getTrackingId());
+        assertEquals(0, provider.detect(image).get().size());
+        assertEquals(DetectedFace.INVALID_ID, provider.detect(image).get().get(0).getTrackingId());
+        assertEquals(3, provider.detect(image).get().get(0).getTrackingId());
+    }
+
+    @Test
+    public void detectFailsWhileClosed() throws IOException {
+        final ReplayFaceDetectorProvider provider =
+                new ReplayFaceDetectorProvider(
+                        ReplayFaceDetectorProvider.load(
+                                new StringReader(ReplayFaceDetectorProvider.format(0, WITH_CONTOURS))),
+                        DIRECT);
+        assertClosed(provider.detect(new FaceImage()));
+
+        provider.open();
+        provider.close();
+        assertClosed(provider.detect(new FaceImage()));
+    }
+
+    private static void assertClosed(final CompletableFuture<List<DetectedFace>> result) {
+        try {
+            result.get();
+            fail("Detection on a closed provider succeeded");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } catch (final InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void assertSameFace(final DetectedFace expected, final DetectedFace actual) {
+        assertEquals(expected.getTrackingId(), actual.getTrackingId());
+        assertEquals(expected.getLeft(), actual.getLeft());
+        assertEquals(expected.getTop(), actual.getTop());
+        assertEquals(expected.getRight(), actual.getRight());
+        assertEquals(expected.getBottom(), actual.getBottom());
+        assertEquals(expected.getRightEyeX(), actual.getRightEyeX(), 0.0f);
+        assertEquals(expected.getRightEyeY(), actual.getRightEyeY(), 0.0f);
+        assertEquals(expected.getLeftEyeX(), actual.getLeftEyeX(), 0.0f);
+        assertEquals(expected.getLeftEyeY(), actual.getLeftEyeY(), 0.0f);
+        assertArrayEquals(expected.getRightEyeContour(), actual.getRightEyeContour(), 0.0f);
+        assertArrayEquals(expected.getLeftEyeContour(), actual.getLeftEyeContour(), 0.0f);
+    }
+}
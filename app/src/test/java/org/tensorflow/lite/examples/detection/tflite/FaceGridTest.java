@@ -0,0 +1,86 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class FaceGridTest {
+    private static final int SIZE = GazeTensorPacker.GRID_SIZE;
+
+    // 250 x 250 pixels: one grid cell is 10 x 10 pixels.
+    private static final int FRAME = 250;
+
+    @Test
+    public void wholeFrameCoversEveryCell() {
+        final float[] grid = new float[GazeTensorPacker.GRID_CELLS];
+        FaceGrid.fill(FRAME, FRAME, 0, 0, FRAME, FRAME, grid);
+        assertCells(grid, 0, SIZE - 1, 0, SIZE - 1);
+    }
+
+    @Test
+    public void coversTheCellsOfTheFace() {
+        final float[] grid = new float[GazeTensorPacker.GRID_CELLS];
+        // Origin (1, 2) cells, size 5 x 3 cells.
+        FaceGrid.fill(FRAME, FRAME, 10, 20, 50, 30, grid);
+        assertCells(grid, 1, 5, 2, 4);
+    }
+
+    @Test
+    public void roundsHalfAwayFromZeroLikeMatlab() {
+        final float[] grid = new float[GazeTensorPacker.GRID_CELLS];
+        // Origin 0.5 rounds up to cell 1, width 2.5 up to 3 cells.
+        FaceGrid.fill(FRAME, FRAME, 5, 5, 25, 25, grid);
+        assertCells(grid, 1, 3, 1, 3);
+    }
+
+    @Test
+    public void clampsFacesPartlyOutsideTheFrame() {
+        final float[] grid = new float[GazeTensorPacker.GRID_CELLS];
+        // Starts 10 cells left of and 3 above the frame, 20 x 30 cells.
+        FaceGrid.fill(FRAME, FRAME, -100, -30, 200, 300, grid);
+        assertCells(grid, 0, 9, 0, SIZE - 1);
+    }
+
+    @Test
+    public void scalesEachAxisOnItsOwn() {
+        final float[] grid = new float[GazeTensorPacker.GRID_CELLS];
+        // 960 x 1280: one cell is 38.4 x 51.2 pixels.
+        FaceGrid.fill(960, 1280, 384, 512, 384, 512, grid);
+        assertCells(grid, 10, 19, 10, 19);
+    }
+
+    @Test
+    public void clearsThePreviousFace() {
+        final float[] grid = new float[GazeTensorPacker.GRID_CELLS];
+        Arrays.fill(grid, 1.0f);
+        FaceGrid.fill(FRAME, FRAME, 0, 0, 10, 10, grid);
+        assertCells(grid, 0, 0, 0, 0);
+    }
+
+    /** The cells in columns {@code [x0, x1]} and rows {@code [y0, y1]} are 1, all others 0. */
+    private static void assertCells(final float[] grid, final int x0, final int x1, final int y0, final int y1) {
+        for (int y = 0; y < SIZE; ++y) {
+            for (int x = 0; x < SIZE; ++x) {
+                final boolean inside = x >= x0 && x <= x1 && y >= y0 && y <= y1;
+                assertEquals("cell (" + x + ", " + y + ")", inside ? 1.0f : 0.0f, grid[y * SIZE + x], 0.0f);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A {@link GazeEstimator} without an interpreter that records how the pool and tuner use it. */
+class FakeGazeEstimator implements GazeEstimator {
+    final AtomicInteger estimates = new AtomicInteger();
+    final AtomicInteger closes = new AtomicInteger();
+    volatile int numThreads;
+    volatile boolean useNNAPI;
+    volatile ForkJoinPool preprocessPool;
+
+    /** Called by every single-sample estimate; throws to simulate a failing configuration. */
+    void onEstimate() {
+    }
+
+    @Override
+    public int getInputSize() {
+        return 1;
+    }
+
+    @Override
+    public void estimate(int[] face, int[] rightEye, int[] leftEye, float[] faceGrid, float[] gaze) {
+        estimates.incrementAndGet();
+        onEstimate();
+    }
+
+    @Override
+    public void estimate(IntBuffer face, IntBuffer rightEye, IntBuffer leftEye, float[] faceGrid, float[] gaze) {
+        estimate((int[]) null, null, null, faceGrid, gaze);
+    }
+
+    @Override
+    public void estimate(RoiResampler face, RoiResampler rightEye, RoiResampler leftEye, float[] faceGrid, float[] gaze) {
+        estimate((int[]) null, null, null, faceGrid, gaze);
+    }
+
+    @Override
+    public void estimatePreprocessed(FloatBuffer face, FloatBuffer rightEye, FloatBuffer leftEye, FloatBuffer faceGrid, float[] gaze) {
+        estimate((int[]) null, null, null, null, gaze);
+    }
+
+    @Override
+    public void estimateBatch(int[][] faces, int[][] rightEyes, int[][] leftEyes, float[][] faceGrids, int count, float[][] gaze) {
+        estimate((int[]) null, null, null, null, gaze[0]);
+    }
+
+    @Override
+    public void estimateBatch(RoiResampler[] faces, RoiResampler[] rightEyes, RoiResampler[] leftEyes, float[][] faceGrids, int count, float[][] gaze) {
+        estimate((int[]) null, null, null, null, gaze[0]);
+    }
+
+    @Override
+    public WarmUpResult warmUp(int iterations) {
+        return new WarmUpResult(iterations, 0, 0);
+    }
+
+    @Override
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    @Override
+    public void setUseNNAPI(boolean useNNAPI) {
+        this.useNNAPI = useNNAPI;
+    }
+
+    @Override
+    public void setPreprocessPool(ForkJoinPool pool) {
+        preprocessPool = pool;
+    }
+
+    @Override
+    public void close() {
+        closes.incrementAndGet();
+    }
+}
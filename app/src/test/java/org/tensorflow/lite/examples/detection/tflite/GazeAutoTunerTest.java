@@ -0,0 +1,96 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class GazeAutoTunerTest {
+    private static final int INTERPRETERS = 3;
+    private static final int MAX_THREADS = 2;
+    private static final int WARM_UP = 2;
+    private static final int ITERATIONS = 3;
+
+    /** Fails every NNAPI run straight away, before the others have finished warming up. */
+    private static final class NnapiFailing extends FakeGazeEstimator {
+        @Override
+        void onEstimate() {
+            if (useNNAPI) {
+                throw new IllegalStateException("NNAPI unavailable");
+            }
+        }
+    }
+
+    /** Slow enough that the failing interpreter is done before it reaches the end of warm-up. */
+    private static final class Slow extends FakeGazeEstimator {
+        @Override
+        void onEstimate() {
+            try {
+                Thread.sleep(5);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void skipsAConfigurationWhoseWarmUpFailsOnOneInterpreter() throws InterruptedException {
+        final FakeGazeEstimator failing = new NnapiFailing();
+        final List<FakeGazeEstimator> estimators = Arrays.asList(new Slow(), failing, new Slow());
+        final GazeInterpreterPool pool = new GazeInterpreterPool(estimators, 1);
+
+        final GazeAutoTuner.Config best = new GazeAutoTuner(MAX_THREADS, WARM_UP, ITERATIONS).tune(pool, 1);
+
+        assertFalse(best.useNNAPI);
+        assertTrue(best.numThreads >= 1 && best.numThreads <= MAX_THREADS);
+        // Every interpreter is back in the pool with the winning settings.
+        for (int i = 0; i < INTERPRETERS; ++i) {
+            final GazeEstimator estimator = pool.acquireEstimator();
+            assertEquals(best.numThreads, ((FakeGazeEstimator) estimator).numThreads);
+            assertFalse(((FakeGazeEstimator) estimator).useNNAPI);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void timesEveryInterpreterOfEveryConfiguration() throws InterruptedException {
+        final List<FakeGazeEstimator> estimators =
+                Arrays.asList(new FakeGazeEstimator(), new FakeGazeEstimator(), new FakeGazeEstimator());
+        new GazeAutoTuner(MAX_THREADS, WARM_UP, ITERATIONS).tune(new GazeInterpreterPool(estimators, 1), 1);
+
+        for (final FakeGazeEstimator estimator : estimators) {
+            assertEquals(2 * MAX_THREADS * (WARM_UP + ITERATIONS), estimator.estimates.get());
+        }
+    }
+
+    @Test(timeout = 10000, expected = IllegalStateException.class)
+    public void failsWhenNoConfigurationRuns() throws InterruptedException {
+        final FakeGazeEstimator broken =
+                new FakeGazeEstimator() {
+                    @Override
+                    void onEstimate() {
+                        throw new IllegalStateException("Broken model");
+                    }
+                };
+        final List<FakeGazeEstimator> estimators = Arrays.asList(new Slow(), broken);
+        new GazeAutoTuner(MAX_THREADS, WARM_UP, ITERATIONS).tune(new GazeInterpreterPool(estimators, 1), 1);
+    }
+}
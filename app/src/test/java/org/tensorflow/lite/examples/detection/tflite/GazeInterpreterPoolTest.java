@@ -0,0 +1,128 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class GazeInterpreterPoolTest {
+    private static final int SIZE = 4;
+
+    @Test
+    public void appliesSettingsAsEstimatorsAreCheckedOut() throws InterruptedException {
+        final FakeGazeEstimator estimator = new FakeGazeEstimator();
+        final GazeInterpreterPool pool = new GazeInterpreterPool(Collections.singletonList(estimator), 2);
+        final ForkJoinPool preprocess = new ForkJoinPool(1);
+        try {
+            pool.setNumThreads(3);
+            pool.setUseNNAPI(true);
+            pool.setPreprocessPool(preprocess);
+            assertEquals(0, estimator.numThreads);
+
+            assertSame(estimator, pool.acquireEstimator());
+            assertEquals(3, estimator.numThreads);
+            assertTrue(estimator.useNNAPI);
+            assertSame(preprocess, estimator.preprocessPool);
+            pool.release(estimator);
+        } finally {
+            preprocess.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void acquireFailsOnceClosedEvenWhileWaiting() throws InterruptedException {
+        final GazeInterpreterPool pool =
+                new GazeInterpreterPool(Collections.singletonList(new FakeGazeEstimator()), 1);
+        final GazeEstimator checkedOut = pool.acquireEstimator();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final Thread waiter =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                started.countDown();
+                                try {
+                                    pool.acquireEstimator();
+                                } catch (final Throwable t) {
+                                    failure.set(t);
+                                }
+                            }
+                        });
+        waiter.start();
+        started.await();
+        pool.close();
+        waiter.join();
+
+        assertTrue(String.valueOf(failure.get()), failure.get() instanceof IllegalStateException);
+        pool.release(checkedOut);
+        assertEquals(1, ((FakeGazeEstimator) checkedOut).closes.get());
+    }
+
+    @Test(timeout = 30000)
+    public void closesEveryEstimatorOnceWhenReleasesRaceClose() throws InterruptedException {
+        for (int round = 0; round < 200; ++round) {
+            final List<FakeGazeEstimator> estimators = new ArrayList<>(SIZE);
+            for (int i = 0; i < SIZE; ++i) {
+                estimators.add(new FakeGazeEstimator());
+            }
+            final GazeInterpreterPool pool = new GazeInterpreterPool(estimators, 1);
+            final List<GazeEstimator> checkedOut = new ArrayList<>(SIZE);
+            for (int i = 0; i < SIZE; ++i) {
+                checkedOut.add(pool.acquireEstimator());
+            }
+
+            final CountDownLatch go = new CountDownLatch(1);
+            final List<Thread> releasers = new ArrayList<>(SIZE);
+            for (final GazeEstimator estimator : checkedOut) {
+                final Thread releaser =
+                        new Thread(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        try {
+                                            go.await();
+                                        } catch (final InterruptedException e) {
+                                            return;
+                                        }
+                                        pool.release(estimator);
+                                    }
+                                });
+                releaser.start();
+                releasers.add(releaser);
+            }
+            go.countDown();
+            pool.close();
+            for (final Thread releaser : releasers) {
+                releaser.join();
+            }
+
+            for (final FakeGazeEstimator estimator : estimators) {
+                assertEquals("round " + round, 1, estimator.closes.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GazeNormalizationTest {
+    @Test
+    public void reordersMeanToBgrAndScales() {
+        final MeanImage mean = GazeTensorPackerTest.mean(2, 51, 102, 153);
+        final GazeNormalization normalization = GazeNormalization.create(mean, mean, mean, 2);
+        final float[] expected = new float[12];
+        for (int k = 0; k < expected.length; k += 3) {
+            expected[k] = 153 / 255.0f;
+            expected[k + 1] = 102 / 255.0f;
+            expected[k + 2] = 51 / 255.0f;
+        }
+        assertArrayEquals(expected, normalization.faceMean(), 0.0f);
+    }
+
+    @Test
+    public void normalizesARangeOfPixelsAtAnOffset() {
+        final MeanImage mean = GazeTensorPackerTest.mean(2, 0, 0, 255);
+        final GazeNormalization normalization = GazeNormalization.create(mean, mean, mean, 2);
+        final int[] argb = {0, 0, 0xFFFFFFFF, 0xFF000000};
+        final float[] dst = new float[8];
+
+        GazeNormalization.normalize(argb, normalization.faceMean(), 2, 4, dst, 2);
+
+        assertArrayEquals(new float[] {0, 0, 0, 1, 1, -1, 0, 0}, dst, 0.0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMeanOfTheWrongSize() {
+        final MeanImage mean = GazeTensorPackerTest.mean(2, 0, 0, 0);
+        GazeNormalization.create(mean, mean, mean, 3);
+    }
+
+    @Test
+    public void remembersItsMeanImages() {
+        final MeanImage a = GazeTensorPackerTest.mean(1, 0, 0, 0);
+        final MeanImage b = GazeTensorPackerTest.mean(1, 0, 0, 0);
+        final GazeNormalization normalization = GazeNormalization.create(a, a, b, 1);
+        assertTrue(normalization.isBuiltFrom(a, a, b));
+        assertFalse(normalization.isBuiltFrom(a, b, b));
+    }
+}
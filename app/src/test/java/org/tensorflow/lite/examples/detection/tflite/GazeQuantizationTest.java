@@ -0,0 +1,119 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GazeQuantizationTest {
+    @Test
+    public void roundTripsEveryUint8AtTheZeroPointEdges() {
+        for (final int zeroPoint : new int[] {0, 128, 255}) {
+            assertRoundTrip(new GazeQuantization.Params(1 / 255.0f, zeroPoint, false));
+        }
+    }
+
+    @Test
+    public void roundTripsEveryInt8AtTheZeroPointEdges() {
+        for (final int zeroPoint : new int[] {-128, 0, 127}) {
+            assertRoundTrip(new GazeQuantization.Params(1 / 127.0f, zeroPoint, true));
+        }
+    }
+
+    @Test
+    public void roundTripsAtSmallAndLargeScales() {
+        assertRoundTrip(new GazeQuantization.Params(1e-6f, 0, false));
+        assertRoundTrip(new GazeQuantization.Params(1e6f, -128, true));
+    }
+
+    @Test
+    public void clampsOutOfRangeValues() {
+        final GazeQuantization.Params uint8 = new GazeQuantization.Params(0.01f, 10, false);
+        assertEquals(0, uint8.quantize(-1.0f) & 0xFF);
+        assertEquals(255, uint8.quantize(10.0f) & 0xFF);
+        final GazeQuantization.Params int8 = new GazeQuantization.Params(0.01f, -10, true);
+        assertEquals(Byte.MIN_VALUE, int8.quantize(-10.0f));
+        assertEquals(Byte.MAX_VALUE, int8.quantize(10.0f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroScale() {
+        new GazeQuantization.Params(0.0f, 0, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsScalesTooSmallForFixedPoint() {
+        final MeanImage mean = GazeTensorPackerTest.mean(1, 0, 0, 0);
+        final GazeQuantization.Params tiny = new GazeQuantization.Params(1e-6f, 0, false);
+        GazeQuantization.create(GazeNormalization.create(mean, mean, mean, 1), tiny, tiny, tiny, tiny);
+    }
+
+    @Test
+    public void foldedPlanIsWithinOneStepOfQuantizingTheNormalizedValue() {
+        final Random random = new Random(11);
+        final MeanImage mean = GazeTensorPackerTest.randomMean(random);
+        final GazeNormalization normalization = GazeNormalization.create(mean, mean, mean, 13);
+        final GazeQuantization.Params params = new GazeQuantization.Params(2 / 255.0f, 128, false);
+        final GazeQuantization plan = GazeQuantization.create(normalization, params, params, params, params);
+
+        final int[] crop = GazeTensorPackerTest.randomCrop(random);
+        final float[] normalized = new float[crop.length * 3];
+        GazeNormalization.normalize(crop, normalization.faceMean(), 0, crop.length, normalized, 0);
+        final byte[] quantized = new byte[normalized.length];
+        plan.quantizeFace(crop, 0, crop.length, quantized, 0);
+
+        int exact = 0;
+        for (int i = 0; i < normalized.length; ++i) {
+            final int expected = params.quantize(normalized[i]) & 0xFF;
+            final int actual = quantized[i] & 0xFF;
+            assertTrue("value " + i + ": " + actual + " vs " + expected, Math.abs(actual - expected) <= 1);
+            if (actual == expected) {
+                ++exact;
+            }
+        }
+        // Only values within 2^-16 of a rounding tie may differ.
+        assertTrue(exact + " of " + normalized.length, exact >= normalized.length * 99 / 100);
+    }
+
+    @Test
+    public void quantizesGridCells() {
+        final MeanImage mean = GazeTensorPackerTest.mean(1, 0, 0, 0);
+        final GazeQuantization.Params image = new GazeQuantization.Params(1 / 255.0f, 0, false);
+        final GazeQuantization.Params grid = new GazeQuantization.Params(1 / 255.0f, 0, false);
+        final GazeQuantization plan =
+                GazeQuantization.create(GazeNormalization.create(mean, mean, mean, 1), image, image, image, grid);
+        final byte[] cells = new byte[3];
+        plan.quantizeGrid(new float[] {0.0f, 1.0f, 0.0f}, 3, cells);
+        assertEquals(0, cells[0]);
+        assertEquals(255, cells[1] & 0xFF);
+        assertEquals(0, cells[2]);
+    }
+
+    /** Every stored byte must come back unchanged through dequantize and quantize. */
+    private static void assertRoundTrip(final GazeQuantization.Params params) {
+        for (int q = params.min(); q <= params.max(); ++q) {
+            final byte stored = (byte) q;
+            assertEquals(
+                    "scale " + params.scale + ", zero point " + params.zeroPoint + ", q " + q,
+                    stored,
+                    params.quantize(params.dequantize(stored)));
+        }
+    }
+}
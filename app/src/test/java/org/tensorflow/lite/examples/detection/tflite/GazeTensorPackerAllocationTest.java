@@ -0,0 +1,165 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Once warmed up, packing a frame's gaze inputs must not allocate on the inference thread. The
+ * interpreter run itself is native and not covered here.
+ */
+public class GazeTensorPackerAllocationTest {
+    // Larger than BAND_ROWS, so the pooled packer splits every crop into bands.
+    private static final int SIZE = 40;
+    // Enough runs for the JIT to compile the packing loops; interpreted code may allocate.
+    private static final int WARM_UP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 200;
+    // ForkJoinTask.join() from a thread outside the pool queues one small wait node when it has to
+    // block; that is the JDK's, not the packer's, and does not grow with the crops.
+    private static final int POOL_JOIN_BYTES = 32;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void floatPackingAllocatesNothing() {
+        final Random random = new Random(1);
+        final MeanImage mean = GazeTensorPackerTest.randomMean(random, SIZE);
+        final ByteBuffer[] inputs = GazeTensorPackerTest.allocate(SIZE, 1);
+        final GazeTensorPacker packer =
+                new GazeTensorPacker(GazeNormalization.create(mean, mean, mean, SIZE),
+                        inputs[0], inputs[1], inputs[2], inputs[3]);
+        assertNoAllocation(packArrays(packer, random));
+    }
+
+    @Test
+    public void quantizedPackingAllocatesNothing() {
+        final Random random = new Random(2);
+        final MeanImage mean = GazeTensorPackerTest.randomMean(random, SIZE);
+        final GazeQuantization.Params params = new GazeQuantization.Params(2 / 255.0f, 128, false);
+        final GazeQuantization plan =
+                GazeQuantization.create(GazeNormalization.create(mean, mean, mean, SIZE), params, params, params, params);
+        final int imageBytes = SIZE * SIZE * GazeNormalization.CHANNELS;
+        final GazeTensorPacker packer =
+                new GazeTensorPacker(plan,
+                        ByteBuffer.allocateDirect(imageBytes).order(ByteOrder.nativeOrder()),
+                        ByteBuffer.allocateDirect(imageBytes).order(ByteOrder.nativeOrder()),
+                        ByteBuffer.allocateDirect(imageBytes).order(ByteOrder.nativeOrder()),
+                        ByteBuffer.allocateDirect(GazeTensorPacker.GRID_CELLS).order(ByteOrder.nativeOrder()));
+        assertNoAllocation(packArrays(packer, random));
+    }
+
+    @Test
+    public void packingFromTheCameraFrameAllocatesNothing() {
+        final Random random = new Random(3);
+        final MeanImage mean = GazeTensorPackerTest.randomMean(random, SIZE);
+        final ByteBuffer[] inputs = GazeTensorPackerTest.allocate(SIZE, 1);
+        final GazeTensorPacker packer =
+                new GazeTensorPacker(GazeNormalization.create(mean, mean, mean, SIZE),
+                        inputs[0], inputs[1], inputs[2], inputs[3]);
+        final int width = 160;
+        final int height = 120;
+        final int[] frame = new int[width * height];
+        for (int i = 0; i < frame.length; ++i) {
+            frame[i] = 0xFF000000 | random.nextInt(1 << 24);
+        }
+        final RoiResampler face = new RoiResampler(SIZE, RoiResampler.Mode.BILINEAR);
+        final RoiResampler right = new RoiResampler(SIZE, RoiResampler.Mode.BILINEAR);
+        final RoiResampler left = new RoiResampler(SIZE, RoiResampler.Mode.BILINEAR);
+        final float[] grid = GazeTensorPackerTest.grid(0);
+        assertNoAllocation(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        // A new region every frame, as the tracker moves.
+                        face.setRoi(frame, width, height, 20, 10, 100, 90, 90);
+                        right.setRoi(frame, width, height, 30, 20, 50, 40, 90);
+                        left.setRoi(frame, width, height, 60, 20, 80, 40, 90);
+                        packer.pack(face, right, left, grid);
+                    }
+                });
+    }
+
+    @Test
+    public void pooledPackingAllocatesNothingOnTheCallingThread() {
+        final Random random = new Random(4);
+        final MeanImage mean = GazeTensorPackerTest.randomMean(random, SIZE);
+        final ByteBuffer[] inputs = GazeTensorPackerTest.allocate(SIZE, 1);
+        final GazeTensorPacker packer =
+                new GazeTensorPacker(GazeNormalization.create(mean, mean, mean, SIZE),
+                        inputs[0], inputs[1], inputs[2], inputs[3]);
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            packer.setPool(pool);
+            assertAllocatesAtMost(packArrays(packer, random), POOL_JOIN_BYTES);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Runnable packArrays(final GazeTensorPacker packer, final Random random) {
+        final int[] face = GazeTensorPackerTest.randomCrop(random, SIZE);
+        final int[] right = GazeTensorPackerTest.randomCrop(random, SIZE);
+        final int[] left = GazeTensorPackerTest.randomCrop(random, SIZE);
+        final float[] grid = GazeTensorPackerTest.grid(0);
+        return new Runnable() {
+            @Override
+            public void run() {
+                packer.pack(face, right, left, grid);
+            }
+        };
+    }
+
+    private void assertNoAllocation(final Runnable frame) {
+        assertAllocatesAtMost(frame, 0);
+    }
+
+    /** Runs {@code frame} until warm, then checks what further runs allocate per run. */
+    private void assertAllocatesAtMost(final Runnable frame, final int bytesPerRun) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; ++i) {
+            frame.run();
+        }
+        final long id = Thread.currentThread().getId();
+        // What reading the counter itself costs, if anything.
+        final long start = threads.getThreadAllocatedBytes(id);
+        final long overhead = threads.getThreadAllocatedBytes(id) - start;
+
+        final long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < ITERATIONS; ++i) {
+            frame.run();
+        }
+        final long allocated = Math.max(0, threads.getThreadAllocatedBytes(id) - before - overhead);
+        assertTrue("Packing allocated " + allocated + " bytes in " + ITERATIONS + " runs",
+                allocated <= (long) bytesPerRun * ITERATIONS);
+    }
+}
@@ -0,0 +1,236 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/** Checks the packed tensors against per-pixel {@code putFloat} packing. */
+public class GazeTensorPackerTest {
+    // Not a multiple of ROWS_PER_BLOCK, so the last block of each crop is partial.
+    private static final int SIZE = 13;
+    private static final int PIXELS = SIZE * SIZE;
+    // Above BAND_ROWS and not a multiple of it, so pooled packing splits each crop into bands and
+    // the last band is partial.
+    private static final int BANDED_SIZE = 70;
+
+    @Test
+    public void packsOnePixelAsBgrMinusMeanOver255() {
+        final GazeNormalization normalization =
+                GazeNormalization.create(mean(1, 10, 20, 30), mean(1, 0, 0, 0), mean(1, 255, 255, 255), 1);
+        final ByteBuffer[] inputs = allocate(1, 1);
+        new GazeTensorPacker(normalization, inputs[0], inputs[1], inputs[2], inputs[3])
+                .pack(new int[] {0xFF4080C0}, new int[] {0xFF4080C0}, new int[] {0xFF4080C0}, grid(1));
+
+        final FloatBuffer face = floats(inputs[0]);
+        assertEquals(0xC0 / 255.0f - 30 / 255.0f, face.get(0), 0.0f);
+        assertEquals(0x80 / 255.0f - 20 / 255.0f, face.get(1), 0.0f);
+        assertEquals(0x40 / 255.0f - 10 / 255.0f, face.get(2), 0.0f);
+        final FloatBuffer right = floats(inputs[1]);
+        assertEquals(0xC0 / 255.0f, right.get(0), 0.0f);
+        assertEquals(0x40 / 255.0f, right.get(2), 0.0f);
+        final FloatBuffer left = floats(inputs[2]);
+        assertEquals(0xC0 / 255.0f - 1.0f, left.get(0), 0.0f);
+        assertEquals(0x40 / 255.0f - 1.0f, left.get(2), 0.0f);
+    }
+
+    @Test
+    public void matchesPerPixelPackingBitForBit() {
+        final Random random = new Random(42);
+        final MeanImage faceMean = randomMean(random);
+        final MeanImage rightMean = randomMean(random);
+        final MeanImage leftMean = randomMean(random);
+        final int[] face = randomCrop(random);
+        final int[] right = randomCrop(random);
+        final int[] left = randomCrop(random);
+        final float[] grid = grid(7);
+
+        final ByteBuffer[] inputs = allocate(SIZE, 1);
+        new GazeTensorPacker(GazeNormalization.create(faceMean, rightMean, leftMean, SIZE),
+                inputs[0], inputs[1], inputs[2], inputs[3])
+                .pack(face, right, left, grid);
+
+        assertBitIdentical(referencePack(face, faceMean), floats(inputs[0]));
+        assertBitIdentical(referencePack(right, rightMean), floats(inputs[1]));
+        assertBitIdentical(referencePack(left, leftMean), floats(inputs[2]));
+        final FloatBuffer packedGrid = floats(inputs[3]);
+        for (int i = 0; i < GazeTensorPacker.GRID_CELLS; ++i) {
+            assertEquals(grid[i], packedGrid.get(i), 0.0f);
+        }
+    }
+
+    @Test
+    public void packsSamplesAtTheirBatchOffset() {
+        final Random random = new Random(7);
+        final MeanImage mean = randomMean(random);
+        final int[] crop = randomCrop(random);
+        final ByteBuffer[] inputs = allocate(SIZE, 3);
+        final GazeTensorPacker packer =
+                new GazeTensorPacker(GazeNormalization.create(mean, mean, mean, SIZE),
+                        inputs[0], inputs[1], inputs[2], inputs[3]);
+        assertEquals(3, packer.getBatchCapacity());
+
+        packer.packSample(2, crop, crop, crop, grid(3));
+
+        final FloatBuffer face = floats(inputs[0]);
+        final int values = PIXELS * GazeNormalization.CHANNELS;
+        for (int i = 0; i < 2 * values; ++i) {
+            assertEquals(0.0f, face.get(i), 0.0f);
+        }
+        face.position(2 * values);
+        assertBitIdentical(referencePack(crop, mean), face.slice());
+        assertEquals(1.0f, floats(inputs[3]).get(2 * GazeTensorPacker.GRID_CELLS + 3), 0.0f);
+    }
+
+    @Test
+    public void packersSharingAPoolMatchSerialPacking() {
+        final Random random = new Random(3);
+        final MeanImage mean = randomMean(random);
+        final GazeNormalization normalization = GazeNormalization.create(mean, mean, mean, SIZE);
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int i = 0; i < 2; ++i) {
+                final int[] crop = randomCrop(random);
+                final ByteBuffer[] inputs = allocate(SIZE, 1);
+                final GazeTensorPacker packer =
+                        new GazeTensorPacker(normalization, inputs[0], inputs[1], inputs[2], inputs[3]);
+                packer.setPool(pool);
+                packer.pack(crop, crop, crop, grid(0));
+                assertBitIdentical(referencePack(crop, mean), floats(inputs[0]));
+                assertBitIdentical(referencePack(crop, mean), floats(inputs[2]));
+            }
+            // The packers borrow the pool; it is still usable afterwards.
+            assertEquals(3, pool.getParallelism());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void pooledPackingSplitsLargeCropsIntoBands() {
+        assertTrue(BANDED_SIZE > GazeTensorPacker.BAND_ROWS && BANDED_SIZE % GazeTensorPacker.BAND_ROWS != 0);
+        final Random random = new Random(5);
+        final MeanImage faceMean = randomMean(random, BANDED_SIZE);
+        final MeanImage rightMean = randomMean(random, BANDED_SIZE);
+        final MeanImage leftMean = randomMean(random, BANDED_SIZE);
+        final int[] face = randomCrop(random, BANDED_SIZE);
+        final int[] right = randomCrop(random, BANDED_SIZE);
+        final int[] left = randomCrop(random, BANDED_SIZE);
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            final ByteBuffer[] inputs = allocate(BANDED_SIZE, 1);
+            final GazeTensorPacker packer =
+                    new GazeTensorPacker(GazeNormalization.create(faceMean, rightMean, leftMean, BANDED_SIZE),
+                            inputs[0], inputs[1], inputs[2], inputs[3]);
+            packer.setPool(pool);
+            // Twice, so the bands are also reused.
+            for (int i = 0; i < 2; ++i) {
+                packer.pack(face, right, left, grid(i));
+                assertBitIdentical(referencePack(face, faceMean), floats(inputs[0]));
+                assertBitIdentical(referencePack(right, rightMean), floats(inputs[1]));
+                assertBitIdentical(referencePack(left, leftMean), floats(inputs[2]));
+                assertEquals(1.0f, floats(inputs[3]).get(i), 0.0f);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** The packing as it was done before the packer: one putFloat per channel, B, G, R. */
+    static float[] referencePack(final int[] argb, final MeanImage rgbMean) {
+        final ByteBuffer buffer = ByteBuffer.allocate(argb.length * 3 * 4).order(ByteOrder.nativeOrder());
+        for (int p = 0; p < argb.length; ++p) {
+            final int pixelValue = argb[p];
+            buffer.putFloat(((pixelValue & 0xFF) / 255.0f) - (rgbMean.get(3 * p + 2) / 255.0f));
+            buffer.putFloat((((pixelValue >> 8) & 0xFF) / 255.0f) - (rgbMean.get(3 * p + 1) / 255.0f));
+            buffer.putFloat((((pixelValue >> 16) & 0xFF) / 255.0f) - (rgbMean.get(3 * p) / 255.0f));
+        }
+        final float[] values = new float[argb.length * 3];
+        ((ByteBuffer) buffer.rewind()).asFloatBuffer().get(values);
+        return values;
+    }
+
+    static void assertBitIdentical(final float[] expected, final FloatBuffer actual) {
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals("value " + i, Float.floatToRawIntBits(expected[i]), Float.floatToRawIntBits(actual.get(i)));
+        }
+    }
+
+    /** Face, right eye, left eye and grid buffers for {@code batch} samples of a float model. */
+    static ByteBuffer[] allocate(final int size, final int batch) {
+        final int imageBytes = batch * size * size * GazeNormalization.CHANNELS * 4;
+        return new ByteBuffer[] {
+            ByteBuffer.allocateDirect(imageBytes).order(ByteOrder.nativeOrder()),
+            ByteBuffer.allocateDirect(imageBytes).order(ByteOrder.nativeOrder()),
+            ByteBuffer.allocateDirect(imageBytes).order(ByteOrder.nativeOrder()),
+            ByteBuffer.allocateDirect(batch * GazeTensorPacker.GRID_CELLS * 4).order(ByteOrder.nativeOrder())
+        };
+    }
+
+    static FloatBuffer floats(final ByteBuffer buffer) {
+        return buffer.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /** A mean image of {@code size x size} pixels, all of the given RGB value. */
+    static MeanImage mean(final int size, final float r, final float g, final float b) {
+        final float[] values = new float[size * size * 3];
+        for (int k = 0; k < values.length; k += 3) {
+            values[k] = r;
+            values[k + 1] = g;
+            values[k + 2] = b;
+        }
+        return new MeanImage("mean", new int[] {size, size, 3}, FloatBuffer.wrap(values));
+    }
+
+    static MeanImage randomMean(final Random random) {
+        return randomMean(random, SIZE);
+    }
+
+    static MeanImage randomMean(final Random random, final int size) {
+        final float[] values = new float[size * size * 3];
+        for (int k = 0; k < values.length; ++k) {
+            values[k] = random.nextFloat() * 255.0f;
+        }
+        return new MeanImage("random", new int[] {size, size, 3}, FloatBuffer.wrap(values));
+    }
+
+    static int[] randomCrop(final Random random) {
+        return randomCrop(random, SIZE);
+    }
+
+    static int[] randomCrop(final Random random, final int size) {
+        final int[] argb = new int[size * size];
+        for (int p = 0; p < argb.length; ++p) {
+            argb[p] = 0xFF000000 | random.nextInt(1 << 24);
+        }
+        return argb;
+    }
+
+    /** A face grid with only cell {@code cell} set. */
+    static float[] grid(final int cell) {
+        final float[] grid = new float[GazeTensorPacker.GRID_CELLS];
+        grid[cell] = 1.0f;
+        return grid;
+    }
+}
@@ -0,0 +1,210 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class RoiResamplerTest {
+    // Odd sizes, so the last chroma row and column cover a single luma pixel.
+    private static final int WIDTH = 17;
+    private static final int HEIGHT = 13;
+    private static final int OUT = 6;
+
+    // Regions of OUT and 1.5 * OUT pixels, so sample points fall on and between source pixels; the
+    // last two reach past the frame edges. None falls exactly halfway, where NEAREST breaks the tie
+    // in frame coordinates and so differs from resampling a rotated frame.
+    private static final int[][] REGIONS = {
+        {3, 2, 3 + OUT, 2 + OUT},
+        {5, 1, 5 + OUT * 3 / 2, 1 + OUT * 3 / 2},
+        {-3, -2, -3 + OUT * 3 / 2, -2 + OUT * 3 / 2},
+        {WIDTH - 5, HEIGHT - 4, WIDTH - 5 + OUT * 3 / 2, HEIGHT - 4 + OUT * 3 / 2},
+    };
+    private static final int[] ROTATIONS = {0, 90, 180, 270, -90, 450};
+
+    @Test
+    public void copiesARegionOfTheSameSize() {
+        final int[] frame = randomArgb(new Random(1), WIDTH * HEIGHT);
+        for (final RoiResampler.Mode mode : RoiResampler.Mode.values()) {
+            final RoiResampler resampler = new RoiResampler(OUT, mode);
+            resampler.setRoi(frame, WIDTH, HEIGHT, 3, 2, 3 + OUT, 2 + OUT, 0);
+            final int[] expected = new int[OUT * OUT];
+            for (int y = 0; y < OUT; ++y) {
+                System.arraycopy(frame, (2 + y) * WIDTH + 3, expected, y * OUT, OUT);
+            }
+            assertArrayEquals(mode.name(), expected, resample(resampler));
+        }
+    }
+
+    @Test
+    public void repeatsEdgePixelsOutsideTheFrame() {
+        final int[] frame = randomArgb(new Random(2), WIDTH * HEIGHT);
+        final RoiResampler resampler = new RoiResampler(OUT, RoiResampler.Mode.NEAREST);
+        resampler.setRoi(frame, WIDTH, HEIGHT, -2, HEIGHT - 3, -2 + OUT, HEIGHT - 3 + OUT, 0);
+        final int[] expected = new int[OUT * OUT];
+        for (int y = 0; y < OUT; ++y) {
+            for (int x = 0; x < OUT; ++x) {
+                final int sx = Math.max(0, x - 2);
+                final int sy = Math.min(HEIGHT - 1, HEIGHT - 3 + y);
+                expected[y * OUT + x] = frame[sy * WIDTH + sx];
+            }
+        }
+        assertArrayEquals(expected, resample(resampler));
+    }
+
+    @Test
+    public void blendsHalfwayBetweenPixels() {
+        // Two columns, black and white; one output column samples exactly between them.
+        final int[] frame = {0xFF000000, 0xFFFFFFFF, 0xFF000000, 0xFFFFFFFF};
+        final RoiResampler resampler = new RoiResampler(1, RoiResampler.Mode.BILINEAR);
+        resampler.setRoi(frame, 2, 2, 0, 0, 2, 2, 0);
+        assertArrayEquals(new int[] {0xFF808080}, resample(resampler));
+    }
+
+    @Test
+    public void rotatesLikeResamplingARotatedFrame() {
+        final int[] frame = randomArgb(new Random(3), WIDTH * HEIGHT);
+        for (final RoiResampler.Mode mode : RoiResampler.Mode.values()) {
+            for (final int rotation : ROTATIONS) {
+                // The frame and each region turned clockwise by the rotation.
+                int[] rotated = frame;
+                int width = WIDTH;
+                int height = HEIGHT;
+                final int turns = ((rotation % 360) + 360) % 360 / 90;
+                for (int t = 0; t < turns; ++t) {
+                    rotated = rotateClockwise(rotated, width, height);
+                    final int swap = width;
+                    width = height;
+                    height = swap;
+                }
+                for (final int[] region : REGIONS) {
+                    final int[] r = rotateRegion(region, WIDTH, HEIGHT, turns);
+                    final RoiResampler expected = new RoiResampler(OUT, mode);
+                    expected.setRoi(rotated, width, height, r[0], r[1], r[2], r[3], 0);
+                    final RoiResampler actual = new RoiResampler(OUT, mode);
+                    actual.setRoi(frame, WIDTH, HEIGHT, region[0], region[1], region[2], region[3], rotation);
+                    assertArrayEquals(
+                            mode + ", " + rotation + " degrees, " + Arrays.toString(region),
+                            resample(expected),
+                            resample(actual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void semiPlanarCropsMatchCropsOfTheConvertedFrame() {
+        final byte[] nv21 = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+        new Random(4).nextBytes(nv21);
+        final int[] argb = new int[WIDTH * HEIGHT];
+        ImageUtils.convertYUV420SPToARGB8888(nv21, WIDTH, HEIGHT, argb);
+        assertYuvMatchesArgb(new YuvFrame().setNV21(nv21, WIDTH, HEIGHT), argb);
+    }
+
+    @Test
+    public void planarCropsWithStridesMatchCropsOfTheConvertedFrame() {
+        final Random random = new Random(5);
+        final int yRowStride = WIDTH + 3;
+        final int uvPixelStride = 2;
+        final int uvRowStride = (WIDTH + 1) / 2 * uvPixelStride + 5;
+        final byte[] y = new byte[yRowStride * HEIGHT];
+        final byte[] u = new byte[uvRowStride * ((HEIGHT + 1) / 2)];
+        final byte[] v = new byte[u.length];
+        random.nextBytes(y);
+        random.nextBytes(u);
+        random.nextBytes(v);
+        final int[] argb = new int[WIDTH * HEIGHT];
+        ImageUtils.convertYUV420ToARGB8888(y, u, v, WIDTH, HEIGHT, yRowStride, uvRowStride, uvPixelStride, argb);
+        assertYuvMatchesArgb(
+                new YuvFrame().setPlanes(y, u, v, WIDTH, HEIGHT, yRowStride, uvRowStride, uvPixelStride), argb);
+    }
+
+    @Test
+    public void resamplesAnyRangeOfRows() {
+        final int[] frame = randomArgb(new Random(6), WIDTH * HEIGHT);
+        final RoiResampler resampler = new RoiResampler(OUT, RoiResampler.Mode.BILINEAR);
+        resampler.setRoi(frame, WIDTH, HEIGHT, 1, 1, 1 + 2 * OUT, 1 + 2 * OUT, 90);
+        final int[] whole = resample(resampler);
+
+        final int[] rows = new int[3 + 2 * OUT];
+        resampler.resampleRows(2, 4, rows, 3);
+        assertArrayEquals(Arrays.copyOfRange(whole, 2 * OUT, 4 * OUT), Arrays.copyOfRange(rows, 3, 3 + 2 * OUT));
+    }
+
+    /** Every region, rotation and mode gives the same pixels from the YUV frame as from its ARGB. */
+    private static void assertYuvMatchesArgb(final YuvFrame yuv, final int[] argb) {
+        for (final RoiResampler.Mode mode : RoiResampler.Mode.values()) {
+            for (final int rotation : ROTATIONS) {
+                for (final int[] region : REGIONS) {
+                    final RoiResampler expected = new RoiResampler(OUT, mode);
+                    expected.setRoi(argb, WIDTH, HEIGHT, region[0], region[1], region[2], region[3], rotation);
+                    final RoiResampler actual = new RoiResampler(OUT, mode);
+                    actual.setRoi(yuv, region[0], region[1], region[2], region[3], rotation);
+                    assertArrayEquals(
+                            mode + ", " + rotation + " degrees, " + Arrays.toString(region),
+                            resample(expected),
+                            resample(actual));
+                }
+            }
+        }
+    }
+
+    private static int[] resample(final RoiResampler resampler) {
+        final int[] out = new int[resampler.getOutSize() * resampler.getOutSize()];
+        resampler.resample(out);
+        return out;
+    }
+
+    /** Turns a {@code width x height} frame clockwise by 90 degrees into a {@code height x width} one. */
+    private static int[] rotateClockwise(final int[] src, final int width, final int height) {
+        final int[] dst = new int[src.length];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                // The bottom-left pixel ends up top-left.
+                dst[x * height + (height - 1 - y)] = src[y * width + x];
+            }
+        }
+        return dst;
+    }
+
+    /** Left, top, right and bottom of a region after turning its frame clockwise {@code turns} times. */
+    private static int[] rotateRegion(final int[] region, final int width, final int height, final int turns) {
+        int[] r = region.clone();
+        int w = width;
+        int h = height;
+        for (int t = 0; t < turns; ++t) {
+            r = new int[] {h - r[3], r[0], h - r[1], r[2]};
+            final int swap = w;
+            w = h;
+            h = swap;
+        }
+        return r;
+    }
+
+    private static int[] randomArgb(final Random random, final int pixels) {
+        final int[] argb = new int[pixels];
+        for (int i = 0; i < pixels; ++i) {
+            argb[i] = 0xFF000000 | random.nextInt(1 << 24);
+        }
+        return argb;
+    }
+}
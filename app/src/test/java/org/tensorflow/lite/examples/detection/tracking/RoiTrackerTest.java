@@ -0,0 +1,148 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class RoiTrackerTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    // Same settings as DetectorActivity.
+    private static final int TEMPLATE_SIZE = 16;
+    private static final float SEARCH_RATIO = 0.25f;
+    private static final int TRIALS = 40;
+    private static final int MAX_SHIFT = 10;
+
+    @Test
+    public void recoversShiftsOfTexturedRegions() {
+        final Random random = new Random(1);
+        final RoiTracker tracker = new RoiTracker(TEMPLATE_SIZE, SEARCH_RATIO);
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            final byte[] first = texture(random);
+            final int size = 40 + random.nextInt(21);
+            final int left = MAX_SHIFT + random.nextInt(WIDTH - size - 2 * MAX_SHIFT);
+            final int top = MAX_SHIFT + random.nextInt(HEIGHT - size - 2 * MAX_SHIFT);
+            assertTrue(tracker.start(first, WIDTH, WIDTH, HEIGHT, left, top, left + size, top + size));
+
+            final int dx = random.nextInt(2 * MAX_SHIFT + 1) - MAX_SHIFT;
+            final int dy = random.nextInt(2 * MAX_SHIFT + 1) - MAX_SHIFT;
+            final float score = tracker.track(shift(first, dx, dy), WIDTH, WIDTH, HEIGHT);
+
+            final String label = "Trial " + trial + " shifted by (" + dx + ", " + dy + ")";
+            assertEquals(label, dx, tracker.getOffsetX());
+            assertEquals(label, dy, tracker.getOffsetY());
+            assertEquals(label, left + dx, tracker.getLeft());
+            assertEquals(label, top + dy + size, tracker.getBottom());
+            assertTrue(label + " scored " + score, score > 0.99f);
+        }
+    }
+
+    @Test
+    public void unrelatedFrameScoresBelowTheTrackingThreshold() {
+        final Random random = new Random(2);
+        final RoiTracker tracker = new RoiTracker(TEMPLATE_SIZE, SEARCH_RATIO);
+        assertTrue(tracker.start(texture(random), WIDTH, WIDTH, HEIGHT, 50, 30, 100, 80));
+
+        // DetectorActivity detects again below 0.7.
+        final float score = tracker.track(texture(random), WIDTH, WIDTH, HEIGHT);
+        assertTrue("Unrelated frame scored " + score, score < 0.7f);
+    }
+
+    @Test
+    public void refusesFlatOrOutOfFrameRegions() {
+        final RoiTracker tracker = new RoiTracker(TEMPLATE_SIZE, SEARCH_RATIO);
+        final byte[] flat = new byte[WIDTH * HEIGHT];
+        Arrays.fill(flat, (byte) 128);
+        assertFalse(tracker.start(flat, WIDTH, WIDTH, HEIGHT, 50, 30, 100, 80));
+        assertFalse(tracker.isStarted());
+
+        final byte[] textured = texture(new Random(3));
+        assertFalse(tracker.start(textured, WIDTH, WIDTH, HEIGHT, -1, 30, 50, 80));
+        assertFalse(tracker.start(textured, WIDTH, WIDTH, HEIGHT, 120, 30, WIDTH + 1, 80));
+        assertEquals(0, tracker.track(textured, WIDTH, WIDTH, HEIGHT), 0);
+    }
+
+    @Test
+    public void stopEndsTracking() {
+        final RoiTracker tracker = new RoiTracker(TEMPLATE_SIZE, SEARCH_RATIO);
+        final byte[] textured = texture(new Random(4));
+        assertTrue(tracker.start(textured, WIDTH, WIDTH, HEIGHT, 50, 30, 100, 80));
+        assertEquals(1, tracker.getScore(), 0);
+
+        tracker.stop();
+        assertFalse(tracker.isStarted());
+        assertEquals(0, tracker.track(textured, WIDTH, WIDTH, HEIGHT), 0);
+    }
+
+    /** Smooth random texture, so the coarse search steps land near the correlation peak. */
+    private static byte[] texture(final Random random) {
+        final float[] noise = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < noise.length; ++i) {
+            noise[i] = random.nextFloat();
+        }
+        final float[] smooth = blur(blur(noise, 3), 3);
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (float v : smooth) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        final byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < luma.length; ++i) {
+            luma[i] = (byte) Math.round(255 * (smooth[i] - min) / (max - min));
+        }
+        return luma;
+    }
+
+    /** Box blur with clamped edges. */
+    private static float[] blur(final float[] src, final int radius) {
+        final float[] dst = new float[src.length];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                float sum = 0;
+                int n = 0;
+                for (int v = Math.max(0, y - radius); v <= Math.min(HEIGHT - 1, y + radius); ++v) {
+                    for (int u = Math.max(0, x - radius); u <= Math.min(WIDTH - 1, x + radius); ++u) {
+                        sum += src[v * WIDTH + u];
+                        ++n;
+                    }
+                }
+                dst[y * WIDTH + x] = sum / n;
+            }
+        }
+        return dst;
+    }
+
+    /** The frame moved by (dx, dy), with the uncovered border repeated from the edge. */
+    private static byte[] shift(final byte[] src, final int dx, final int dy) {
+        final byte[] dst = new byte[src.length];
+        for (int y = 0; y < HEIGHT; ++y) {
+            final int sy = Math.max(0, Math.min(HEIGHT - 1, y - dy));
+            for (int x = 0; x < WIDTH; ++x) {
+                final int sx = Math.max(0, Math.min(WIDTH - 1, x - dx));
+                dst[y * WIDTH + x] = src[sy * WIDTH + sx];
+            }
+        }
+        return dst;
+    }
+}